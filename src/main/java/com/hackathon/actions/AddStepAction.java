@@ -1,9 +1,8 @@
 package com.hackathon.actions;
 
 import com.hackathon.model.TourStep;
-import com.hackathon.openai.OpenAIService;
+import com.hackathon.service.StepExplanationService;
 import com.hackathon.service.TourStateService;
-import com.hackathon.util.HtmlSanitizer;
 import com.hackathon.ui.StepCreationDialog;
 import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
@@ -74,16 +73,11 @@ public class AddStepAction extends AnAction {
         }
         String note = dialog.getNote();
 
-        OpenAIService ai = com.intellij.openapi.application.ApplicationManager.getApplication().getService(OpenAIService.class);
-        var result = ai.generateExplanation(code, note);
-        String explanation = HtmlSanitizer.stripCodeBlocks(result.htmlContent());
-
-        TourStep step = new TourStep(vFile.getPath(), lineNum, code, note, explanation, endLineNum, null, "manual");
+        // Add the step right away; its explanation is generated in the background and patched in when it arrives
+        TourStep step = new TourStep(vFile.getPath(), lineNum, code, note, null, endLineNum, null, "manual");
 
         TourStateService state = project.getService(TourStateService.class);
         state.addStep(step);
-        if (state.getSteps().size() == 1) {
-            state.setTitle(result.title());
-        }
+        project.getService(StepExplanationService.class).streamExplanation(step, partial -> {});
     }
 }
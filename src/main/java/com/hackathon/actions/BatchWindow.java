@@ -0,0 +1,88 @@
+package com.hackathon.actions;
+
+import com.hackathon.openai.OpenAIService;
+import com.intellij.openapi.project.Project;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Sends planned batches in order, keeping as many batch requests in flight as the adaptive limit shared by all
+ * OpenAIService callers allows; each answered batch makes room for the next. Batches not sent yet cost nothing
+ * if the run is cancelled.
+ *
+ * A batch answered from the cache completes while it is being sent, so its completion asks for the next one from
+ * inside {@link #fill}. Such calls only leave a note for the thread already filling, which loops again, rather than
+ * recursing once per batch.
+ */
+final class BatchWindow {
+    private final OpenAIService ai;
+    private final Project project;
+    private final List<List<OpenAIService.BatchItem>> batches;
+    private final long deadline;
+    // Called with every item id and its pending result as its batch is sent
+    private final BiConsumer<String, CompletableFuture<OpenAIService.ExplanationResult>> onRequest;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    // Calls of fill() not served yet; the caller that takes it from 0 drains, the others return at once
+    private final AtomicInteger fillRequests = new AtomicInteger();
+    private final Queue<CompletableFuture<OpenAIService.ExplanationResult>> sent = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+
+    BatchWindow(OpenAIService ai, Project project, List<List<OpenAIService.BatchItem>> batches, long deadline,
+                BiConsumer<String, CompletableFuture<OpenAIService.ExplanationResult>> onRequest) {
+        this.ai = ai;
+        this.project = project;
+        this.batches = batches;
+        this.deadline = deadline;
+        this.onRequest = onRequest;
+    }
+
+    /** Tops up the window with new requests. */
+    void fill() {
+        if (fillRequests.getAndIncrement() != 0) return;
+        int missed = 1;
+        do {
+            topUp();
+            missed = fillRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void topUp() {
+        while (!cancelled) {
+            int window = Math.max(1, ai.getConcurrencyLimit());
+            int cur = active.get();
+            if (cur >= window) return;
+            if (!active.compareAndSet(cur, cur + 1)) continue;
+            int idx = nextIndex.getAndIncrement();
+            if (idx >= batches.size()) {
+                active.decrementAndGet();
+                return;
+            }
+
+            // Use project-aware API so .env from this project is respected
+            Map<String, CompletableFuture<OpenAIService.ExplanationResult>> futs =
+                    ai.generateExplanationBatch(project, batches.get(idx), deadline);
+            sent.addAll(futs.values());
+            futs.forEach(onRequest);
+            if (cancelled) futs.values().forEach(f -> f.cancel(true));
+
+            // Free the slot once the whole batch is answered and schedule more if the window allows
+            CompletableFuture.allOf(futs.values().toArray(new CompletableFuture[0])).whenComplete((v, err) -> {
+                active.decrementAndGet();
+                fill();
+            });
+        }
+    }
+
+    /** Sends nothing more and aborts the requests in flight, their HTTP exchanges and pending retries included. */
+    void cancel() {
+        cancelled = true;
+        sent.forEach(f -> f.cancel(true));
+    }
+}
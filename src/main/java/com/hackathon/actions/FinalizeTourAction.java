@@ -1,40 +1,50 @@
 package com.hackathon.actions;
 
-import com.google.gson.Gson;
 import com.hackathon.model.Tour;
 import com.hackathon.model.TourStep;
 import com.hackathon.openai.OpenAIService;
 import com.hackathon.util.HtmlSanitizer;
+import com.hackathon.service.FinalizeJournal;
 import com.hackathon.service.SelectionModeService;
+import com.hackathon.service.TourPersistenceService;
 import com.hackathon.service.TourStateService;
+import com.hackathon.util.Settings;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Generates a tour.json in the project root with AI explanations for selected symbols.
+ * Runs in the background: explanations are written into {@link TourStateService} as they arrive, and a
+ * cancelled run still saves everything that completed. ACW_FINALIZE_BUDGET_SECONDS caps the run's wall-clock
+ * time (default: no limit); steps not explained by then are generated when viewed.
  */
 public class FinalizeTourAction extends AnAction {
-    private final Gson gson = new Gson();
+    // Projects with a finalize run in progress
+    private final Set<Project> running = ConcurrentHashMap.newKeySet();
 
     @Override
     public @NotNull ActionUpdateThread getActionUpdateThread() {
@@ -52,7 +62,7 @@ public class FinalizeTourAction extends AnAction {
             visible = sel != null && sel.isEnabled();
             // Enabled if there is at least one selection; otherwise we still show it but it will inform the user.
             TourStateService state = project.getService(TourStateService.class);
-            enabled = state != null && !state.getSteps().isEmpty();
+            enabled = state != null && !state.getSteps().isEmpty() && !running.contains(project);
         }
         e.getPresentation().setVisible(visible);
         e.getPresentation().setEnabled(enabled);
@@ -68,184 +78,175 @@ public class FinalizeTourAction extends AnAction {
             Messages.showInfoMessage(project, "No selections. Use 'Create Tour (Select Functions)' first.", "Create Tour");
             return;
         }
+        if (!running.add(project)) return;
+        project.getService(SelectionModeService.class).stopSpeculation();
 
-        // Run concurrent AI generation with progress UI
-        OpenAIService ai = com.intellij.openapi.application.ApplicationManager.getApplication().getService(OpenAIService.class);
+        // Run concurrent AI generation with background progress
+        OpenAIService ai = ApplicationManager.getApplication().getService(OpenAIService.class);
         List<TourStep> steps = new ArrayList<>(state.getSteps());
 
-        // Dedupe identical code+note pairs to avoid repeated calls
-        Map<String, CompletableFuture<OpenAIService.ExplanationResult>> futureByKey = new HashMap<>();
-        Map<String, List<Integer>> indicesByKey = new HashMap<>();
+        // Dedupe identical code+note pairs by content fingerprint (in step order, so early steps fill in first)
+        Map<String, List<Integer>> indicesByKey = new LinkedHashMap<>();
         for (int i = 0; i < steps.size(); i++) {
-            TourStep s = steps.get(i);
-            String note = s.authorNote() == null ? "" : s.authorNote();
-            String key = makeKey(s.codeSnippet(), note);
-            indicesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
-            // futures created later with throttling
+            indicesByKey.computeIfAbsent(steps.get(i).fingerprint().hex(), k -> new ArrayList<>()).add(i);
         }
 
         int unique = indicesByKey.size();
-        AtomicInteger completed = new AtomicInteger();
 
-        List<String> keys = new ArrayList<>(indicesByKey.keySet());
+        FinalizeJournal journal = FinalizeJournal.forProject(project);
+        AtomicInteger completed = new AtomicInteger();
 
         AtomicBoolean canceled = new AtomicBoolean(false);
+        AtomicBoolean outOfTime = new AtomicBoolean(false);
         AtomicInteger failures = new AtomicInteger(0);
-        // Thread-safe queue to collect results as they arrive
-        record IndexedResult(int index, OpenAIService.ExplanationResult result) {}
-        ConcurrentLinkedQueue<IndexedResult> responseQueue = new ConcurrentLinkedQueue<>();
+        AtomicInteger succeeded = new AtomicInteger(0);
+        CompletableFuture<Void> allDone = new CompletableFuture<>();
 
-        ProgressManager.getInstance().run(new Task.Modal(project, "Generating AI summaries (" + unique + ")", true) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Generating AI summaries (" + unique + ")", true) {
             @Override
             public void run(@NotNull ProgressIndicator indicator) {
                 indicator.setIndeterminate(unique <= 1);
-
-                int cfgConc = getConcurrency();
-                final int concurrency = cfgConc <= 0 ? Math.max(1, keys.size()) : Math.max(1, cfgConc);
-                final AtomicInteger nextIndex = new AtomicInteger(0);
-
-                // Helper to start the next request respecting concurrency
-                final Runnable startNext = new Runnable() {
-                    @Override
-                    public void run() {
-                        if (canceled.get()) return;
-                        int idx = nextIndex.getAndIncrement();
-                        if (idx >= keys.size()) return;
-
-                        String key = keys.get(idx);
-                        List<Integer> positions = indicesByKey.get(key);
-                        if (positions == null || positions.isEmpty()) {
-                            // nothing to process for this key, try next
-                            run();
-                            return;
-                        }
-                        TourStep s = steps.get(positions.get(0));
-                        String note = s.authorNote() == null ? "" : s.authorNote();
-
-                        // Use project-aware async API so .env from this project is respected
-                        CompletableFuture<OpenAIService.ExplanationResult> fut = ai.generateExplanationAsync(project, s.codeSnippet(), note);
-                        futureByKey.put(key, fut);
-
-                        fut.whenComplete((res, err) -> {
-                            if (err != null || res == null || res.htmlContent() == null) {
-                                failures.incrementAndGet();
-                            } else {
-                                // Enqueue result for every step that shares this key
-                                for (Integer pos : positions) {
-                                    responseQueue.add(new IndexedResult(pos, res));
-                                }
-                            }
-                            int done = completed.incrementAndGet();
-                            if (indicator.isCanceled()) {
-                                canceled.set(true);
-                            }
-                            // Update progress bar text and fraction
-                            indicator.setText("Generating AI summaries: " + done + "/" + unique);
-                            if (failures.get() > 0) {
-                                indicator.setText2(failures.get() + " failed");
-                            } else {
-                                indicator.setText2("");
-                            }
-                            indicator.setFraction(unique == 0 ? 1.0 : Math.min(1.0, (double) done / unique));
-
-                            // Schedule next if any
-                            if (!canceled.get()) {
-                                this.run();
-                            }
-                        });
-                    }
-                };
-
-                // Prime the pipeline with up to N concurrent requests
-                int initial = Math.min(concurrency, keys.size());
-                for (int i = 0; i < initial; i++) {
-                    if (indicator.isCanceled()) { canceled.set(true); break; }
-                    startNext.run();
+                long budget = getBudgetSeconds();
+                long deadline = budget > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(budget) : OpenAIService.NO_DEADLINE;
+
+                // Resume: results checkpointed by an earlier (cancelled or crashed) run are applied right away
+                Map<String, OpenAIService.ExplanationResult> resumed = journal.load();
+                resumed.keySet().retainAll(indicesByKey.keySet());
+                for (Map.Entry<String, OpenAIService.ExplanationResult> en : resumed.entrySet()) {
+                    applyResult(project, steps, indicesByKey.get(en.getKey()), en.getValue());
                 }
-
-                // Wait until all are done or canceled
-                while (!canceled.get() && completed.get() < unique) {
-                    if (indicator.isCanceled()) {
-                        canceled.set(true);
-                        break;
-                    }
-                    try { Thread.sleep(50); } catch (InterruptedException ignored) { }
+                completed.addAndGet(resumed.size());
+                succeeded.addAndGet(resumed.size());
+                indicator.setFraction((double) completed.get() / unique);
+                if (completed.get() >= unique) allDone.complete(null);
+
+                // Small snippets are packed into shared requests to cut per-request overhead
+                List<OpenAIService.BatchItem> items = new ArrayList<>(unique);
+                for (Map.Entry<String, List<Integer>> en : indicesByKey.entrySet()) {
+                    if (resumed.containsKey(en.getKey())) continue;
+                    TourStep s = steps.get(en.getValue().get(0));
+                    items.add(new OpenAIService.BatchItem(en.getKey(), Objects.toString(s.codeSnippet(), ""),
+                            s.authorNote() == null ? "" : s.authorNote(), s.fingerprint()));
                 }
-
-                // If canceled, try to cancel in-flight futures
-                if (canceled.get()) {
-                    futureByKey.values().forEach(f -> f.cancel(true));
-                } else {
-                    // Ensure all futures have finished
-                    try {
-                        CompletableFuture.allOf(futureByKey.values().toArray(new CompletableFuture[0])).join();
-                    } catch (Throwable ignored) {}
+                List<List<OpenAIService.BatchItem>> batches = ai.planBatches(project, items);
+
+                // The in-flight window (in requests) follows the adaptive limit shared by all OpenAIService callers
+                BatchWindow window = new BatchWindow(ai, project, batches, deadline, (key, future) -> {
+                    List<Integer> positions = indicesByKey.get(key);
+                    future.whenComplete((res, err) -> {
+                        if (err != null || res == null || res.htmlContent() == null) {
+                            failures.incrementAndGet();
+                        } else {
+                            succeeded.incrementAndGet();
+                            journal.append(key, res);
+                            applyResult(project, steps, positions, res);
+                        }
+                        int done = completed.incrementAndGet();
+                        // Update progress bar text and fraction
+                        indicator.setText("Generating AI summaries: " + done + "/" + unique);
+                        var stats = ai.getConcurrencyStats();
+                        String conc = "concurrency " + stats.limit() + (stats.drops() > 0 ? ", " + stats.drops() + " throttled" : "");
+                        if (failures.get() > 0) {
+                            indicator.setText2(failures.get() + " failed, " + conc);
+                        } else {
+                            indicator.setText2(conc);
+                        }
+                        indicator.setFraction(unique == 0 ? 1.0 : Math.min(1.0, (double) done / unique));
+                        if (done >= unique) allDone.complete(null);
+                    });
+                });
+                window.fill();
+
+                // Block this background thread until the last result arrives; returns early only on cancellation
+                try {
+                    ProgressIndicatorUtils.awaitWithCheckCanceled(allDone, indicator);
+                } catch (ProcessCanceledException pce) {
+                    canceled.set(true);
+                    window.cancel();
+                    throw pce;
                 }
+                outOfTime.set(deadline != OpenAIService.NO_DEADLINE && failures.get() > 0 && System.nanoTime() >= deadline);
             }
-        });
 
-        // If user canceled, stop here without saving/updating state
-        if (canceled.get()) {
-            return;
-        }
+            @Override
+            public void onFinished() {
+                running.remove(project);
+                journal.close();
+                // A cancelled or out-of-time run keeps its checkpoint so the next finalize only requests what is missing
+                boolean partial = canceled.get() || outOfTime.get();
+                CompletableFuture<File> saved = project.isDisposed() ? null : saveTour(project, partial, succeeded.get(), unique);
+                // Any other outcome drops it, an empty tour or a failed save included, so no stale entries are left behind
+                if (saved == null) journal.delete();
+                else if (!partial) saved.whenComplete((f, err) -> journal.delete());
+            }
+        });
+    }
 
-        // Build updated steps using results queue; sanitize HTML; pick title from first result when needed
-        List<TourStep> updated = new ArrayList<>(steps.size());
-        String title = state.getTitle();
-        OpenAIService.ExplanationResult[] resultsByIndex = new OpenAIService.ExplanationResult[steps.size()];
-        // Drain the queue atomically now that all futures are finished
-        IndexedResult ir;
-        while ((ir = responseQueue.poll()) != null) {
-            if (ir.index >= 0 && ir.index < resultsByIndex.length) {
-                resultsByIndex[ir.index] = ir.result;
+    /** Patch every step sharing a result into the tour state (on the EDT); steps removed meanwhile are skipped. */
+    private static void applyResult(Project project, List<TourStep> steps, List<Integer> positions, OpenAIService.ExplanationResult res) {
+        String html = HtmlSanitizer.stripCodeBlocks(res.htmlContent());
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (project.isDisposed()) return;
+            TourStateService state = project.getService(TourStateService.class);
+            for (Integer pos : positions) {
+                TourStep s = steps.get(pos);
+                state.replaceStep(s, new TourStep(s.filePath(), s.lineNum(), s.codeSnippet(), s.authorNote(), html, s.endLine(), s.symbolName(), s.type()));
             }
-        }
-        for (int i = 0; i < steps.size(); i++) {
-            TourStep s = steps.get(i);
-            OpenAIService.ExplanationResult result = resultsByIndex[i];
-            String html = result != null ? HtmlSanitizer.stripCodeBlocks(result.htmlContent()) : null;
-            if ((title == null || title.isBlank() || "Untitled Tour".equals(title)) && result != null && result.title() != null && !result.title().isBlank()) {
-                title = result.title();
+            String title = state.getTitle();
+            if ((title == null || title.isBlank() || "Untitled Tour".equals(title)) && res.title() != null && !res.title().isBlank()) {
+                state.setTitle(res.title());
             }
-            updated.add(new TourStep(s.filePath(), s.lineNum(), s.codeSnippet(), s.authorNote(), html, s.endLine(), s.symbolName(), s.type()));
-        }
+            project.getService(SelectionModeService.class).refreshAllEditors();
+        });
+    }
 
-        // If nothing succeeded, surface a helpful hint
-        if (failures.get() >= unique) {
+    /** Wall-clock budget of a finalize run in seconds (ACW_FINALIZE_BUDGET_SECONDS); 0 means no limit. */
+    private static long getBudgetSeconds() {
+        return Settings.getInt("ACW_FINALIZE_BUDGET_SECONDS", 0, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Write tour.json from the current state (complete, or partial after cancel or timeout) and leave selection mode.
+     * The file is written in the background; returns the pending save, or null if there was nothing to save.
+     */
+    private @Nullable CompletableFuture<File> saveTour(Project project, boolean partial, int succeeded, int unique) {
+        TourStateService state = project.getService(TourStateService.class);
+        if (state.getSteps().isEmpty()) return null;
+
+        // If nothing succeeded, surface a helpful hint (a cancelled or out-of-time run is partial by design)
+        if (!partial && succeeded == 0) {
             Messages.showWarningDialog(project,
                     "No AI summaries were generated. Please check your OPENAI_API_KEY (in environment, JVM system property, or .env) and network connectivity.",
                     "Auto Code Walker");
         }
 
-        String suggested = title == null || title.isBlank() ? "Auto Code Walker Tour" : title;
+        String title = state.getTitle();
+        String suggested = title == null || title.isBlank() || "Untitled Tour".equals(title) ? "Auto Code Walker Tour" : title;
         String input = Messages.showInputDialog(project, "Tour title:", "Create Tour", null, suggested, null);
-        if (input != null && !input.isBlank()) title = input.trim();
-        state.setTour(new Tour(title, updated));
+        title = input != null && !input.isBlank() ? input.trim() : suggested;
+        state.setTitle(title);
+        Tour tour = new Tour(title, new ArrayList<>(state.getSteps()));
+        // Selection mode ends now, but the edit journal stays until the file is written
+        long journaled = state.detach();
+        project.getService(SelectionModeService.class).setEnabled(false);
 
         String basePath = project.getBasePath();
         if (basePath == null) basePath = new File(".").getAbsolutePath();
         File out = new File(basePath, "tour.json");
-        
-        try (FileWriter fw = new FileWriter(out, StandardCharsets.UTF_8)) {
-            gson.toJson(new Tour(title, updated), fw);
-            Messages.showInfoMessage(project, "Tour saved to: " + out.getAbsolutePath(), "Create Tour");
-        } catch (Exception ex) {
-            Messages.showErrorDialog(project, "Failed to save tour: " + ex.getMessage(), "Create Tour");
-        }
-
-        // Disable selection mode and clear state to start fresh
-        project.getService(SelectionModeService.class).setEnabled(false);
-        state.clear();
-    }
-
-    private static String makeKey(String code, String note) {
-        String a = Objects.toString(code, "");
-        String b = Objects.toString(note, "");
-        return a.length() + ":" + a.hashCode() + ":" + b.hashCode();
-    }
 
-    private static int getConcurrency() {
-        // Fixed bounded concurrency: process requests 4-at-a-time regardless of env/system properties.
-        return 4;
+        String detail = partial
+                ? " (" + succeeded + "/" + unique + " summaries; the rest are generated when a step is viewed)"
+                : "";
+        CompletableFuture<File> saved = project.getService(TourPersistenceService.class).save(out, tour);
+        saved.whenComplete((f, err) -> ApplicationManager.getApplication().invokeLater(() -> {
+            if (project.isDisposed()) return;
+            if (err != null) {
+                Messages.showErrorDialog(project, "Failed to save tour: " + err.getMessage(), "Create Tour");
+            } else {
+                state.markWritten(journaled);
+                Messages.showInfoMessage(project, "Tour saved to: " + out.getAbsolutePath() + detail, "Create Tour");
+            }
+        }));
+        return saved;
     }
 }
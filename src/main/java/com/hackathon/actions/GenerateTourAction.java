@@ -1,24 +1,21 @@
 package com.hackathon.actions;
 
-import com.google.gson.Gson;
 import com.hackathon.model.Tour;
 import com.hackathon.model.TourStep;
+import com.hackathon.service.TourPersistenceService;
 import com.hackathon.service.TourStateService;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.io.File;
-import java.io.FileWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 public class GenerateTourAction extends AnAction {
-    private final Gson gson = new Gson();
-
     @Override
     public void actionPerformed(@NotNull AnActionEvent e) {
         Project project = e.getProject();
@@ -43,11 +40,15 @@ public class GenerateTourAction extends AnAction {
         File file = new File(dir, "tour.json");
 
         Tour tour = new Tour(title, new ArrayList<>(state.getSteps()));
-        try (FileWriter fw = new FileWriter(file, StandardCharsets.UTF_8)) {
-            gson.toJson(tour, fw);
-            Messages.showInfoMessage(project, "Tour saved to: " + file.getAbsolutePath(), "Generate Tour");
-        } catch (Exception ex) {
-            Messages.showErrorDialog(project, "Failed to save tour: " + ex.getMessage(), "Generate Tour");
-        }
+        project.getService(TourPersistenceService.class).save(file, tour).whenComplete((f, err) ->
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    if (project.isDisposed()) return;
+                    if (err != null) {
+                        Messages.showErrorDialog(project, "Failed to save tour: " + err.getMessage(), "Generate Tour");
+                    } else {
+                        state.markSaved(tour);
+                        Messages.showInfoMessage(project, "Tour saved to: " + file.getAbsolutePath(), "Generate Tour");
+                    }
+                }));
     }
 }
@@ -1,15 +1,16 @@
 package com.hackathon.actions;
 
-import com.google.gson.Gson;
 import com.hackathon.model.Tour;
 import com.hackathon.model.TourStep;
 import com.hackathon.service.EditorNavigationService;
 import com.hackathon.service.SelectionModeService;
 import com.hackathon.service.TourStateService;
 import com.hackathon.ui.TourToolWindow;
+import com.hackathon.util.TourCodec;
 import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.wm.ToolWindow;
@@ -19,12 +20,8 @@ import com.intellij.ui.content.ContentFactory;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.io.FileReader;
-import java.nio.charset.StandardCharsets;
 
 public class StartTourAction extends AnAction {
-    private final Gson gson = new Gson();
-
     @Override
     public @NotNull ActionUpdateThread getActionUpdateThread() {
         return ActionUpdateThread.BGT;
@@ -82,8 +79,8 @@ public class StartTourAction extends AnAction {
                 return;
             }
         }
-        try (FileReader fr = new FileReader(tourFile, StandardCharsets.UTF_8)) {
-            Tour tour = gson.fromJson(fr, Tour.class);
+        try {
+            Tour tour = TourCodec.readWithProgress(project, tourFile);
             if (tour == null || tour.steps() == null || tour.steps().isEmpty()) {
                 Messages.showErrorDialog(project, "Invalid or empty tour.json.", "Start Tour");
                 return;
@@ -107,6 +104,8 @@ public class StartTourAction extends AnAction {
             } else {
                 Messages.showWarningDialog(project, "Tool window 'Auto Code Walker' not available.", "Start Tour");
             }
+        } catch (ProcessCanceledException ignore) {
+            // Loading cancelled from the progress dialog
         } catch (Exception ex) {
             Messages.showErrorDialog(project, "Failed to load tour.json: " + ex.getMessage(), "Start Tour");
         }
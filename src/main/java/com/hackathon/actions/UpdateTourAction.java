@@ -0,0 +1,216 @@
+package com.hackathon.actions;
+
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import com.hackathon.openai.OpenAIService;
+import com.hackathon.service.SelectionModeService;
+import com.hackathon.service.StepResolver;
+import com.hackathon.service.TourPersistenceService;
+import com.hackathon.util.HtmlSanitizer;
+import com.hackathon.util.TourCodec;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Refreshes an existing tour.json after code changes. Every step is re-captured from the current sources and
+ * compared by fingerprint: unchanged steps keep their explanation (with updated line numbers), changed steps
+ * and steps without an explanation are regenerated. A cancelled run saves the steps it got through.
+ */
+public class UpdateTourAction extends AnAction {
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        boolean visible = false;
+        if (project != null && project.getBasePath() != null) {
+            SelectionModeService sel = project.getService(SelectionModeService.class);
+            visible = (sel == null || !sel.isEnabled()) && findTourFile(project) != null;
+        }
+        e.getPresentation().setEnabledAndVisible(visible);
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) return;
+        File tourFile = findTourFile(project);
+        if (tourFile == null) {
+            Messages.showErrorDialog(project, "No tour.json found in project root.", "Update Tour");
+            return;
+        }
+        Tour tour;
+        try {
+            tour = TourCodec.readWithProgress(project, tourFile);
+        } catch (ProcessCanceledException ignore) {
+            return;
+        } catch (Exception ex) {
+            Messages.showErrorDialog(project, "Failed to load tour.json: " + ex.getMessage(), "Update Tour");
+            return;
+        }
+        if (tour == null || tour.steps() == null || tour.steps().isEmpty()) {
+            Messages.showErrorDialog(project, "Invalid or empty tour.json.", "Update Tour");
+            return;
+        }
+
+        List<TourStep> steps = new ArrayList<>(tour.steps());
+        // Filled in from the background thread and HTTP callbacks; steps not compared yet stay null
+        AtomicReferenceArray<TourStep> updated = new AtomicReferenceArray<>(steps.size());
+        AtomicInteger regenerated = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger unchanged = new AtomicInteger();
+        AtomicInteger missing = new AtomicInteger();
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Updating tour", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(false);
+                indicator.setText("Comparing steps with current sources");
+                // Steps sharing content share one request, exactly like finalize
+                Map<String, List<Integer>> changedByKey = new LinkedHashMap<>();
+                DumbService dumb = DumbService.getInstance(project);
+                for (int i = 0; i < steps.size(); i++) {
+                    indicator.checkCanceled();
+                    TourStep old = steps.get(i);
+                    // One short read action per step, so typing is never blocked by a long tour
+                    TourStep now = dumb.runReadActionInSmartMode(() -> StepResolver.resolveCurrent(project, old));
+                    boolean explained = old.aiExplanation() != null && !old.aiExplanation().isBlank();
+                    if (now == null) {
+                        // Symbol and file are gone: keep the step as it was
+                        updated.set(i, old);
+                        missing.incrementAndGet();
+                    } else if (explained && now.fingerprint().equals(old.fingerprint())) {
+                        updated.set(i, now);
+                        unchanged.incrementAndGet();
+                    } else {
+                        TourStep changed = new TourStep(now.filePath(), now.lineNum(), now.codeSnippet(), now.authorNote(),
+                                null, now.endLine(), now.symbolName(), now.type());
+                        updated.set(i, changed);
+                        changedByKey.computeIfAbsent(changed.fingerprint().hex(), k -> new ArrayList<>()).add(i);
+                    }
+                    indicator.setFraction((double) (i + 1) / steps.size());
+                }
+                if (changedByKey.isEmpty()) return;
+
+                OpenAIService ai = ApplicationManager.getApplication().getService(OpenAIService.class);
+                List<OpenAIService.BatchItem> items = new ArrayList<>(changedByKey.size());
+                for (Map.Entry<String, List<Integer>> en : changedByKey.entrySet()) {
+                    TourStep s = updated.get(en.getValue().get(0));
+                    items.add(new OpenAIService.BatchItem(en.getKey(), Objects.toString(s.codeSnippet(), ""),
+                            s.authorNote() == null ? "" : s.authorNote(), s.fingerprint()));
+                }
+
+                int total = items.size();
+                indicator.setFraction(0);
+                indicator.setText("Regenerating " + total + " changed step(s)");
+                AtomicInteger done = new AtomicInteger();
+                CompletableFuture<Void> allDone = new CompletableFuture<>();
+                // Same in-flight window as finalize: batches are only sent as the shared adaptive limit makes room
+                BatchWindow window = new BatchWindow(ai, project, ai.planBatches(project, items), OpenAIService.NO_DEADLINE,
+                        (key, future) -> {
+                            List<Integer> positions = changedByKey.get(key);
+                            future.whenComplete((res, err) -> {
+                                if (err != null || res == null || res.htmlContent() == null) {
+                                    failed.incrementAndGet();
+                                } else {
+                                    String html = HtmlSanitizer.stripCodeBlocks(res.htmlContent());
+                                    for (Integer pos : positions) {
+                                        TourStep s = updated.get(pos);
+                                        updated.set(pos, new TourStep(s.filePath(), s.lineNum(), s.codeSnippet(), s.authorNote(),
+                                                html, s.endLine(), s.symbolName(), s.type()));
+                                    }
+                                    regenerated.incrementAndGet();
+                                }
+                                int n = done.incrementAndGet();
+                                indicator.setFraction((double) n / total);
+                                if (n >= total) allDone.complete(null);
+                            });
+                        });
+                window.fill();
+                try {
+                    ProgressIndicatorUtils.awaitWithCheckCanceled(allDone, indicator);
+                } catch (ProcessCanceledException pce) {
+                    window.cancel();
+                    throw pce;
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                save(false);
+            }
+
+            // A cancelled or failed run still saves what it got; the rest is generated when a step is viewed
+            @Override
+            public void onCancel() {
+                save(true);
+            }
+
+            @Override
+            public void onThrowable(@NotNull Throwable error) {
+                super.onThrowable(error);
+                save(true);
+            }
+
+            private void save(boolean partial) {
+                if (project.isDisposed()) return;
+                List<TourStep> result = new ArrayList<>(steps.size());
+                int compared = 0;
+                for (int i = 0; i < steps.size(); i++) {
+                    TourStep s = updated.get(i);
+                    if (s != null) compared++;
+                    result.add(s != null ? s : steps.get(i));
+                }
+                if (compared == 0) return;
+                StringBuilder msg = new StringBuilder(partial ? "Tour partially updated: " : "Tour updated: ")
+                        .append(regenerated.get()).append(" regenerated, ")
+                        .append(unchanged.get()).append(" unchanged");
+                if (failed.get() > 0) msg.append(", ").append(failed.get()).append(" failed (generated when viewed)");
+                if (missing.get() > 0) msg.append(", ").append(missing.get()).append(" not found in sources (kept as is)");
+                if (compared < steps.size()) msg.append(", ").append(steps.size() - compared).append(" not checked");
+                project.getService(TourPersistenceService.class).save(tourFile, new Tour(tour.title(), result)).whenComplete((f, err) ->
+                        ApplicationManager.getApplication().invokeLater(() -> {
+                            if (project.isDisposed()) return;
+                            if (err != null) {
+                                Messages.showErrorDialog(project, "Failed to save tour: " + err.getMessage(), "Update Tour");
+                            } else {
+                                Messages.showInfoMessage(project, msg.append('.').toString(), "Update Tour");
+                            }
+                        }));
+            }
+        });
+    }
+
+    private static File findTourFile(Project project) {
+        String base = project.getBasePath();
+        if (base == null) return null;
+        File f1 = new File(base, "tour.json");
+        if (f1.exists()) return f1;
+        File f2 = new File(base, ".codewalker/tour.json");
+        return f2.exists() ? f2 : null;
+    }
+}
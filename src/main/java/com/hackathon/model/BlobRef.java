@@ -0,0 +1,78 @@
+package com.hackathon.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * A code snippet or explanation kept in a tour's content-addressed object store instead of inline in tour.json:
+ * {@code <objects>/<first 2 hex chars>/<remaining 62>} holds the UTF-8 text whose SHA-256 is {@link #hash()}.
+ * The text is read on first use and held softly, so a large tour only keeps the blobs of steps actually shown.
+ * Two refs are equal when they name the same object; equal hashes mean equal content.
+ */
+public final class BlobRef {
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path objectsDir;
+    private final String hash;
+    private volatile SoftReference<String> text;
+
+    /** {@code hash} must satisfy {@link #isValidHash}; it comes from files and becomes part of a path. */
+    public BlobRef(@NotNull Path objectsDir, @NotNull String hash) {
+        if (!isValidHash(hash)) throw new IllegalArgumentException("Not a SHA-256 object id: " + hash);
+        this.objectsDir = objectsDir;
+        this.hash = hash;
+    }
+
+    public static boolean isValidHash(@Nullable String hash) {
+        return hash != null && HASH.matcher(hash).matches();
+    }
+
+    public @NotNull String hash() {
+        return hash;
+    }
+
+    public @NotNull Path objectsDir() {
+        return objectsDir;
+    }
+
+    public @NotNull Path path() {
+        return objectsDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    /** The referenced text, or null if the object is missing or unreadable (treated like a step without it). */
+    public @Nullable String load() {
+        SoftReference<String> ref = text;
+        String s = ref != null ? ref.get() : null;
+        if (s != null) return s;
+        try {
+            s = Files.readString(path(), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(BlobRef.class)
+                    .warn("Tour object " + hash + " could not be read: " + e.getMessage());
+            return null;
+        }
+        text = new SoftReference<>(s);
+        return s;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BlobRef other && hash.equals(other.hash) && objectsDir.equals(other.objectsDir);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return hash;
+    }
+}
@@ -0,0 +1,91 @@
+package com.hackathon.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed identity of a step: SHA-256 over its code snippet and author note.
+ * Two steps with the same fingerprint get the same explanation, so it is the key for dedupe in finalize,
+ * the explanation caches, the finalize journal and change detection when a tour is updated.
+ */
+public record StepFingerprint(@NotNull String hex) {
+    // Steps are immutable records, so the digest of a step instance never changes; hash large snippets once.
+    // Keyed by identity: TourStep's record equals/hashCode would go through the whole snippet on every lookup
+    private static final Map<StepKey, StepFingerprint> MEMO = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<TourStep> COLLECTED = new ReferenceQueue<>();
+
+    /** Weak, identity-based key of a step instance. */
+    private static final class StepKey extends WeakReference<TourStep> {
+        private final int hash;
+
+        StepKey(TourStep step, @Nullable ReferenceQueue<TourStep> queue) {
+            super(step, queue);
+            hash = System.identityHashCode(step);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (!(o instanceof StepKey other) || other.hash != hash) return false;
+            TourStep step = get();
+            return step != null && step == other.get();
+        }
+    }
+
+    public static @NotNull StepFingerprint of(@NotNull TourStep step) {
+        // Drop entries of steps that were garbage collected
+        for (Reference<? extends TourStep> r; (r = COLLECTED.poll()) != null; ) MEMO.remove(r);
+        StepFingerprint fp = MEMO.get(new StepKey(step, null));
+        if (fp == null) {
+            fp = of(step.codeSnippet(), step.authorNote());
+            MEMO.put(new StepKey(step, COLLECTED), fp);
+        }
+        return fp;
+    }
+
+    /** Null code or note count as empty. Both parts are length-prefixed, so their boundary is unambiguous. */
+    public static @NotNull StepFingerprint of(String code, String note) {
+        MessageDigest md = sha256();
+        update(md, Objects.toString(code, ""));
+        update(md, Objects.toString(note, ""));
+        return new StepFingerprint(HexFormat.of().formatHex(md.digest()));
+    }
+
+    @Override
+    public String toString() {
+        return hex;
+    }
+
+    private static void update(MessageDigest md, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        md.update((byte) (bytes.length >>> 24));
+        md.update((byte) (bytes.length >>> 16));
+        md.update((byte) (bytes.length >>> 8));
+        md.update((byte) bytes.length);
+        md.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JRE
+        }
+    }
+}
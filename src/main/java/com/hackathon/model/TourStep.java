@@ -6,6 +6,8 @@ package com.hackathon.model;
  * Fields endLine and symbolName are optional and may be null in older JSONs.
  * - endLine: inclusive 1-based end line for multi-line selections (e.g., full method/class).
  * - symbolName: qualified or simple name of the selected symbol for better identification.
+ * - codeRef / explanationRef: set instead of codeSnippet / aiExplanation when the tour was saved with an object
+ *   store; the accessors load the text on first use.
  */
 public record TourStep(
         String filePath,
@@ -15,5 +17,27 @@ public record TourStep(
         String aiExplanation,
         Integer endLine,
         String symbolName,
-        String type // "class", "method", "manual"
-) {}
+        String type, // "class", "method", "manual"
+        BlobRef codeRef,
+        BlobRef explanationRef
+) {
+    public TourStep(String filePath, int lineNum, String codeSnippet, String authorNote, String aiExplanation,
+                    Integer endLine, String symbolName, String type) {
+        this(filePath, lineNum, codeSnippet, authorNote, aiExplanation, endLine, symbolName, type, null, null);
+    }
+
+    @Override
+    public String codeSnippet() {
+        return codeSnippet == null && codeRef != null ? codeRef.load() : codeSnippet;
+    }
+
+    @Override
+    public String aiExplanation() {
+        return aiExplanation == null && explanationRef != null ? explanationRef.load() : aiExplanation;
+    }
+
+    /** Content identity (code + note); computed once per step instance. */
+    public StepFingerprint fingerprint() {
+        return StepFingerprint.of(this);
+    }
+}
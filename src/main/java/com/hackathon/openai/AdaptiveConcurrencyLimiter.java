@@ -0,0 +1,195 @@
+package com.hackathon.openai;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Adaptive limit on concurrent HTTP exchanges, shared by every caller of {@link OpenAIService}.
+ *
+ * AIMD with a latency signal:
+ * - slow start: +1 per success until the first back-off, then +1/limit per success (about +1 per window)
+ * - a sample slower than twice the observed minimum RTT shrinks the limit by 10%
+ * - 429/5xx/transport errors halve the limit, at most once per RTT so a burst counts as one event
+ * The limit only grows while the window is actually in use, so idle periods do not inflate it.
+ *
+ * Waiters are served by {@link RequestPriority}, so queued bulk work yields to interactive requests. Each
+ * waiter ages by one class every {@link #AGING_NANOS}, so bulk work still moves while a user keeps clicking.
+ * Interactive requests may also use one slot above the limit: a click never waits for a bulk exchange to end.
+ */
+public final class AdaptiveConcurrencyLimiter {
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final int MIN_RTT_WINDOW = 256; // samples before the min RTT is re-measured
+    private static final long AGING_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int INTERACTIVE_HEADROOM = 1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier nanoClock;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private double limit;
+    private boolean slowStart = true;
+    private int inFlight;
+    private long minRttNanos = Long.MAX_VALUE;
+    private int samplesSinceReset;
+    private long lastBackoffNanos;
+    private long successes;
+    private long drops;
+
+    public record Stats(int limit, int inFlight, int queued, long successes, long drops, long minRttMillis) {}
+
+    /** A queued acquire; the priority is read at grant time, so a caller can raise it while waiting. */
+    private record Waiter(CompletableFuture<Permit> future, AtomicReference<RequestPriority> priority, long since) {
+        long rank() {
+            return since + priority.get().ordinal() * AGING_NANOS;
+        }
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, System::nanoTime);
+    }
+
+    /** {@code nanoClock} stands in for System.nanoTime (tests). */
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * Completes with a permit once a slot is free for the given priority. Cancelling the returned future gives
+     * up the place in line. The reference may be raised later (see {@link #priorityRaised()}).
+     */
+    @NotNull CompletableFuture<Permit> acquire(@NotNull AtomicReference<RequestPriority> priority) {
+        synchronized (this) {
+            RequestPriority p = priority.get();
+            boolean ahead = p == RequestPriority.INTERACTIVE
+                    ? waiters.stream().anyMatch(w -> w.priority().get() == RequestPriority.INTERACTIVE)
+                    : !waiters.isEmpty();
+            if (!ahead && inFlight < capacity(p)) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            CompletableFuture<Permit> f = new CompletableFuture<>();
+            waiters.add(new Waiter(f, priority, nanoClock.getAsLong()));
+            return f;
+        }
+    }
+
+    /** A permit only if one is free right now and nobody is waiting (used for optional extra work such as hedges). */
+    synchronized @Nullable Permit tryAcquire() {
+        if (!waiters.isEmpty() || inFlight >= (int) limit) return null;
+        inFlight++;
+        return new Permit();
+    }
+
+    /** A waiter's priority was raised; it may now fit into the interactive headroom. */
+    void priorityRaised() {
+        List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        synchronized (this) {
+            grant(granted);
+        }
+        complete(granted);
+    }
+
+    synchronized @NotNull Stats stats() {
+        long rttMs = minRttNanos == Long.MAX_VALUE ? -1 : minRttNanos / 1_000_000;
+        return new Stats((int) limit, inFlight, waiters.size(), successes, drops, rttMs);
+    }
+
+    /** A single slot; exactly one of the completion methods takes effect. */
+    final class Permit {
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        /** The exchange succeeded; {@code rttNanos} feeds the latency signal. */
+        void onSuccess(long rttNanos) {
+            if (done.compareAndSet(false, true)) onRelease(Outcome.SUCCESS, rttNanos);
+        }
+
+        /** The server pushed back (429/5xx) or the exchange failed. */
+        void onDropped() {
+            if (done.compareAndSet(false, true)) onRelease(Outcome.DROPPED, 0);
+        }
+
+        /** Return the slot without a sample (e.g. the caller cancelled). */
+        void release() {
+            if (done.compareAndSet(false, true)) onRelease(Outcome.IGNORED, 0);
+        }
+    }
+
+    private enum Outcome { SUCCESS, DROPPED, IGNORED }
+
+    private void onRelease(Outcome outcome, long rttNanos) {
+        List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        synchronized (this) {
+            boolean windowUsed = inFlight >= Math.max(1, (int) (limit / 2));
+            inFlight--;
+            if (outcome == Outcome.SUCCESS) {
+                successes++;
+                onSample(rttNanos, windowUsed);
+            } else if (outcome == Outcome.DROPPED) {
+                drops++;
+                long now = nanoClock.getAsLong();
+                long guard = minRttNanos == Long.MAX_VALUE ? 1_000_000_000L : minRttNanos;
+                if (now - lastBackoffNanos > guard) {
+                    limit = Math.max(minLimit, limit / 2);
+                    slowStart = false;
+                    lastBackoffNanos = now;
+                }
+            }
+            grant(granted);
+        }
+        complete(granted);
+    }
+
+    private int capacity(RequestPriority p) {
+        return (int) limit + (p == RequestPriority.INTERACTIVE ? INTERACTIVE_HEADROOM : 0);
+    }
+
+    /** Hands free slots to waiters, best aged rank first; only interactive ones may use the headroom. */
+    private void grant(List<CompletableFuture<Permit>> granted) {
+        waiters.removeIf(w -> w.future().isDone()); // cancelled while queued
+        while (!waiters.isEmpty()) {
+            Waiter next = null;
+            for (Waiter w : waiters) {
+                if (inFlight >= capacity(w.priority().get())) continue;
+                if (next == null || w.rank() < next.rank()) next = w;
+            }
+            if (next == null) return;
+            waiters.remove(next);
+            inFlight++;
+            granted.add(next.future());
+        }
+    }
+
+    // Complete outside the lock; a waiter that was cancelled meanwhile hands its slot straight back
+    private void complete(List<CompletableFuture<Permit>> granted) {
+        for (CompletableFuture<Permit> f : granted) {
+            Permit p = new Permit();
+            if (!f.complete(p)) p.release();
+        }
+    }
+
+    private void onSample(long rttNanos, boolean windowUsed) {
+        if (++samplesSinceReset > MIN_RTT_WINDOW) {
+            minRttNanos = rttNanos;
+            samplesSinceReset = 0;
+        } else if (rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+        }
+        if (rttNanos > minRttNanos * LATENCY_TOLERANCE) {
+            limit = Math.max(minLimit, limit * 0.9);
+            slowStart = false;
+        } else if (windowUsed) {
+            limit = Math.min(maxLimit, limit + (slowStart ? 1.0 : 1.0 / limit));
+        }
+    }
+}
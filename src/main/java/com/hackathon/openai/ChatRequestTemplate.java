@@ -0,0 +1,92 @@
+package com.hackathon.openai;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Chat Completions request body with everything constant serialized once: the system message and the
+ * response_format/temperature settings. Per request only the model, the user message and max_tokens are
+ * written, straight into a pre-sized buffer instead of through a JsonObject tree.
+ */
+final class ChatRequestTemplate {
+    static final String SYSTEM_PROMPT = "You are an expert code tour guide. Return a JSON object with keys: " +
+            "'title' (short summary), " +
+            "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
+            "Do not include markdown formatting in the JSON values." +
+            " Example: { \"title\": \"Method Summary\", \"explanation\": \"This method calculates the sum of two integers. Example call: sum(1, 2).\" }";
+
+    static final String BATCH_SYSTEM_PROMPT = "You are an expert code tour guide. You receive several code snippets, each introduced by a line '### <id>' " +
+            "followed by an author note and the code. Return a JSON object {\"items\": [...]} with exactly one entry per snippet, " +
+            "each with keys: 'id' (the snippet id), 'title' (short summary), " +
+            "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
+            "Explain every snippet on its own. Do not include markdown formatting in the JSON values." +
+            " Example: { \"items\": [ { \"id\": \"s1\", \"title\": \"Method Summary\", \"explanation\": \"This method calculates the sum of two integers. Example call: sum(1, 2).\" } ] }";
+
+    static final String ADAPT_SYSTEM_PROMPT = "You are an expert code tour guide. You receive the explanation of a similar snippet, " +
+            "then the author note and code of a new snippet. Adapt the explanation to the new snippet: keep what still holds, " +
+            "correct names and details that differ. Return a JSON object with keys: 'title' (short summary), " +
+            "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
+            "Do not include markdown formatting in the JSON values.";
+
+    /** Changes whenever a prompt does, so results stored outside the caches can tell which prompts produced them. */
+    static final String VERSION = Integer.toHexString((SYSTEM_PROMPT + BATCH_SYSTEM_PROMPT + ADAPT_SYSTEM_PROMPT).hashCode());
+
+    /** One snippet per request. */
+    static final ChatRequestTemplate SINGLE = new ChatRequestTemplate(SYSTEM_PROMPT);
+    /** Several snippets answered as {"items": [...]}. */
+    static final ChatRequestTemplate BATCH = new ChatRequestTemplate(BATCH_SYSTEM_PROMPT);
+    /** One snippet, starting from a near-duplicate's explanation. */
+    static final ChatRequestTemplate ADAPT = new ChatRequestTemplate(ADAPT_SYSTEM_PROMPT);
+
+    private final String messagesPrefix; // ,"messages":[{system},{"role":"user","content":
+    private static final String OPTIONS = "}],\"response_format\":{\"type\":\"json_object\"},\"temperature\":0.2,\"max_tokens\":";
+
+    private ChatRequestTemplate(String systemPrompt) {
+        StringBuilder sb = new StringBuilder(",\"messages\":[{\"role\":\"system\",\"content\":");
+        appendString(sb, systemPrompt);
+        this.messagesPrefix = sb.append("},{\"role\":\"user\",\"content\":").toString();
+    }
+
+    @NotNull String body(@NotNull String model, @NotNull CharSequence userContent, int maxTokens, boolean stream) {
+        StringBuilder sb = new StringBuilder(messagesPrefix.length() + OPTIONS.length() + userContent.length() + 64);
+        sb.append("{\"model\":");
+        appendString(sb, model);
+        sb.append(messagesPrefix);
+        appendString(sb, userContent);
+        sb.append(OPTIONS).append(maxTokens);
+        if (stream) sb.append(",\"stream\":true");
+        return sb.append('}').toString();
+    }
+
+    /** The user message for one snippet. */
+    static @NotNull String userContent(@NotNull String note, @NotNull String code) {
+        return "Author note: " + note + "\n\nCode:\n" + code;
+    }
+
+    /** The user message for adapting {@code title}/{@code html} (a similar snippet's explanation) to a new snippet. */
+    static @NotNull String adaptUserContent(String title, String html, @NotNull String snippetContent) {
+        String text = html == null ? "" : html.replaceAll("<[^>]+>", " ").replaceAll("\\s+", " ").trim();
+        return "Explanation of a similar snippet:\nTitle: " + title + "\n" + text + "\n\n" + snippetContent;
+    }
+
+    private static void appendString(StringBuilder sb, CharSequence s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,108 @@
+package com.hackathon.openai;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fails fast while the endpoint is down instead of letting every request hang for its full timeout.
+ *
+ * - CLOSED: everything passes; {@code failureThreshold} consecutive failures (transport errors, timeouts, 5xx) open it
+ * - OPEN: nothing passes until the cool-down ends; the cool-down doubles after every failed probe, up to 5 minutes
+ * - HALF_OPEN: a single probe passes; its success closes the breaker, its failure opens it again
+ * 429s are not failures here: the server is up, and {@link RateLimitGovernor} deals with them.
+ */
+final class CircuitBreaker {
+    private static final long MAX_OPEN_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long baseOpenNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openNanos;
+    private long openUntilNanos;
+    private boolean probeInFlight;
+
+    /** {@code failureThreshold <= 0} disables the breaker. */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.baseOpenNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, openMillis));
+        this.openNanos = baseOpenNanos;
+    }
+
+    /** Permission for one exchange, or null while the breaker is open (or a half-open probe is already out). */
+    synchronized @Nullable Pass tryPass() {
+        if (failureThreshold <= 0 || state == State.CLOSED) return new Pass(false);
+        if (state == State.OPEN) {
+            if (System.nanoTime() < openUntilNanos) return null;
+            state = State.HALF_OPEN;
+        }
+        if (probeInFlight) return null;
+        probeInFlight = true;
+        return new Pass(true);
+    }
+
+    /** True while requests are rejected outright (open and still cooling down). */
+    synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() < openUntilNanos;
+    }
+
+    /** Outcome of one exchange; exactly one of the methods takes effect. */
+    final class Pass {
+        private final boolean probe;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Pass(boolean probe) {
+            this.probe = probe;
+        }
+
+        /** The server answered (any status below 500, 429 included). */
+        void onSuccess() {
+            if (done.compareAndSet(false, true)) record(probe, true);
+        }
+
+        /** Transport error, timeout or 5xx. */
+        void onFailure() {
+            if (done.compareAndSet(false, true)) record(probe, false);
+        }
+
+        /** No outcome (cancelled, or cut short by a deadline); frees the probe slot. */
+        void abandon() {
+            if (done.compareAndSet(false, true) && probe) {
+                synchronized (CircuitBreaker.this) {
+                    probeInFlight = false;
+                }
+            }
+        }
+    }
+
+    private synchronized void record(boolean probe, boolean success) {
+        if (probe) probeInFlight = false;
+        if (success) {
+            consecutiveFailures = 0;
+            if (probe || state != State.CLOSED) {
+                state = State.CLOSED;
+                openNanos = baseOpenNanos;
+            }
+            return;
+        }
+        consecutiveFailures++;
+        if (probe) {
+            openNanos = Math.min(MAX_OPEN_NANOS, openNanos * 2);
+            open();
+        } else if (failureThreshold > 0 && state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+            com.intellij.openapi.diagnostic.Logger.getInstance(CircuitBreaker.class)
+                    .warn("OpenAI endpoint failing (" + consecutiveFailures + " in a row); pausing requests for "
+                            + TimeUnit.NANOSECONDS.toSeconds(openNanos) + " s");
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntilNanos = System.nanoTime() + openNanos;
+    }
+}
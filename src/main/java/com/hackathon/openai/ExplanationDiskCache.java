@@ -0,0 +1,377 @@
+package com.hackathon.openai;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent, content-addressed store for explanation results, keyed by the SHA-256 cache key
+ * computed in {@link OpenAIService}.
+ *
+ * Two files live in the cache directory:
+ * - explanations.dat: header + append-only records [length][crc32][key][title][html]
+ * - explanations.idx: header + append-only entries [key][offset][length], read in one pass on open
+ *
+ * Both headers carry the same generation number. When they disagree (e.g. the IDE died in the middle
+ * of a compaction) the index is discarded and rebuilt by scanning the data file. Records are CRC-checked,
+ * so a torn tail left by a crash is truncated on the next open.
+ */
+final class ExplanationDiskCache {
+    private static final int MAGIC = 0x41435743; // "ACWC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic(4) + version(4) + generation(8)
+    private static final int RECORD_HEADER = 8; // payload length(4) + crc(4)
+    private static final String DATA_FILE = "explanations.dat";
+    private static final String INDEX_FILE = "explanations.idx";
+
+    private final Path dir;
+    private final long maxBytes;
+    // key -> {offset, recordLength}; access-ordered so compaction keeps the most recently used entries
+    private final Map<String, long[]> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private FileChannel data;
+    private FileChannel idx;
+    private long generation;
+
+    private ExplanationDiskCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Opens (or creates) the cache in {@code dir}. Returns null if the directory is unusable. */
+    static @Nullable ExplanationDiskCache open(@NotNull Path dir, long maxBytes) {
+        ExplanationDiskCache c = new ExplanationDiskCache(dir, maxBytes);
+        try {
+            c.load();
+            return c;
+        } catch (Exception e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(ExplanationDiskCache.class)
+                    .warn("Explanation disk cache unavailable at " + dir + ": " + e.getMessage());
+            c.close();
+            return null;
+        }
+    }
+
+    synchronized @Nullable OpenAIService.ExplanationResult get(@NotNull String key) {
+        long[] e = index.get(key);
+        if (e == null || data == null) return null;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int) e[1]);
+            readFully(data, buf, e[0]);
+            buf.flip();
+            Decoded d = decode(buf);
+            if (d == null || !key.equals(d.key)) {
+                index.remove(key);
+                return null;
+            }
+            return new OpenAIService.ExplanationResult(d.title, d.html);
+        } catch (IOException ex) {
+            index.remove(key);
+            return null;
+        }
+    }
+
+    synchronized void put(@NotNull String key, @NotNull OpenAIService.ExplanationResult result) {
+        if (data == null || result.htmlContent() == null || index.containsKey(key)) return;
+        try {
+            ByteBuffer rec = encode(key, result.title(), result.htmlContent());
+            long offset = data.size();
+            int len = rec.remaining();
+            writeFully(data, rec, offset);
+            appendIndexEntry(key, offset, len);
+            index.put(key, new long[]{offset, len});
+            if (maxBytes > 0 && data.size() > maxBytes) {
+                compact();
+            }
+        } catch (IOException ex) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(ExplanationDiskCache.class)
+                    .warn("Explanation disk cache write failed: " + ex.getMessage());
+        }
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    synchronized void close() {
+        try { if (idx != null) idx.close(); } catch (IOException ignore) {}
+        try { if (data != null) data.close(); } catch (IOException ignore) {}
+        idx = null;
+        data = null;
+    }
+
+    // -- Open / recovery ----------------------------------------------------
+
+    private void load() throws IOException {
+        Files.createDirectories(dir);
+        data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        idx = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        Long dataGen = readHeader(data);
+        if (dataGen == null) {
+            generation = System.currentTimeMillis();
+            data.truncate(0);
+            writeHeader(data, generation);
+            idx.truncate(0);
+            writeHeader(idx, generation);
+            return;
+        }
+        generation = dataGen;
+
+        long dataSize = data.size();
+        long scanFrom = HEADER_SIZE;
+        Long idxGen = readHeader(idx);
+        if (idxGen != null && idxGen == generation) {
+            scanFrom = Math.max(scanFrom, loadIndex(dataSize));
+        } else {
+            idx.truncate(0);
+            writeHeader(idx, generation);
+        }
+        recoverTail(scanFrom, dataSize);
+    }
+
+    /**
+     * Reads index entries into a heap buffer; returns the end offset of the last valid indexed record. Not mapped:
+     * a torn tail is truncated right away, and on Windows a mapped file can be neither truncated nor replaced.
+     */
+    private long loadIndex(long dataSize) throws IOException {
+        long size = idx.size();
+        if (size > Integer.MAX_VALUE) throw new IOException("index too large: " + size);
+        ByteBuffer map = ByteBuffer.allocate((int) size);
+        readFully(idx, map, 0);
+        map.flip();
+        map.position(HEADER_SIZE);
+        long end = HEADER_SIZE;
+        int validUntil = HEADER_SIZE;
+        while (map.remaining() >= 2) {
+            int klen = map.getShort() & 0xFFFF;
+            if (map.remaining() < klen + 12) break;
+            byte[] k = new byte[klen];
+            map.get(k);
+            long offset = map.getLong();
+            int len = map.getInt();
+            if (offset < HEADER_SIZE || len < RECORD_HEADER || offset + len > dataSize) break;
+            index.put(new String(k, StandardCharsets.UTF_8), new long[]{offset, len});
+            end = Math.max(end, offset + len);
+            validUntil = map.position();
+        }
+        if (validUntil < size) {
+            idx.truncate(validUntil);
+        }
+        return end;
+    }
+
+    /** Scans data records not covered by the index, re-indexing valid ones and truncating a torn tail. */
+    private void recoverTail(long from, long dataSize) throws IOException {
+        long pos = from;
+        ByteBuffer head = ByteBuffer.allocate(RECORD_HEADER);
+        while (pos + RECORD_HEADER <= dataSize) {
+            head.clear();
+            readFully(data, head, pos);
+            int payloadLen = head.getInt(0);
+            if (payloadLen <= 0 || pos + RECORD_HEADER + payloadLen > dataSize) break;
+            ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER + payloadLen);
+            readFully(data, rec, pos);
+            rec.flip();
+            Decoded d = decode(rec);
+            if (d == null) break;
+            int len = RECORD_HEADER + payloadLen;
+            appendIndexEntry(d.key, pos, len);
+            index.put(d.key, new long[]{pos, len});
+            pos += len;
+        }
+        if (pos < dataSize) {
+            data.truncate(pos);
+        }
+    }
+
+    // -- Compaction ---------------------------------------------------------
+
+    /**
+     * Rewrites the most recently used entries (up to 3/4 of the size budget) into fresh files and
+     * atomically renames them into place. The data file is swapped first; a crash before the index
+     * swap leaves a generation mismatch, which the next open repairs by scanning. If the swap itself fails,
+     * whatever is on disk is reopened the same way, so the cache stays usable for the rest of the session.
+     */
+    private void compact() throws IOException {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(index.entrySet());
+        long budget = maxBytes * 3 / 4;
+        long total = HEADER_SIZE;
+        int keepFrom = entries.size();
+        while (keepFrom > 0 && total + entries.get(keepFrom - 1).getValue()[1] <= budget) {
+            keepFrom--;
+            total += entries.get(keepFrom).getValue()[1];
+        }
+
+        long newGen = Math.max(generation + 1, System.currentTimeMillis());
+        Path tmpData = dir.resolve(DATA_FILE + ".tmp");
+        Path tmpIdx = dir.resolve(INDEX_FILE + ".tmp");
+        Map<String, long[]> kept = new LinkedHashMap<>(1024, 0.75f, true);
+        try {
+            writeCompacted(entries, keepFrom, newGen, tmpData, tmpIdx, kept);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmpData);
+            Files.deleteIfExists(tmpIdx);
+            throw e;
+        }
+
+        close();
+        boolean swapped = false;
+        try {
+            move(tmpData, dir.resolve(DATA_FILE));
+            move(tmpIdx, dir.resolve(INDEX_FILE));
+            swapped = true;
+        } finally {
+            if (swapped) {
+                data = FileChannel.open(dir.resolve(DATA_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                idx = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                generation = newGen;
+                index.clear();
+                index.putAll(kept);
+            } else {
+                // Reopen whatever is on disk; a half-done swap shows as a generation mismatch and is rebuilt by scanning
+                Files.deleteIfExists(tmpData);
+                Files.deleteIfExists(tmpIdx);
+                index.clear();
+                load();
+            }
+        }
+    }
+
+    private void writeCompacted(List<Map.Entry<String, long[]>> entries, int keepFrom, long newGen,
+                                Path tmpData, Path tmpIdx, Map<String, long[]> kept) throws IOException {
+        try (FileChannel nd = FileChannel.open(tmpData, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel ni = FileChannel.open(tmpIdx, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(nd, newGen);
+            writeHeader(ni, newGen);
+            nd.position(HEADER_SIZE);
+            ni.position(HEADER_SIZE);
+            long pos = HEADER_SIZE;
+            for (int i = keepFrom; i < entries.size(); i++) {
+                String key = entries.get(i).getKey();
+                long[] e = entries.get(i).getValue();
+                long copied = 0;
+                while (copied < e[1]) {
+                    long n = data.transferTo(e[0] + copied, e[1] - copied, nd);
+                    if (n <= 0) throw new IOException("short transfer during compaction");
+                    copied += n;
+                }
+                ni.write(indexEntry(key, pos, (int) e[1]));
+                kept.put(key, new long[]{pos, e[1]});
+                pos += e[1];
+            }
+            nd.force(true);
+            ni.force(true);
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // -- Encoding -----------------------------------------------------------
+
+    private record Decoded(String key, String title, String html) {}
+
+    private static ByteBuffer encode(String key, String title, String html) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] t = title == null ? null : title.getBytes(StandardCharsets.UTF_8);
+        byte[] h = html.getBytes(StandardCharsets.UTF_8);
+        int payload = 2 + k.length + 4 + (t == null ? 0 : t.length) + 4 + h.length;
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + payload);
+        buf.putInt(payload);
+        buf.putInt(0); // crc placeholder
+        buf.putShort((short) k.length).put(k);
+        buf.putInt(t == null ? -1 : t.length);
+        if (t != null) buf.put(t);
+        buf.putInt(h.length).put(h);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), RECORD_HEADER, payload);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /** Decodes a full record (header included); returns null when the CRC or lengths do not check out. */
+    private static @Nullable Decoded decode(ByteBuffer buf) {
+        try {
+            int payload = buf.getInt();
+            int expectedCrc = buf.getInt();
+            if (payload != buf.remaining()) return null;
+            CRC32 crc = new CRC32();
+            crc.update(buf.array(), buf.arrayOffset() + buf.position(), payload);
+            if ((int) crc.getValue() != expectedCrc) return null;
+            String key = readString(buf, buf.getShort() & 0xFFFF);
+            int tlen = buf.getInt();
+            String title = tlen < 0 ? null : readString(buf, tlen);
+            String html = readString(buf, buf.getInt());
+            return new Decoded(key, title, html);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer buf, int len) {
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return s;
+    }
+
+    private static ByteBuffer indexEntry(String key, long offset, int len) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(2 + k.length + 12);
+        buf.putShort((short) k.length).put(k).putLong(offset).putInt(len);
+        buf.flip();
+        return buf;
+    }
+
+    private void appendIndexEntry(String key, long offset, int len) throws IOException {
+        writeFully(idx, indexEntry(key, offset, len), idx.size());
+    }
+
+    private static @Nullable Long readHeader(FileChannel ch) throws IOException {
+        if (ch.size() < HEADER_SIZE) return null;
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(ch, h, 0);
+        if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION) return null;
+        return h.getLong(8);
+    }
+
+    private static void writeHeader(FileChannel ch, long generation) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+        h.putInt(MAGIC).putInt(VERSION).putLong(generation);
+        h.flip();
+        writeFully(ch, h, 0);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("unexpected end of cache file");
+            pos += n;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.hackathon.openai;
+
+import java.util.Arrays;
+
+/**
+ * Decides when a slow request gets a duplicate ("hedge"): once it has been on the wire longer than the p95 of
+ * recent successful exchanges, and only while hedges stay within {@code budgetPercent} of all requests.
+ * Nothing is hedged until enough latencies have been seen to make the p95 meaningful.
+ */
+final class HedgingPolicy {
+    private static final int WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+
+    private final int budgetPercent;
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+    private long requests;
+    private long hedges;
+
+    /** {@code budgetPercent <= 0} disables hedging. */
+    HedgingPolicy(int budgetPercent) {
+        this.budgetPercent = budgetPercent;
+    }
+
+    /** A primary exchange was started. */
+    synchronized void onRequest() {
+        requests++;
+    }
+
+    /** Latency of a successful exchange. */
+    synchronized void record(long rttNanos) {
+        samples[next] = rttNanos;
+        next = (next + 1) % WINDOW;
+        count = Math.min(WINDOW, count + 1);
+    }
+
+    /** How long to wait before hedging a request, or -1 if hedging is off or there is no latency history yet. */
+    synchronized long delayMillis() {
+        if (budgetPercent <= 0 || count < MIN_SAMPLES) return -1;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return Math.max(1, sorted[(int) Math.ceil(count * 0.95) - 1] / 1_000_000);
+    }
+
+    /** Takes one hedge from the budget; false once hedges would exceed the budget's share of requests. */
+    synchronized boolean tryHedge() {
+        if (budgetPercent <= 0 || (hedges + 1) * 100 > Math.max(100, requests * budgetPercent)) return false;
+        hedges++;
+        return true;
+    }
+}
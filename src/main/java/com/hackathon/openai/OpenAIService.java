@@ -2,8 +2,18 @@ package com.hackathon.openai;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.hackathon.model.StepFingerprint;
+import com.hackathon.util.CodeCompressor;
+import com.hackathon.util.Settings;
+import com.hackathon.util.TokenEstimator;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -11,21 +21,40 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.security.MessageDigest;
 
 @Service
-public final class OpenAIService {
+public final class OpenAIService implements Disposable {
+    private static final int MAX_BATCH_ITEMS = 8;
+
+    /** Deadline value meaning "no overall time budget"; retries are then bounded only by their attempt count. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     private final HttpClient client = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(20))
             .version(HttpClient.Version.HTTP_2)
@@ -43,267 +72,622 @@ public final class OpenAIService {
             }
     );
 
+    // Code as sent per snippet (compression parses PSI, so it is done once per snippet)
+    private final Map<String, String> compressedCode = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > 128;
+                }
+            }
+    );
+
+    // Persistent cache (survives IDE restarts), opened on a pooled thread; null result if disabled or unusable
+    private final CompletableFuture<ExplanationDiskCache> diskCache =
+            CompletableFuture.supplyAsync(OpenAIService::openDiskCache, AppExecutorUtil.getAppExecutorService());
+
+    // Adaptive limit on concurrent HTTP exchanges, shared by all callers (finalize, add step, ...)
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, getMaxConcurrency());
+
+    // Request/token budgets mirrored from the x-ratelimit-* response headers
+    private final RateLimitGovernor rateLimits = new RateLimitGovernor();
+
+    // Fails fast while the endpoint keeps failing; probes it again after a cool-down
+    private final CircuitBreaker breaker = new CircuitBreaker(getBreakerThreshold(), getBreakerOpenSeconds() * 1000L);
+
+    // Duplicates requests that run past the recent p95 latency, within a small budget; off unless configured
+    private final HedgingPolicy hedging = new HedgingPolicy(getHedgePercent());
+
+    // Single-flight: concurrent async requests for the same cache key share one HTTP exchange
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    // Explained snippets by SimHash, so a near-duplicate's explanation can seed the request for a new snippet
+    private final SimilarSnippetIndex similar = new SimilarSnippetIndex(getSimilarBits());
+
+    // Pipeline counters, see getRequestStats()
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong similarHints = new AtomicLong();
+    private final AtomicLong coalescedJoins = new AtomicLong();
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong requestsFailed = new AtomicLong();
+
     public record ExplanationResult(String title, String htmlContent) {}
 
+    /** Snapshot of the request pipeline counters; {@code requests} counts logical requests, not retries or hedges. */
+    public record RequestStats(long cacheHits, long similarHints, long coalescedJoins, long requests, long failures) {}
+
+    /** One in-flight request shared by every caller that asked for the same key. */
+    private static final class InFlight {
+        final CompletableFuture<ExplanationResult> shared = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger(1); // the leader
+        // Highest priority among the waiters; read by the limiter whenever an attempt queues for a slot
+        final AtomicReference<RequestPriority> priority;
+        // Latest deadline among the waiters: one caller's budget must not cut short another caller's request
+        final AtomicLong deadline;
+        volatile CompletableFuture<ExplanationResult> upstream;
+
+        InFlight(RequestPriority priority, long deadline) {
+            this.priority = new AtomicReference<>(priority);
+            this.deadline = new AtomicLong(deadline);
+        }
+    }
+
     /**
      * Generate HTML summary for a code snippet with an author note.
      * Requirements: explanation must be precise. We intentionally avoid including code blocks in the HTML output.
      * Uses response_format json_object to get back {"title": ..., ...}.
      */
     public @NotNull ExplanationResult generateExplanation(@NotNull String code, @NotNull String note) {
-        String apiKey = getApiKey(null);
-        if (apiKey == null || apiKey.isBlank()) {
-            // No API key, return null for AI explanation
-            return new ExplanationResult("Auto Code Walker Tour", null);
-        }
+        return generateExplanation(null, code, note);
+    }
+
+    /** Async variant with small retry and LRU caching. */
+    public @NotNull CompletableFuture<ExplanationResult> generateExplanationAsync(@NotNull String code, @NotNull String note) {
+        return explain(null, code, note, RequestPriority.INTERACTIVE, NO_DEADLINE);
+    }
 
+    /** Project-aware sync variant. Reads .env from the specific project's base path. Blocks until the answer is in. */
+    public @NotNull ExplanationResult generateExplanation(@Nullable Project project, @NotNull String code, @NotNull String note) {
         try {
-            String model = getModel(null);
-            String codeToSend = maybeTruncate(code);
-            JsonObject system = new JsonObject();
-            system.addProperty("role", "system");
-            system.addProperty("content", "You are an expert code tour guide. Return a JSON object with keys: " +
-                    "'title' (short summary), " +
-                    "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
-                    "Do not include markdown formatting in the JSON values." +
-                    " Example: { \"title\": \"Method Summary\", \"explanation\": \"This method calculates the sum of two integers. Example call: sum(1, 2).\" }");
-
-            JsonObject user = new JsonObject();
-            user.addProperty("role", "user");
-            user.addProperty("content", "Author note: " + note + "\n\nCode:\n" + codeToSend);
-
-            JsonArray messages = new JsonArray();
-            messages.add(system);
-            messages.add(user);
-
-            JsonObject body = new JsonObject();
-            body.addProperty("model", model);
-            body.add("messages", messages);
-            JsonObject responseFormat = new JsonObject();
-            responseFormat.addProperty("type", "json_object");
-            body.add("response_format", responseFormat);
-            // Keep outputs small and deterministic
-            body.addProperty("temperature", 0.2);
-            body.addProperty("max_tokens", 350);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/chat/completions"))
-                    .timeout(Duration.ofSeconds(60))
-                    .header("Content-Type", "application/json")
-                    // Rely on default transparent decompression; do not force gzip for maximal compatibility
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(body), StandardCharsets.UTF_8))
-                    .build();
-
-            HttpResponse<String> resp = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-            if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
-                return parseCompletionBody(resp.body());
-            } else {
-                logHttpFailure("sync", resp);
-            }
+            return explain(project, code, note, RequestPriority.INTERACTIVE, NO_DEADLINE).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
-            // Log and fall back
             com.intellij.openapi.diagnostic.Logger.getInstance(OpenAIService.class)
                     .warn("OpenAI sync request failed: " + e.getMessage());
         }
+        return noExplanation();
+    }
 
-        // AI request failed, return null for AI explanation
+    /** Project-aware async variant, scheduled as an interactive request. */
+    public @NotNull CompletableFuture<ExplanationResult> generateExplanationAsync(@Nullable Project project,
+                                                                                  @NotNull String code,
+                                                                                  @NotNull String note) {
+        return explain(project, code, note, RequestPriority.INTERACTIVE, NO_DEADLINE);
+    }
+
+    /**
+     * Project-aware async variant with an explicit scheduling class. Joining a request that is already in
+     * flight for the same snippet raises its priority if the new caller's is higher.
+     */
+    public @NotNull CompletableFuture<ExplanationResult> generateExplanationAsync(@Nullable Project project,
+                                                                                  @NotNull String code,
+                                                                                  @NotNull String note,
+                                                                                  @NotNull RequestPriority priority) {
+        return explain(project, code, note, priority, NO_DEADLINE);
+    }
+
+    /**
+     * As above, giving up once {@code deadlineNanos} (a System.nanoTime() value, or {@link #NO_DEADLINE}) is reached:
+     * no retry is started that could not finish in time, and the result then has no explanation. Cancelling the
+     * returned future aborts the HTTP exchange and pending retries once no other caller waits for the snippet.
+     */
+    public @NotNull CompletableFuture<ExplanationResult> generateExplanationAsync(@Nullable Project project,
+                                                                                  @NotNull String code,
+                                                                                  @NotNull String note,
+                                                                                  @NotNull RequestPriority priority,
+                                                                                  long deadlineNanos) {
+        return explain(project, code, note, priority, deadlineNanos);
+    }
+
+    /** Counters of the request pipeline (cache hits, near-duplicate hints, requests joined in flight, requests sent, failures). */
+    public @NotNull RequestStats getRequestStats() {
+        return new RequestStats(cacheHits.get(), similarHints.get(), coalescedJoins.get(), requestsSent.get(), requestsFailed.get());
+    }
+
+    // -- Request pipeline ---------------------------------------------------
+
+    /**
+     * The one path every single-snippet request takes, stage by stage:
+     * 1. credentials: without an API key the result has no explanation
+     * 2. cache: memory, then the persistent store
+     * 3. coalescing: join a request already in flight for the same snippet (priority and deadline are merged)
+     * 4. encode: compressed code into the pre-serialized request template (the adapt template, with a
+     *    near-duplicate's explanation as a hint, when ACW_SIMILAR_BITS is set and one exists); compression parses
+     *    PSI in a non-blocking read action, so nothing up to here blocks the caller (the EDT, an HTTP callback)
+     * 5. send: rate-limit budget, concurrency slot, circuit breaker, hedging and retries ({@link #sendWithRetry})
+     * 6. decode: parse, cache, count
+     * Streaming and batch requests go through stages 1, 2, 4 and 5 as well (batches never adapt).
+     */
+    private CompletableFuture<ExplanationResult> explain(@Nullable Project project, String code, String note,
+                                                         RequestPriority priority, long deadlineNanos) {
+        String apiKey = getApiKey(project);
+        if (apiKey == null || apiKey.isBlank()) return CompletableFuture.completedFuture(noExplanation());
+        String model = getModel(project);
+        String cacheKey = cacheKey(model, StepFingerprint.of(code, note));
+        ExplanationResult cached = lookupCached(cacheKey);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+        SimilarSnippetIndex.Signature sig = similar.isEnabled() ? SimilarSnippetIndex.signature(code, note) : null;
+
+        return coalesce(cacheKey, priority, deadlineNanos, (p, deadline) -> {
+            CompletableFuture<HttpResponse<String>> send = sendWhenReady(singleBody(project, model, code, note, sig, false),
+                    body -> sendWithRetry(newRequest(project, apiKey, body, Duration.ofSeconds(60), false), 3, p, deadline));
+            return cancelsSource(send.thenApply(resp -> decode(cacheKey, model, sig, resp)).exceptionally(ex -> {
+                requestsFailed.incrementAndGet();
+                return noExplanation();
+            }), send);
+        });
+    }
+
+    /**
+     * Request body for one snippet. With a near-duplicate's explanation at hand the model gets it as a hint to
+     * adapt; the answer is still the model's own, for this snippet.
+     */
+    private CompletableFuture<String> singleBody(@Nullable Project project, String model, String code, String note,
+                                                 SimilarSnippetIndex.@Nullable Signature sig, boolean stream) {
+        return prepareCodeAsync(project, code, note).thenApply(prepared -> {
+            String userContent = ChatRequestTemplate.userContent(note, prepared);
+            ExplanationResult neighbour = similarExplanation(model, sig);
+            if (neighbour == null) return ChatRequestTemplate.SINGLE.body(model, userContent, 350, stream);
+            similarHints.incrementAndGet();
+            return ChatRequestTemplate.ADAPT.body(model, ChatRequestTemplate.adaptUserContent(
+                    neighbour.title(), neighbour.htmlContent(), userContent), 350, stream);
+        });
+    }
+
+    /**
+     * Sends with {@code send} once {@code body} is ready. Cancelling the result before then sends nothing, and
+     * after that cancels the send.
+     */
+    private static <T> CompletableFuture<T> sendWhenReady(CompletableFuture<String> body,
+                                                          Function<String, CompletableFuture<T>> send) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        body.whenComplete((b, err) -> {
+            if (result.isDone()) return;
+            if (err != null) {
+                result.completeExceptionally(err);
+                return;
+            }
+            CompletableFuture<T> sending = send.apply(b);
+            sending.whenComplete((r, e) -> {
+                if (e != null) result.completeExceptionally(e); else result.complete(r);
+            });
+            cancelsSource(result, sending);
+        });
+        return result;
+    }
+
+    private ExplanationResult decode(String cacheKey, String model, SimilarSnippetIndex.@Nullable Signature sig,
+                                     HttpResponse<String> resp) {
+        try {
+            if (resp != null && resp.statusCode() >= 200 && resp.statusCode() < 300) {
+                ExplanationResult r = parseCompletionBody(resp.body());
+                if (r != null) {
+                    storeExplained(cacheKey, model, sig, r);
+                    return r;
+                }
+            } else if (resp != null) {
+                logHttpFailure("async", resp);
+            }
+        } catch (Throwable ignore) {}
+        requestsFailed.incrementAndGet();
+        return noExplanation();
+    }
+
+    private static HttpRequest newRequest(@Nullable Project project, String apiKey, String body, Duration timeout, boolean stream) {
+        HttpRequest.Builder b = HttpRequest.newBuilder()
+                .uri(chatCompletionsUri(project))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                // Rely on default transparent decompression; do not force gzip for maximal compatibility
+                .header("Authorization", "Bearer " + apiKey);
+        if (stream) b.header("Accept", "text/event-stream");
+        return b.POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)).build();
+    }
+
+    private static ExplanationResult noExplanation() {
         return new ExplanationResult("Auto Code Walker Tour", null);
     }
 
-    /** Async variant with small retry and LRU caching. */
-    public @NotNull CompletableFuture<ExplanationResult> generateExplanationAsync(@NotNull String code, @NotNull String note) {
-        String apiKey = getApiKey(null);
+    /** Current in-flight window of the shared adaptive limiter. */
+    public int getConcurrencyLimit() {
+        return limiter.stats().limit();
+    }
+
+    /** Counters of the shared adaptive limiter (limit, in flight, queued, successes, drops, min RTT). */
+    public @NotNull AdaptiveConcurrencyLimiter.Stats getConcurrencyStats() {
+        return limiter.stats();
+    }
+
+    /**
+     * Streaming variant for on-demand explanations (stream: true). {@code onPartialHtml} receives the
+     * explanation received so far, rendered like the final HTML, at most every 50 ms and on a background
+     * thread. Completes with the same result as {@link #generateExplanationAsync(Project, String, String)};
+     * if the stream cannot be opened (throttled, server error) or ends without {@code data: [DONE]} or a
+     * finish_reason, it falls back to that call with its retries.
+     */
+    public @NotNull CompletableFuture<ExplanationResult> generateExplanationStreaming(@Nullable Project project,
+                                                                                     @NotNull String code,
+                                                                                     @NotNull String note,
+                                                                                     @NotNull Consumer<String> onPartialHtml) {
+        String apiKey = getApiKey(project);
         if (apiKey == null || apiKey.isBlank()) {
-            return CompletableFuture.completedFuture(new ExplanationResult("Auto Code Walker Tour", null));
+            return CompletableFuture.completedFuture(noExplanation());
         }
 
-        String model = getModel(null);
-        String codeToSend = maybeTruncate(code);
-        String cacheKey = cacheKey(model, codeToSend, note);
-        ExplanationResult cached = cache.get(cacheKey);
+        String model = getModel(project);
+        String cacheKey = cacheKey(model, StepFingerprint.of(code, note));
+        ExplanationResult cached = lookupCached(cacheKey);
         if (cached != null) {
             return CompletableFuture.completedFuture(cached);
         }
+        SimilarSnippetIndex.Signature sig = similar.isEnabled() ? SimilarSnippetIndex.signature(code, note) : null;
+        long[] lastEmit = {0};
+        SseContentSubscriber subscriber = new SseContentSubscriber(content -> {
+            long now = System.nanoTime();
+            if (now - lastEmit[0] < 50_000_000L) return;
+            lastEmit[0] = now;
+            String html = partialHtml(content);
+            if (html != null) onPartialHtml.accept(html);
+        });
 
-        JsonObject system = new JsonObject();
-        system.addProperty("role", "system");
-        system.addProperty("content", "You are an expert code tour guide. Return a JSON object with keys: " +
-                "'title' (short summary), " +
-                "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
-                "Do not include markdown formatting in the JSON values." +
-                " Example: { \"title\": \"Method Summary\", \"explanation\": \"This method calculates the sum of two integers. Example call: sum(1, 2).\" }");
-
-        JsonObject user = new JsonObject();
-        user.addProperty("role", "user");
-        user.addProperty("content", "Author note: " + note + "\n\nCode:\n" + codeToSend);
-
-        JsonArray messages = new JsonArray();
-        messages.add(system);
-        messages.add(user);
-
-        JsonObject body = new JsonObject();
-        body.addProperty("model", model);
-        body.add("messages", messages);
-        JsonObject responseFormat = new JsonObject();
-        responseFormat.addProperty("type", "json_object");
-        body.add("response_format", responseFormat);
-        body.addProperty("temperature", 0.2);
-        body.addProperty("max_tokens", 350);
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.openai.com/v1/chat/completions"))
-                .timeout(Duration.ofSeconds(60))
-                .header("Content-Type", "application/json")
-                // Avoid forcing gzip to reduce chances of decompression issues
-                .header("Authorization", "Bearer " + apiKey)
-                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(body), StandardCharsets.UTF_8))
-                .build();
-
-        return sendWithRetry(request, 3)
-                .thenApply(resp -> {
-                    try {
-                        if (resp != null && resp.statusCode() >= 200 && resp.statusCode() < 300) {
-                            ExplanationResult r = parseCompletionBody(resp.body());
-                            if (r != null) {
-                                cache.put(cacheKey, r);
-                                return r;
-                            }
-                        } else if (resp != null) {
-                            logHttpFailure("async-noproject", resp);
-                        }
-                    } catch (Throwable ignore) {}
-                    return new ExplanationResult("Auto Code Walker Tour", null);
-                })
-                .exceptionally(ex -> new ExplanationResult("Auto Code Walker Tour", null));
-    }
-
-    /** Project-aware sync variant. Reads .env from the specific project's base path. */
-    public @NotNull ExplanationResult generateExplanation(@org.jetbrains.annotations.Nullable com.intellij.openapi.project.Project project,
-                                                          @NotNull String code,
-                                                          @NotNull String note) {
-        String apiKey = getApiKey(project);
-        if (apiKey == null || apiKey.isBlank()) {
-            return new ExplanationResult("Auto Code Walker Tour", null);
+        // One attempt through the shared send path (rate-limit budget, slot, circuit breaker): a stream can be
+        // neither retried nor hedged, so a failed one falls back to the buffered request and its retries
+        CompletableFuture<HttpResponse<Void>> send = sendWhenReady(singleBody(project, model, code, note, sig, true),
+                body -> send(new Send<>(newRequest(project, apiKey, body, Duration.ofSeconds(60), true),
+                        HttpResponse.BodyHandlers.fromLineSubscriber(subscriber), 1,
+                        new AtomicReference<>(RequestPriority.INTERACTIVE), new AtomicLong(NO_DEADLINE), false)));
+        CompletableFuture<ExplanationResult> result = new CompletableFuture<>();
+        // The stream in progress or the fallback, aborted if the viewer cancels
+        AtomicReference<Future<?>> stage = new AtomicReference<>(send);
+        Runnable fallBack = () -> {
+            CompletableFuture<ExplanationResult> fallback = generateExplanationAsync(project, code, note);
+            stage.set(fallback);
+            fallback.whenComplete((r, e2) -> {
+                if (e2 != null) result.completeExceptionally(e2); else result.complete(r);
+            });
+            if (result.isCancelled()) fallback.cancel(true);
+        };
+        send.whenComplete((resp, err) -> {
+            if (result.isDone()) return;
+            if (err == null && resp.statusCode() >= 200 && resp.statusCode() < 300) {
+                subscriber.content().whenComplete((content, e2) -> {
+                    if (result.isDone()) return;
+                    if (e2 == null) {
+                        ExplanationResult r = content.isBlank() ? noExplanation() : parseCompletionContent(content);
+                        if (r.htmlContent() != null) storeExplained(cacheKey, model, sig, r);
+                        result.complete(r);
+                        return;
+                    }
+                    // Cut off before [DONE] or a finish_reason: the text is partial, so it is neither shown
+                    // as final nor cached
+                    com.intellij.openapi.diagnostic.Logger.getInstance(OpenAIService.class)
+                            .warn("OpenAI stream ended early (" + e2 + "), falling back to non-streaming request");
+                    fallBack.run();
+                });
+                return;
+            }
+            if (resp != null) {
+                com.intellij.openapi.diagnostic.Logger.getInstance(OpenAIService.class)
+                        .warn("OpenAI stream HTTP " + resp.statusCode() + ", falling back to non-streaming request");
+            }
+            fallBack.run();
+        });
+        result.whenComplete((r, e) -> {
+            if (!result.isCancelled()) return;
+            subscriber.cancel();
+            Future<?> f = stage.get();
+            if (f != null) f.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * One snippet of a batched request; {@code id} is the caller's handle for its result. Pass the step's
+     * {@code fingerprint} when known so the snippet is not hashed again.
+     */
+    public record BatchItem(@NotNull String id, @NotNull String code, @NotNull String note, @Nullable StepFingerprint fingerprint) {
+        public BatchItem(@NotNull String id, @NotNull String code, @NotNull String note) {
+            this(id, code, note, null);
         }
-        try {
-            String model = getModel(project);
-            String codeToSend = maybeTruncate(code);
-            com.google.gson.JsonObject system = new com.google.gson.JsonObject();
-            system.addProperty("role", "system");
-            system.addProperty("content", "You are an expert code tour guide. Return a JSON object with keys: " +
-                    "'title' (short summary), " +
-                    "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
-                    "Do not include markdown formatting in the JSON values." +
-                    " Example: { \"title\": \"Method Summary\", \"explanation\": \"This method calculates the sum of two integers. Example call: sum(1, 2).\" }");
-
-            com.google.gson.JsonObject user = new com.google.gson.JsonObject();
-            user.addProperty("role", "user");
-            user.addProperty("content", "Author note: " + note + "\n\nCode:\n" + codeToSend);
-
-            com.google.gson.JsonArray messages = new com.google.gson.JsonArray();
-            messages.add(system);
-            messages.add(user);
-
-            com.google.gson.JsonObject body = new com.google.gson.JsonObject();
-            body.addProperty("model", model);
-            body.add("messages", messages);
-            com.google.gson.JsonObject responseFormat = new com.google.gson.JsonObject();
-            responseFormat.addProperty("type", "json_object");
-            body.add("response_format", responseFormat);
-            body.addProperty("temperature", 0.2);
-            body.addProperty("max_tokens", 350);
-
-            java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder()
-                    .uri(java.net.URI.create("https://api.openai.com/v1/chat/completions"))
-                    .timeout(java.time.Duration.ofSeconds(60))
-                    .header("Content-Type", "application/json")
-                    .header("Accept-Encoding", "gzip")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(java.net.http.HttpRequest.BodyPublishers.ofString(gson.toJson(body), java.nio.charset.StandardCharsets.UTF_8))
-                    .build();
-
-            java.net.http.HttpResponse<String> resp = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString(java.nio.charset.StandardCharsets.UTF_8));
-            if (resp.statusCode() >= 200 && resp.statusCode() < 300) {
-                return parseCompletionBody(resp.body());
-            } else {
-                logHttpFailure("sync-project", resp);
+    }
+
+    /**
+     * Groups snippets for {@link #generateExplanationBatch}. Small snippets are packed together up to the prompt
+     * token budget (ACW_BATCH_TOKENS, default 2400; 0 disables batching), at most 8 per request; a snippet larger
+     * than half the budget gets a request of its own. Order is preserved.
+     */
+    public @NotNull List<List<BatchItem>> planBatches(@NotNull List<BatchItem> items) {
+        return planBatches(null, items);
+    }
+
+    /** As above; with a project, code size is estimated after PSI-aware compression, as it will be sent. */
+    public @NotNull List<List<BatchItem>> planBatches(@Nullable Project project, @NotNull List<BatchItem> items) {
+        int budget = getBatchTokenBudget();
+        List<List<BatchItem>> batches = new ArrayList<>();
+        List<BatchItem> current = new ArrayList<>();
+        int used = 0;
+        for (BatchItem item : items) {
+            int est = TokenEstimator.count(prepareCode(project, item.code(), item.note())) + TokenEstimator.count(item.note()) + 20;
+            if (budget <= 0 || est > budget / 2) {
+                batches.add(List.of(item));
+                continue;
             }
-        } catch (Exception ignore) {}
-        return new ExplanationResult("Auto Code Walker Tour", null);
+            if (!current.isEmpty() && (used + est > budget || current.size() >= MAX_BATCH_ITEMS)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                used = 0;
+            }
+            current.add(item);
+            used += est;
+        }
+        if (!current.isEmpty()) batches.add(current);
+        return batches;
     }
 
-    /** Project-aware async variant. */
-    public @NotNull CompletableFuture<ExplanationResult> generateExplanationAsync(@org.jetbrains.annotations.Nullable com.intellij.openapi.project.Project project,
-                                                                                  @NotNull String code,
-                                                                                  @NotNull String note) {
+    /**
+     * Explains several snippets with a single request answered as {"items": [{"id", "title", "explanation"}, ...]}.
+     * Batches are bulk work and queue behind interactive and prefetch requests. Returns one future per item id.
+     * Cached snippets complete right away; items the model skipped or returned malformed, and all items of a failed
+     * batch, fall back to {@link #generateExplanationAsync(Project, String, String)}. Results are cached per snippet
+     * under the same key as single-snippet requests.
+     */
+    public @NotNull Map<String, CompletableFuture<ExplanationResult>> generateExplanationBatch(@Nullable Project project,
+                                                                                               @NotNull List<BatchItem> items) {
+        return generateExplanationBatch(project, items, NO_DEADLINE);
+    }
+
+    /**
+     * As above, within a run's time budget: {@code deadlineNanos} (System.nanoTime() based, or {@link #NO_DEADLINE})
+     * applies to the batch request and to the per-item fallbacks. Cancelling every returned future aborts the batch.
+     */
+    public @NotNull Map<String, CompletableFuture<ExplanationResult>> generateExplanationBatch(@Nullable Project project,
+                                                                                               @NotNull List<BatchItem> items,
+                                                                                               long deadlineNanos) {
+        Map<String, CompletableFuture<ExplanationResult>> out = new LinkedHashMap<>();
         String apiKey = getApiKey(project);
         if (apiKey == null || apiKey.isBlank()) {
-            return CompletableFuture.completedFuture(new ExplanationResult("Auto Code Walker Tour", null));
+            for (BatchItem it : items) {
+                out.put(it.id(), CompletableFuture.completedFuture(noExplanation()));
+            }
+            return out;
         }
 
         String model = getModel(project);
-        String codeToSend = maybeTruncate(code);
-        String cacheKey = cacheKey(model, codeToSend, note);
-        ExplanationResult cached = cache.get(cacheKey);
-        if (cached != null) {
-            return CompletableFuture.completedFuture(cached);
+        List<BatchItem> pending = new ArrayList<>();
+        List<String> pendingKeys = new ArrayList<>();
+        List<SimilarSnippetIndex.Signature> pendingSigs = new ArrayList<>();
+        List<CompletableFuture<ExplanationResult>> pendingFutures = new ArrayList<>();
+        for (BatchItem it : items) {
+            String key = cacheKey(model, it.fingerprint() != null ? it.fingerprint() : StepFingerprint.of(it.code(), it.note()));
+            ExplanationResult cached = lookupCached(key);
+            InFlight running = cached == null ? inFlight.get(key) : null;
+            if (cached != null) {
+                out.put(it.id(), CompletableFuture.completedFuture(cached));
+            } else if (running != null && tryJoin(running)) {
+                // Already requested on its own (e.g. speculatively while selecting): wait for that instead
+                out.put(it.id(), attachWaiter(key, running));
+            } else {
+                CompletableFuture<ExplanationResult> f = new CompletableFuture<>();
+                out.put(it.id(), f);
+                pending.add(it);
+                pendingKeys.add(key);
+                pendingSigs.add(similar.isEnabled() ? SimilarSnippetIndex.signature(it.code(), it.note()) : null);
+                pendingFutures.add(f);
+            }
+        }
+        if (pending.size() == 1) {
+            BatchItem it = pending.get(0);
+            out.put(it.id(), generateExplanationAsync(project, it.code(), it.note(), RequestPriority.BULK, deadlineNanos));
         }
+        if (pending.size() <= 1) return out;
 
-        com.google.gson.JsonObject system = new com.google.gson.JsonObject();
-        system.addProperty("role", "system");
-        system.addProperty("content", "You are an expert code tour guide. Return a JSON object with keys: " +
-                "'title' (short summary), " +
-                "'explanation' (a concise summary; DO NOT include any code snippets. Include a usage example at the end). " +
-                "Do not include markdown formatting in the JSON values." +
-                " Example: { \"title\": \"Method Summary\", \"explanation\": \"This method calculates the sum of two integers. Example call: sum(1, 2).\" }");
-
-        com.google.gson.JsonObject user = new com.google.gson.JsonObject();
-        user.addProperty("role", "user");
-        user.addProperty("content", "Author note: " + note + "\n\nCode:\n" + codeToSend);
-
-        com.google.gson.JsonArray messages = new com.google.gson.JsonArray();
-        messages.add(system);
-        messages.add(user);
-
-        com.google.gson.JsonObject body = new com.google.gson.JsonObject();
-        body.addProperty("model", model);
-        body.add("messages", messages);
-        com.google.gson.JsonObject responseFormat = new com.google.gson.JsonObject();
-        responseFormat.addProperty("type", "json_object");
-        body.add("response_format", responseFormat);
-        body.addProperty("temperature", 0.2);
-        body.addProperty("max_tokens", 350);
-
-        java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder()
-                .uri(java.net.URI.create("https://api.openai.com/v1/chat/completions"))
-                .timeout(java.time.Duration.ofSeconds(60))
-                .header("Content-Type", "application/json")
-                // Avoid forcing gzip to reduce chances of decompression issues
-                .header("Authorization", "Bearer " + apiKey)
-                .POST(java.net.http.HttpRequest.BodyPublishers.ofString(gson.toJson(body), java.nio.charset.StandardCharsets.UTF_8))
-                .build();
-
-        return sendWithRetry(request, 3)
-                .thenApply(resp -> {
-                    try {
-                        if (resp != null && resp.statusCode() >= 200 && resp.statusCode() < 300) {
-                            ExplanationResult r = parseCompletionBody(resp.body());
-                            if (r != null) {
-                                cache.put(cacheKey, r);
-                                return r;
-                            }
-                        } else if (resp != null) {
-                            logHttpFailure("async-project", resp);
-                        }
-                    } catch (Throwable ignore) {}
-                    return new ExplanationResult("Auto Code Walker Tour", null);
-                })
-                .exceptionally(ex -> new ExplanationResult("Auto Code Walker Tour", null));
+        CompletableFuture<HttpResponse<String>> send = sendWhenReady(batchUserContent(project, pending), content -> {
+            String body = ChatRequestTemplate.BATCH.body(model, content, 350 * pending.size(), false);
+            return sendWithRetry(newRequest(project, apiKey, body, Duration.ofSeconds(60 + 10L * pending.size()), false), 3,
+                    new AtomicReference<>(RequestPriority.BULK), new AtomicLong(deadlineNanos));
+        });
+        send.whenComplete((resp, err) -> {
+            Map<String, ExplanationResult> parsed = Map.of();
+            if (err == null && resp != null && resp.statusCode() >= 200 && resp.statusCode() < 300) {
+                parsed = parseBatchBody(resp.body());
+            } else if (resp != null) {
+                logHttpFailure("batch", resp);
+            }
+            int missing = 0;
+            for (int i = 0; i < pending.size(); i++) {
+                CompletableFuture<ExplanationResult> f = pendingFutures.get(i);
+                if (f.isDone()) continue;
+                ExplanationResult r = parsed.get("s" + (i + 1));
+                if (r != null) {
+                    storeExplained(pendingKeys.get(i), model, pendingSigs.get(i), r);
+                    f.complete(r);
+                    continue;
+                }
+                missing++;
+                BatchItem it = pending.get(i);
+                CompletableFuture<ExplanationResult> single =
+                        generateExplanationAsync(project, it.code(), it.note(), RequestPriority.BULK, deadlineNanos);
+                single.whenComplete((r2, e2) ->
+                        f.complete(e2 != null || r2 == null ? noExplanation() : r2));
+                cancelsSource(f, single);
+            }
+            if (missing > 0 && err == null && !parsed.isEmpty()) {
+                com.intellij.openapi.diagnostic.Logger.getInstance(OpenAIService.class)
+                        .warn("OpenAI batch returned " + (pending.size() - missing) + "/" + pending.size() + " items, retrying the rest individually");
+            }
+        });
+        // Give up on the batch once every caller has cancelled its item
+        AtomicInteger live = new AtomicInteger(pendingFutures.size());
+        for (CompletableFuture<ExplanationResult> f : pendingFutures) {
+            f.whenComplete((r, e) -> {
+                if (f.isCancelled() && live.decrementAndGet() == 0) send.cancel(true);
+            });
+        }
+        return out;
+    }
+
+    /** User message for a batch: every snippet is introduced by "### s<n>" and answered in an "items" array. */
+    private CompletableFuture<String> batchUserContent(@Nullable Project project, List<BatchItem> batch) {
+        List<CompletableFuture<String>> prepared = new ArrayList<>(batch.size());
+        for (BatchItem it : batch) prepared.add(prepareCodeAsync(project, it.code(), it.note()));
+        return CompletableFuture.allOf(prepared.toArray(new CompletableFuture[0])).thenApply(v -> {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < batch.size(); i++) {
+                content.append("### s").append(i + 1).append('\n')
+                        .append(ChatRequestTemplate.userContent(batch.get(i).note(), prepared.get(i).join()))
+                        .append("\n\n");
+            }
+            return content.toString();
+        });
+    }
+
+    @Override
+    public void dispose() {
+        diskCache.thenAccept(disk -> {
+            if (disk != null) disk.close();
+        });
     }
 
     // -- Helpers ------------------------------------------------------------
 
+    /**
+     * Joins an in-flight request for {@code key} or starts one via {@code send}. Each caller gets its own
+     * future: cancelling it only detaches that caller, and the underlying request is cancelled once the
+     * last waiter is gone. The entry is removed as soon as the request completes, successfully or not.
+     * A caller with a higher priority than the running request's raises it for its remaining queueing, and
+     * a later deadline extends the request's budget.
+     */
+    private CompletableFuture<ExplanationResult> coalesce(String key, RequestPriority priority, long deadline,
+                                                          BiFunction<AtomicReference<RequestPriority>, AtomicLong, CompletableFuture<ExplanationResult>> send) {
+        while (true) {
+            InFlight created = new InFlight(priority, deadline);
+            InFlight existing = inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                CompletableFuture<ExplanationResult> up;
+                try {
+                    up = send.apply(created.priority, created.deadline);
+                } catch (Throwable t) {
+                    up = CompletableFuture.failedFuture(t);
+                }
+                created.upstream = up;
+                up.whenComplete((r, err) -> {
+                    inFlight.remove(key, created);
+                    if (err != null) created.shared.completeExceptionally(err); else created.shared.complete(r);
+                });
+                return attachWaiter(key, created);
+            }
+            // Join unless the last waiter just abandoned the entry; in that case retry with a fresh one
+            if (tryJoin(existing)) {
+                coalescedJoins.incrementAndGet();
+                existing.deadline.accumulateAndGet(deadline, Math::max);
+                raisePriority(existing.priority, priority);
+                return attachWaiter(key, existing);
+            }
+            inFlight.remove(key, existing);
+        }
+    }
+
+    private void raisePriority(AtomicReference<RequestPriority> current, RequestPriority wanted) {
+        RequestPriority p = current.get();
+        while (wanted.ordinal() < p.ordinal()) {
+            if (current.compareAndSet(p, wanted)) {
+                limiter.priorityRaised();
+                return;
+            }
+            p = current.get();
+        }
+    }
+
+    /** Registers one more waiter, unless the last one just abandoned the request. */
+    private static boolean tryJoin(InFlight f) {
+        int n = f.waiters.get();
+        while (n > 0 && !f.waiters.compareAndSet(n, n + 1)) {
+            n = f.waiters.get();
+        }
+        return n > 0;
+    }
+
+    private CompletableFuture<ExplanationResult> attachWaiter(String key, InFlight f) {
+        CompletableFuture<ExplanationResult> mine = new CompletableFuture<>();
+        f.shared.whenComplete((r, err) -> {
+            if (err != null) mine.completeExceptionally(err); else mine.complete(r);
+        });
+        mine.whenComplete((r, err) -> {
+            if (mine.isCancelled() && f.waiters.decrementAndGet() == 0) {
+                inFlight.remove(key, f);
+                CompletableFuture<ExplanationResult> up = f.upstream;
+                if (up != null) up.cancel(true);
+                f.shared.cancel(true);
+            }
+        });
+        return mine;
+    }
+
+    /** Memory first, then the persistent store; disk hits are promoted into the in-memory LRU. */
+    private @Nullable ExplanationResult lookupCached(String cacheKey) {
+        ExplanationResult r = findCached(cacheKey);
+        if (r != null) cacheHits.incrementAndGet();
+        return r;
+    }
+
+    private @Nullable ExplanationResult findCached(String cacheKey) {
+        ExplanationResult r = cache.get(cacheKey);
+        if (r != null) return r;
+        // Never wait for the store to open: until it is, lookups are memory-only
+        ExplanationDiskCache disk = diskCache.getNow(null);
+        if (disk == null) return null;
+        r = disk.get(cacheKey);
+        if (r != null) cache.put(cacheKey, r);
+        return r;
+    }
+
+    /**
+     * Caches the model's answer for this snippet and, if it has an explanation, offers it as a hint to
+     * near-duplicates. Only answers the model gave for {@code cacheKey} itself are ever stored under it.
+     */
+    private void storeExplained(String cacheKey, String model, SimilarSnippetIndex.@Nullable Signature sig,
+                                ExplanationResult r) {
+        storeCached(cacheKey, r);
+        if (sig != null && r.htmlContent() != null) similar.add(sig, model, cacheKey);
+    }
+
+    /** Explanation of the nearest similar snippet that is still cached, if any. */
+    private @Nullable ExplanationResult similarExplanation(String model, SimilarSnippetIndex.@Nullable Signature sig) {
+        if (sig == null) return null;
+        for (String key : similar.nearest(sig, model)) {
+            ExplanationResult r = findCached(key);
+            if (r != null && r.htmlContent() != null) return r;
+        }
+        return null;
+    }
+
+    private void storeCached(String cacheKey, @Nullable ExplanationResult r) {
+        if (r == null) return;
+        cache.put(cacheKey, r);
+        if (r.htmlContent() == null) return; // never persist failures
+        // Written once the store is open (right away if it already is)
+        diskCache.thenAccept(disk -> {
+            if (disk != null) disk.put(cacheKey, r);
+        });
+    }
+
+    private static @Nullable ExplanationDiskCache openDiskCache() {
+        long maxBytes = getDiskCacheBytes();
+        if (maxBytes <= 0) return null;
+        return ExplanationDiskCache.open(Path.of(PathManager.getSystemPath(), "codewalker", "cache"), maxBytes);
+    }
+
     /**
      * Parse a Chat Completions response body into an ExplanationResult.
      * Falls back to treating the message content as plain text if JSON parsing fails.
@@ -312,31 +696,136 @@ public final class OpenAIService {
         try {
             JsonObject root = gson.fromJson(body, JsonObject.class);
             JsonArray choices = root.getAsJsonArray("choices");
-            if (choices == null || choices.isEmpty()) return new ExplanationResult("Auto Code Walker Tour", null);
+            if (choices == null || choices.isEmpty()) return noExplanation();
             JsonObject msg = choices.get(0).getAsJsonObject().getAsJsonObject("message");
-            if (msg == null || !msg.has("content")) return new ExplanationResult("Auto Code Walker Tour", null);
+            if (msg == null || !msg.has("content")) return noExplanation();
             String content = msg.get("content").isJsonNull() ? "" : msg.get("content").getAsString();
+            return parseCompletionContent(content);
+        } catch (Throwable e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(OpenAIService.class)
+                    .warn("OpenAI parse error: " + e.getMessage());
+            return noExplanation();
+        }
+    }
 
-            // Try strict JSON first
-            try {
-                JsonObject parsed = gson.fromJson(content, JsonObject.class);
-                String title = parsed.has("title") ? parsed.get("title").getAsString() : "Auto Code Walker Tour";
-                String expl = parsed.has("explanation") ? parsed.get("explanation").getAsString() : content;
-                String html = "<h3>Summary</h3><p>" + escape(expl) + "</p>";
-                return new ExplanationResult(title, html);
-            } catch (Throwable ignore) {
-                // Fallback: use content as-is (plain text)
-                String title = "Auto Code Walker Tour";
-                String html = content == null || content.isBlank() ? null : ("<h3>Summary</h3><p>" + escape(content) + "</p>");
-                return new ExplanationResult(title, html);
+    /**
+     * Parse a batch response into results keyed by snippet id ("s1", "s2", ...). Each item is validated on its
+     * own, so one malformed entry does not lose the others. Accepts {"items": [...]}, a bare array, or an object
+     * keyed by id; numeric ids are normalised to "s<n>".
+     */
+    static Map<String, ExplanationResult> parseBatchBody(String body) {
+        Map<String, ExplanationResult> out = new HashMap<>();
+        try {
+            JsonObject root = JsonParser.parseString(body).getAsJsonObject();
+            JsonArray choices = root.getAsJsonArray("choices");
+            if (choices == null || choices.isEmpty()) return out;
+            JsonObject msg = choices.get(0).getAsJsonObject().getAsJsonObject("message");
+            if (msg == null || !msg.has("content") || msg.get("content").isJsonNull()) return out;
+            JsonElement content = JsonParser.parseString(msg.get("content").getAsString());
+            JsonArray items = null;
+            if (content.isJsonArray()) {
+                items = content.getAsJsonArray();
+            } else if (content.isJsonObject()) {
+                JsonObject obj = content.getAsJsonObject();
+                if (obj.has("items") && obj.get("items").isJsonArray()) {
+                    items = obj.getAsJsonArray("items");
+                } else {
+                    for (Map.Entry<String, JsonElement> e : obj.entrySet()) {
+                        if (e.getValue().isJsonObject()) parseBatchItem(e.getKey(), e.getValue().getAsJsonObject(), out);
+                    }
+                }
+            }
+            if (items != null) {
+                for (JsonElement el : items) {
+                    if (el.isJsonObject()) parseBatchItem(null, el.getAsJsonObject(), out);
+                }
             }
         } catch (Throwable e) {
             com.intellij.openapi.diagnostic.Logger.getInstance(OpenAIService.class)
-                    .warn("OpenAI parse error: " + e.getMessage());
-            return new ExplanationResult("Auto Code Walker Tour", null);
+                    .warn("OpenAI batch parse error: " + e.getMessage());
+        }
+        return out;
+    }
+
+    /** Adds one valid item (an id and a non-blank explanation) to {@code out}; the first item for an id wins. */
+    static void parseBatchItem(@Nullable String id, JsonObject item, Map<String, ExplanationResult> out) {
+        try {
+            if (id == null) {
+                JsonElement idEl = item.get("id");
+                if (idEl == null || !idEl.isJsonPrimitive()) return;
+                id = idEl.getAsString();
+            }
+            id = id.trim();
+            if (!id.isEmpty() && id.chars().allMatch(Character::isDigit)) id = "s" + id;
+            JsonElement ex = item.get("explanation");
+            if (ex == null || !ex.isJsonPrimitive() || ex.getAsString().isBlank()) return;
+            JsonElement t = item.get("title");
+            String title = t != null && t.isJsonPrimitive() && !t.getAsString().isBlank() ? t.getAsString() : "Auto Code Walker Tour";
+            out.putIfAbsent(id.toLowerCase(), new ExplanationResult(title, "<h3>Summary</h3><p>" + escape(ex.getAsString()) + "</p>"));
+        } catch (Throwable ignore) {}
+    }
+
+    /** Parse the assistant message content ({"title", "explanation"} JSON, or plain text) into an ExplanationResult. */
+    private ExplanationResult parseCompletionContent(String content) {
+        // Try strict JSON first
+        try {
+            JsonObject parsed = gson.fromJson(content, JsonObject.class);
+            String title = parsed.has("title") ? parsed.get("title").getAsString() : "Auto Code Walker Tour";
+            String expl = parsed.has("explanation") ? parsed.get("explanation").getAsString() : content;
+            String html = "<h3>Summary</h3><p>" + escape(expl) + "</p>";
+            return new ExplanationResult(title, html);
+        } catch (Throwable ignore) {
+            // Fallback: use content as-is (plain text)
+            String title = "Auto Code Walker Tour";
+            String html = content == null || content.isBlank() ? null : ("<h3>Summary</h3><p>" + escape(content) + "</p>");
+            return new ExplanationResult(title, html);
         }
     }
 
+    /**
+     * Render a partially streamed message as HTML. The model streams a JSON object, so we pull the
+     * (possibly unterminated) "explanation" string out of it; plain-text content is shown as-is.
+     */
+    private static @Nullable String partialHtml(String content) {
+        String trimmed = content.stripLeading();
+        String text = trimmed.startsWith("{") ? partialJsonString(trimmed, "explanation") : trimmed;
+        if (text == null || text.isBlank()) return null;
+        return "<h3>Summary</h3><p>" + escape(text) + "</p>";
+    }
+
+    /** Value of string field {@code field} in a JSON prefix, decoded up to the closing quote or the end of input. */
+    private static @Nullable String partialJsonString(String json, String field) {
+        int k = json.indexOf("\"" + field + "\"");
+        if (k < 0) return null;
+        int colon = json.indexOf(':', k + field.length() + 2);
+        if (colon < 0) return null;
+        int q = json.indexOf('"', colon + 1);
+        if (q < 0) return null;
+        StringBuilder sb = new StringBuilder();
+        for (int i = q + 1; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"') break;
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (i + 1 >= json.length()) break;
+            char n = json.charAt(++i);
+            switch (n) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r', 'b', 'f' -> { }
+                case 'u' -> {
+                    if (i + 4 >= json.length()) return sb.toString();
+                    try { sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16)); } catch (NumberFormatException ignore) {}
+                    i += 4;
+                }
+                default -> sb.append(n);
+            }
+        }
+        return sb.toString();
+    }
+
     private void logHttpFailure(String tag, HttpResponse<String> resp) {
         try {
             String snippet = resp.body();
@@ -346,56 +835,306 @@ public final class OpenAIService {
         } catch (Throwable ignore) {}
     }
 
-    private CompletableFuture<HttpResponse<String>> sendWithRetry(HttpRequest request, int maxAttempts) {
-        CompletableFuture<HttpResponse<String>> fut = new CompletableFuture<>();
-        attemptSend(request, 1, maxAttempts, fut);
-        return fut;
+    /**
+     * Sends with retries; every attempt (retries included) queues for a limiter slot at the current {@code priority}.
+     * Cancelling the returned future aborts the wait for a slot or the HTTP exchange and stops further retries.
+     * No attempt or retry is started that could not finish before {@code deadline} (System.nanoTime() based),
+     * and an attempt's timeout is cut to the time left; the future then fails with a {@link TimeoutException}.
+     */
+    private CompletableFuture<HttpResponse<String>> sendWithRetry(HttpRequest request, int maxAttempts,
+                                                                  AtomicReference<RequestPriority> priority, AtomicLong deadline) {
+        return send(new Send<>(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8), maxAttempts,
+                priority, deadline, true));
+    }
+
+    /** Sends {@code send} through the shared budget, limiter, breaker and retry path; see {@link #sendWithRetry}. */
+    private <T> CompletableFuture<HttpResponse<T>> send(Send<T> send) {
+        requestsSent.incrementAndGet();
+        send.sink.whenComplete((r, e) -> {
+            if (send.sink.isCancelled()) {
+                Future<?> stage = send.stage.get();
+                if (stage != null) stage.cancel(true);
+            }
+        });
+        attemptSend(send, 1);
+        return send.sink;
     }
 
-    private void attemptSend(HttpRequest request, int attempt, int maxAttempts, CompletableFuture<HttpResponse<String>> sink) {
-        client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
-                .whenComplete((resp, err) -> {
-                    boolean retry;
-                    if (err != null) {
-                        retry = attempt < maxAttempts;
-                    } else {
-                        int sc = resp.statusCode();
-                        retry = (sc == 429 || sc >= 500) && attempt < maxAttempts;
-                    }
-                    if (!retry) {
-                        if (err != null) sink.completeExceptionally(err); else sink.complete(resp);
-                        return;
+    /** State of one logical request ({@link #sendWithRetry} or a stream). */
+    private static final class Send<T> {
+        final HttpRequest request;
+        final HttpResponse.BodyHandler<T> handler;
+        final int maxAttempts;
+        final AtomicReference<RequestPriority> priority;
+        final AtomicLong deadline;
+        // Body read in full: the exchange time is a latency sample and the request may be hedged. False for streams
+        final boolean buffered;
+        final CompletableFuture<HttpResponse<T>> sink = new CompletableFuture<>();
+        // What the request is currently waiting on (a limiter slot or the exchange), cancelled with the sink
+        final AtomicReference<Future<?>> stage = new AtomicReference<>();
+
+        Send(HttpRequest request, HttpResponse.BodyHandler<T> handler, int maxAttempts,
+             AtomicReference<RequestPriority> priority, AtomicLong deadline, boolean buffered) {
+            this.request = request;
+            this.handler = handler;
+            this.maxAttempts = maxAttempts;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.buffered = buffered;
+        }
+
+        void track(Future<?> f) {
+            stage.set(f);
+            if (sink.isCancelled()) f.cancel(true);
+        }
+
+        long remainingMillis() {
+            long d = deadline.get();
+            return d == NO_DEADLINE ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(d - System.nanoTime());
+        }
+
+        /** Completes the sink with a TimeoutException if the deadline leaves less than {@code neededMs}. */
+        boolean outOfTime(long neededMs) {
+            if (remainingMillis() > neededMs) return false;
+            sink.completeExceptionally(new TimeoutException("AI generation deadline reached"));
+            return true;
+        }
+
+        /** The request with its timeout cut to the time left before the deadline. */
+        HttpRequest requestForRemainingTime() {
+            long left = remainingMillis();
+            Duration timeout = request.timeout().orElse(Duration.ofSeconds(60));
+            if (left >= timeout.toMillis()) return request;
+            return HttpRequest.newBuilder(request, (name, value) -> true).timeout(Duration.ofMillis(Math.max(1, left))).build();
+        }
+    }
+
+    private <T> void attemptSend(Send<T> send, int attempt) {
+        if (send.sink.isDone() || send.outOfTime(0)) return; // cancelled while a retry was pending
+        if (breaker.isOpen()) {
+            // Fail fast instead of queueing for a slot the endpoint cannot use
+            send.sink.completeExceptionally(circuitOpen());
+            return;
+        }
+        // Respect the provider's request/token budget before taking a concurrency slot
+        int tokens = estimateTokens(send.request);
+        long waitMs = rateLimits.reserve(tokens);
+        if (send.outOfTime(waitMs)) {
+            rateLimits.refund(tokens);
+            return;
+        }
+        if (waitMs > 0) {
+            CompletableFuture.delayedExecutor(waitMs, TimeUnit.MILLISECONDS).execute(() -> sendOnce(send, attempt, tokens));
+        } else {
+            sendOnce(send, attempt, tokens);
+        }
+    }
+
+    /** One attempt; {@code reservedTokens} is given back to the rate-limit budget if the attempt is abandoned unsent. */
+    private <T> void sendOnce(Send<T> send, int attempt, int reservedTokens) {
+        if (send.sink.isDone()) {
+            rateLimits.refund(reservedTokens);
+            return;
+        }
+        // Each attempt holds a slot of the shared adaptive limiter only while the exchange is on the wire
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> slot = limiter.acquire(send.priority);
+        send.track(slot);
+        slot.whenComplete((permit, err) -> {
+            if (err != null) rateLimits.refund(reservedTokens); // cancelled while queued for a slot
+        });
+        slot.thenAccept(permit -> {
+            if (send.sink.isDone() || send.outOfTime(0)) {
+                permit.release();
+                rateLimits.refund(reservedTokens);
+                return;
+            }
+            CircuitBreaker.Pass pass = breaker.tryPass();
+            if (pass == null) {
+                permit.release();
+                rateLimits.refund(reservedTokens);
+                send.sink.completeExceptionally(circuitOpen());
+                return;
+            }
+            HttpRequest request = send.requestForRemainingTime();
+            CompletableFuture<HttpResponse<T>> exchange = exchange(send, request, permit, pass);
+            if (send.buffered) {
+                hedging.onRequest();
+                exchange = hedged(send, request, exchange);
+            }
+            send.track(exchange);
+            exchange.whenComplete((resp, err) -> {
+                if (send.sink.isCancelled()) return;
+                long retryAfterMs = -1;
+                if (resp != null) {
+                    rateLimits.update(resp.headers());
+                    retryAfterMs = RateLimitGovernor.retryAfterMs(resp.headers());
+                    if (resp.statusCode() == 429 && retryAfterMs > 0) {
+                        rateLimits.pause(retryAfterMs);
                     }
-                    long delayMs = (long) Math.min(2000, 300 * Math.pow(2, attempt - 1));
-                    CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS)
-                            .execute(() -> attemptSend(request, attempt + 1, maxAttempts, sink));
-                });
+                }
+                boolean retry;
+                if (err != null) {
+                    retry = attempt < send.maxAttempts;
+                } else {
+                    int sc = resp.statusCode();
+                    retry = (sc == 429 || sc >= 500) && attempt < send.maxAttempts;
+                }
+                // Wait as long as the server asks (plus jitter, at most MAX_WAIT_MS); otherwise back off exponentially
+                long delayMs = retryAfterMs >= 0
+                        ? RateLimitGovernor.withJitter(retryAfterMs)
+                        : RateLimitGovernor.withJitter((long) Math.min(2000, 300 * Math.pow(2, attempt - 1)));
+                // A retry that could not even start before the deadline is not worth waiting for
+                if (!retry || send.remainingMillis() <= delayMs) {
+                    if (err != null) send.sink.completeExceptionally(err); else send.sink.complete(resp);
+                    return;
+                }
+                CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> attemptSend(send, attempt + 1));
+            });
+        });
     }
 
-    private static String cacheKey(String model, String code, String note) {
+    /**
+     * One HTTP exchange holding {@code permit} and {@code pass}; its outcome feeds the limiter, the circuit breaker
+     * and the latency history used for hedging. Cancelling the returned future aborts the exchange.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> exchange(Send<T> send, HttpRequest request,
+                                                            AdaptiveConcurrencyLimiter.Permit permit, CircuitBreaker.Pass pass) {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> exchange;
+        try {
+            exchange = client.sendAsync(request, send.handler);
+        } catch (Throwable t) {
+            permit.release();
+            pass.abandon();
+            return CompletableFuture.failedFuture(t);
+        }
+        exchange.whenComplete((resp, err) -> {
+            if (exchange.isCancelled() || (err instanceof HttpTimeoutException && send.remainingMillis() <= 0)) {
+                // Aborted by us, or cut short by the deadline: neither a latency sample nor a sign of trouble
+                permit.release();
+                pass.abandon();
+                return;
+            }
+            if (err != null || resp.statusCode() == 429 || resp.statusCode() >= 500) {
+                permit.onDropped();
+            } else if (!send.buffered) {
+                // A stream's duration says nothing about server latency; return the slot without a sample
+                permit.release();
+            } else {
+                long rtt = System.nanoTime() - start;
+                permit.onSuccess(rtt);
+                hedging.record(rtt);
+            }
+            if (err != null || resp.statusCode() >= 500) pass.onFailure(); else pass.onSuccess();
+        });
+        return exchange;
+    }
+
+    /**
+     * Races {@code primary} against a duplicate sent once it is slower than the recent p95, if the hedging budget,
+     * a free limiter slot and the circuit breaker allow. The first usable answer wins and the other exchange is
+     * aborted; if both fail, the later failure is reported.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> hedged(Send<T> send, HttpRequest request,
+                                                          CompletableFuture<HttpResponse<T>> primary) {
+        long delayMs = hedging.delayMillis();
+        if (delayMs < 0 || delayMs >= send.remainingMillis()) return primary;
+
+        CompletableFuture<HttpResponse<T>> winner = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<HttpResponse<T>>> hedge = new AtomicReference<>();
+        BiConsumer<HttpResponse<T>, Throwable> race = (resp, err) -> {
+            boolean usable = err == null && resp.statusCode() != 429 && resp.statusCode() < 500;
+            if (usable) {
+                winner.complete(resp);
+            } else if (running.decrementAndGet() == 0) {
+                if (err != null) winner.completeExceptionally(err); else winner.complete(resp);
+            }
+        };
+        primary.whenComplete(race);
+        CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+            if (winner.isDone() || send.sink.isDone() || !hedging.tryHedge()) return;
+            AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+            if (permit == null) return;
+            CircuitBreaker.Pass pass = breaker.tryPass();
+            if (pass == null) {
+                permit.release();
+                return;
+            }
+            running.incrementAndGet();
+            CompletableFuture<HttpResponse<T>> h = exchange(send, request, permit, pass);
+            hedge.set(h);
+            h.whenComplete(race);
+            if (winner.isDone()) h.cancel(true);
+        });
+        winner.whenComplete((r, e) -> {
+            primary.cancel(true);
+            CompletableFuture<HttpResponse<T>> h = hedge.get();
+            if (h != null) h.cancel(true);
+        });
+        return winner;
+    }
+
+    private static java.io.IOException circuitOpen() {
+        return new java.io.IOException("OpenAI endpoint unavailable (circuit breaker open)");
+    }
+
+    /** Cancelling {@code result} also cancels {@code source}, aborting its HTTP exchange and pending retries. */
+    private static <T> CompletableFuture<T> cancelsSource(CompletableFuture<T> result, Future<?> source) {
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) source.cancel(true);
+        });
+        return result;
+    }
+
+    /** Rough token estimate for the token bucket: ~4 bytes per prompt token plus the completion budget. */
+    private static int estimateTokens(HttpRequest request) {
+        long bytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+        return (int) Math.max(0, bytes / 4) + 350;
+    }
+
+    /** Cache key: the step's content fingerprint scoped to the model that produced the explanation. */
+    private static String cacheKey(String model, StepFingerprint fingerprint) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             md.update(Objects.toString(model, "").getBytes(StandardCharsets.UTF_8));
             md.update((byte) '\n');
-            md.update(code.getBytes(StandardCharsets.UTF_8));
-            md.update((byte) '\n');
-            md.update(Objects.toString(note, "").getBytes(StandardCharsets.UTF_8));
+            md.update(fingerprint.hex().getBytes(StandardCharsets.UTF_8));
             byte[] digest = md.digest();
             return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
         } catch (Exception e) {
-            return model + ":" + code.hashCode() + ":" + note.hashCode();
+            return model + ":" + fingerprint.hex();
         }
     }
 
-    private static String maybeTruncate(String code) {
-        int max = getMaxCodeChars();
-        if (max > 0 && code != null && code.length() > max) {
-            // Keep head and tail when very long
-            int head = (int) (max * 0.7);
-            int tail = max - head;
-            return code.substring(0, head) + "\n...\n" + code.substring(code.length() - tail);
+    /**
+     * The code as sent: compressed to the token budget (see {@link CodeCompressor}). Remembered per snippet, since
+     * batch planning and the request body both need it. Blocking with a project (PSI parse): only for batch
+     * planning, which runs in a background task; requests use {@link #prepareCodeAsync}.
+     */
+    private String prepareCode(@Nullable Project project, String code, String note) {
+        String key = compressedCodeKey(project, code, note);
+        String prepared = compressedCode.get(key);
+        if (prepared == null) {
+            prepared = CodeCompressor.compress(project, code, note, getMaxCodeTokens());
+            compressedCode.put(key, prepared);
         }
-        return code;
+        return prepared;
+    }
+
+    /** As {@link #prepareCode}, with the PSI pass off the calling thread. */
+    private CompletableFuture<String> prepareCodeAsync(@Nullable Project project, String code, String note) {
+        String key = compressedCodeKey(project, code, note);
+        String prepared = compressedCode.get(key);
+        if (prepared != null) return CompletableFuture.completedFuture(prepared);
+        return CodeCompressor.compressAsync(project, code, note, getMaxCodeTokens()).thenApply(c -> {
+            compressedCode.put(key, c);
+            return c;
+        });
+    }
+
+    private static String compressedCodeKey(@Nullable Project project, String code, String note) {
+        return StepFingerprint.of(code, note).hex() + ":" + getMaxCodeTokens() + (project != null ? "" : ":plain");
     }
 
     private static String escape(String s) {
@@ -406,87 +1145,21 @@ public final class OpenAIService {
 
     private static volatile String CACHED_API_KEY;
     private static volatile String CACHED_MODEL;
+    private static volatile String CACHED_BASE_URL;
 
     private static String getApiKey() { // backwards-compatible
         return getApiKey(null);
     }
 
-    private static String getApiKey(@org.jetbrains.annotations.Nullable com.intellij.openapi.project.Project project) {
+    private static String getApiKey(@Nullable Project project) {
         // Cached once per app lifecycle
         String cached = CACHED_API_KEY;
         if (cached != null) return cached;
-
-        // 1) Environment variable
-        String key = System.getenv("OPENAI_API_KEY");
-        if (key != null && !key.isBlank()) {
-            CACHED_API_KEY = key.trim();
-            return CACHED_API_KEY;
-        }
-        // 2) System property
-        key = System.getProperty("OPENAI_API_KEY");
-        if (key != null && !key.isBlank()) {
-            CACHED_API_KEY = key.trim();
-            return CACHED_API_KEY;
-        }
-        // 3) .env in the provided project's base path
-        if (project != null) {
-            try {
-                String base = project.getBasePath();
-                if (base != null) {
-                    java.io.File env = new java.io.File(base, ".env");
-                    if (env.exists()) {
-                        java.nio.file.Path p = env.toPath();
-                        for (String line : java.nio.file.Files.readAllLines(p)) {
-                            String ln = line.trim();
-                            if (ln.startsWith("#") || ln.isEmpty()) continue;
-                            int eq = ln.indexOf('=');
-                            if (eq > 0) {
-                                String k = ln.substring(0, eq).trim();
-                                String v = ln.substring(eq + 1).trim();
-                                if ((k.equals("OPENAI_API_KEY") || k.equals("openai_api_key")) && !v.isEmpty()) {
-                                    if ((v.startsWith("\"") && v.endsWith("\"")) || (v.startsWith("'") && v.endsWith("'"))) {
-                                        v = v.substring(1, v.length() - 1);
-                                    }
-                                    CACHED_API_KEY = v;
-                                    return CACHED_API_KEY;
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (Exception ignore) {}
-        }
-        // 4) .env in the first open project base path
-        try {
-            com.intellij.openapi.project.Project[] projects = com.intellij.openapi.project.ProjectManager.getInstance().getOpenProjects();
-            if (projects.length > 0) {
-                String base = projects[0].getBasePath();
-                if (base != null) {
-                    java.io.File env = new java.io.File(base, ".env");
-                    if (env.exists()) {
-                        java.nio.file.Path p = env.toPath();
-                        for (String line : java.nio.file.Files.readAllLines(p)) {
-                            String ln = line.trim();
-                            if (ln.startsWith("#") || ln.isEmpty()) continue;
-                            int eq = ln.indexOf('=');
-                            if (eq > 0) {
-                                String k = ln.substring(0, eq).trim();
-                                String v = ln.substring(eq + 1).trim();
-                                if ((k.equals("OPENAI_API_KEY") || k.equals("openai_api_key")) && !v.isEmpty()) {
-                                    // Remove optional surrounding quotes
-                                    if ((v.startsWith("\"") && v.endsWith("\"")) || (v.startsWith("'") && v.endsWith("'"))) {
-                                        v = v.substring(1, v.length() - 1);
-                                    }
-                                    CACHED_API_KEY = v;
-                                    return CACHED_API_KEY;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (Exception ignore) {}
-        return null;
+        // Environment variable, system property, then .env
+        String key = Settings.get("OPENAI_API_KEY");
+        if (key == null) key = dotEnvValue(project, "OPENAI_API_KEY");
+        if (key != null) CACHED_API_KEY = key;
+        return key;
     }
 
     /** Resolve model from env/system/.env (OPENAI_MODEL). Defaults to gpt-4o-mini. */
@@ -494,75 +1167,119 @@ public final class OpenAIService {
         return getModel(null);
     }
 
-    public static String getModel(@org.jetbrains.annotations.Nullable com.intellij.openapi.project.Project project) {
+    public static String getModel(@Nullable Project project) {
         String m = CACHED_MODEL;
         if (m != null) return m;
-        String key = System.getenv("OPENAI_MODEL");
-        if (key != null && !key.isBlank()) return CACHED_MODEL = key.trim();
-        key = System.getProperty("OPENAI_MODEL");
-        if (key != null && !key.isBlank()) return CACHED_MODEL = key.trim();
-        // Project-specific .env
-        if (project != null) {
-            try {
-                String base = project.getBasePath();
-                if (base != null) {
-                    java.io.File env = new java.io.File(base, ".env");
-                    if (env.exists()) {
-                        java.nio.file.Path p = env.toPath();
-                        for (String line : java.nio.file.Files.readAllLines(p)) {
-                            String ln = line.trim();
-                            if (ln.startsWith("#") || ln.isEmpty()) continue;
-                            int eq = ln.indexOf('=');
-                            if (eq > 0) {
-                                String k = ln.substring(0, eq).trim();
-                                String v = ln.substring(eq + 1).trim();
-                                if ((k.equals("OPENAI_MODEL") || k.equalsIgnoreCase("openai_model")) && !v.isEmpty()) {
-                                    if ((v.startsWith("\"") && v.endsWith("\"")) || (v.startsWith("'") && v.endsWith("'"))) {
-                                        v = v.substring(1, v.length() - 1);
-                                    }
-                                    return CACHED_MODEL = v;
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (Exception ignore) {}
-        }
-        // Fallback to first open project
+        m = Settings.get("OPENAI_MODEL");
+        if (m == null) m = dotEnvValue(project, "OPENAI_MODEL");
+        return CACHED_MODEL = m != null ? m : "gpt-4o-mini";
+    }
+
+    /** What a stored explanation depends on besides the step itself: the model and the prompt templates. */
+    public static @NotNull String resultScope(@Nullable Project project) {
+        return getModel(project) + "/" + ChatRequestTemplate.VERSION;
+    }
+
+    /** Chat Completions endpoint under the configured base URL. */
+    private static URI chatCompletionsUri(@Nullable Project project) {
+        String base = getBaseUrl(project);
+        while (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+        return URI.create(base + "/chat/completions");
+    }
+
+    /**
+     * Resolve the API base URL from env/system/.env (OPENAI_BASE_URL). Defaults to https://api.openai.com/v1;
+     * point it at any OpenAI-compatible server, e.g. a local mock for offline load tests.
+     */
+    public static String getBaseUrl(@Nullable Project project) {
+        String u = CACHED_BASE_URL;
+        if (u != null) return u;
+        String v = Settings.get("OPENAI_BASE_URL");
+        if (v == null) v = dotEnvValue(project, "OPENAI_BASE_URL");
+        return CACHED_BASE_URL = v != null ? v : "https://api.openai.com/v1";
+    }
+
+    /** {@code name} from the .env of {@code project}, else of the first open project. */
+    private static @Nullable String dotEnvValue(@Nullable Project project, String name) {
+        String v = project != null ? dotEnvValue(project.getBasePath(), name) : null;
+        if (v != null) return v;
         try {
-            com.intellij.openapi.project.Project[] projects = com.intellij.openapi.project.ProjectManager.getInstance().getOpenProjects();
-            if (projects.length > 0) {
-                String base = projects[0].getBasePath();
-                if (base != null) {
-                    java.io.File env = new java.io.File(base, ".env");
-                    if (env.exists()) {
-                        java.nio.file.Path p = env.toPath();
-                        for (String line : java.nio.file.Files.readAllLines(p)) {
-                            String ln = line.trim();
-                            if (ln.startsWith("#") || ln.isEmpty()) continue;
-                            int eq = ln.indexOf('=');
-                            if (eq > 0) {
-                                String k = ln.substring(0, eq).trim();
-                                String v = ln.substring(eq + 1).trim();
-                                if ((k.equals("OPENAI_MODEL") || k.equalsIgnoreCase("openai_model")) && !v.isEmpty()) {
-                                    if ((v.startsWith("\"") && v.endsWith("\"")) || (v.startsWith("'") && v.endsWith("'"))) {
-                                        v = v.substring(1, v.length() - 1);
-                                    }
-                                    return CACHED_MODEL = v;
-                                }
-                            }
-                        }
-                    }
+            Project[] projects = com.intellij.openapi.project.ProjectManager.getInstance().getOpenProjects();
+            if (projects.length > 0) return dotEnvValue(projects[0].getBasePath(), name);
+        } catch (Exception ignore) {}
+        return null;
+    }
+
+    /** Value of {@code name} (case-insensitive, optionally quoted) in the .env file under {@code basePath}. */
+    private static @Nullable String dotEnvValue(@Nullable String basePath, String name) {
+        if (basePath == null) return null;
+        try {
+            java.io.File env = new java.io.File(basePath, ".env");
+            if (!env.exists()) return null;
+            for (String line : java.nio.file.Files.readAllLines(env.toPath())) {
+                String ln = line.trim();
+                if (ln.startsWith("#") || ln.isEmpty()) continue;
+                int eq = ln.indexOf('=');
+                if (eq <= 0 || !ln.substring(0, eq).trim().equalsIgnoreCase(name)) continue;
+                String v = ln.substring(eq + 1).trim();
+                if (v.length() >= 2 && ((v.startsWith("\"") && v.endsWith("\"")) || (v.startsWith("'") && v.endsWith("'")))) {
+                    v = v.substring(1, v.length() - 1);
                 }
+                if (!v.isEmpty()) return v;
             }
         } catch (Exception ignore) {}
-        return CACHED_MODEL = "gpt-4o-mini";
+        return null;
+    }
+
+    /**
+     * Token budget for a snippet's code (ACW_MAX_CODE_TOKENS, default 2000; 0 disables compression to size).
+     * The older ACW_MAX_CODE_CHARS is still honoured at about 4 characters per token.
+     */
+    private static int getMaxCodeTokens() {
+        if (Settings.get("ACW_MAX_CODE_TOKENS") == null && Settings.get("ACW_MAX_CODE_CHARS") != null) {
+            return Settings.getInt("ACW_MAX_CODE_CHARS", 8000, 0, Integer.MAX_VALUE) / 4;
+        }
+        return Settings.getInt("ACW_MAX_CODE_TOKENS", 2000, 0, Integer.MAX_VALUE); // Safe default to avoid oversized payloads
+    }
+
+    /** Consecutive failures that open the circuit breaker (ACW_BREAKER_FAILURES, default 5; 0 disables it). */
+    private static int getBreakerThreshold() {
+        return Settings.getInt("ACW_BREAKER_FAILURES", 5, 0, Integer.MAX_VALUE);
+    }
+
+    /** Initial cool-down of an open circuit breaker (ACW_BREAKER_OPEN_SECONDS, default 30). */
+    private static int getBreakerOpenSeconds() {
+        return Settings.getInt("ACW_BREAKER_OPEN_SECONDS", 30, 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Hedged requests as a share of all requests, in percent (ACW_HEDGE_PERCENT, default 0: no hedging). A hedge is
+     * a second billed request, so it is opt-in; around 5 trims the latency tail without costing much.
+     */
+    private static int getHedgePercent() {
+        return Settings.getInt("ACW_HEDGE_PERCENT", 0, 0, 100);
+    }
+
+    /**
+     * How many of the 64 SimHash bits two snippets may differ in for one's explanation to be sent as a hint with
+     * the other (ACW_SIMILAR_BITS, default 0: off; 6 is a reasonable value).
+     */
+    private static int getSimilarBits() {
+        return Settings.getInt("ACW_SIMILAR_BITS", 0, 0, 64);
+    }
+
+    /** Size budget of the persistent explanation cache (ACW_DISK_CACHE_MB, default 64; 0 disables it). */
+    private static long getDiskCacheBytes() {
+        return Settings.getInt("ACW_DISK_CACHE_MB", 64, 0, Integer.MAX_VALUE) * 1024L * 1024;
+    }
+
+    /** Prompt token budget of one batched request (ACW_BATCH_TOKENS, default 2400; 0 disables batching). */
+    private static int getBatchTokenBudget() {
+        return Settings.getInt("ACW_BATCH_TOKENS", 2400, 0, Integer.MAX_VALUE);
     }
 
-    private static int getMaxCodeChars() {
-        String v = System.getenv("ACW_MAX_CODE_CHARS");
-        if (v == null || v.isBlank()) v = System.getProperty("ACW_MAX_CODE_CHARS");
-        if (v == null || v.isBlank()) return 8000; // Safe default to avoid oversized payloads
-        try { return Integer.parseInt(v.trim()); } catch (Exception ignore) { return 8000; }
+    /** Upper bound for the adaptive concurrency limit (ACW_MAX_CONCURRENCY, default 32). */
+    private static int getMaxConcurrency() {
+        return Settings.getInt("ACW_MAX_CONCURRENCY", 32, 1, Integer.MAX_VALUE);
     }
 }
@@ -0,0 +1,164 @@
+package com.hackathon.openai;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.http.HttpHeaders;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Client-side token buckets for requests and (estimated) tokens, kept in sync with the provider's
+ * x-ratelimit-* response headers, plus a global pause driven by Retry-After.
+ *
+ * Until the first response with rate-limit headers arrives the buckets are unbounded. After that each
+ * bucket holds the server's "remaining" count and refills at (limit - remaining) / reset, i.e. it is full
+ * again when the server says the window resets. Reservations may drive a bucket negative; the returned
+ * delay is how long the caller has to wait for the deficit to refill, so callers queue up fairly.
+ */
+final class RateLimitGovernor {
+    /** Longest a caller is ever asked to wait, whatever the headers say. */
+    static final long MAX_WAIT_MS = 60_000;
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final Bucket requests = new Bucket();
+    private final Bucket tokens = new Bucket();
+    private long pausedUntilNanos;
+
+    /**
+     * Reserves one request and {@code estimatedTokens} tokens; returns how many milliseconds the caller
+     * should wait before sending (0 when it may send right away).
+     */
+    synchronized long reserve(int estimatedTokens) {
+        long now = System.nanoTime();
+        long waitNanos = Math.max(0, pausedUntilNanos - now);
+        waitNanos = Math.max(waitNanos, requests.take(1, now));
+        waitNanos = Math.max(waitNanos, tokens.take(Math.max(0, estimatedTokens), now));
+        return Math.min(MAX_WAIT_MS, waitNanos / 1_000_000);
+    }
+
+    /** Gives back a reservation whose request was never sent (cancelled, or past its deadline). */
+    synchronized void refund(int estimatedTokens) {
+        long now = System.nanoTime();
+        requests.give(1, now);
+        tokens.give(Math.max(0, estimatedTokens), now);
+    }
+
+    /** Feeds the buckets from the rate-limit headers of any response (success or failure). */
+    synchronized void update(@NotNull HttpHeaders headers) {
+        long now = System.nanoTime();
+        requests.sync(header(headers, "x-ratelimit-limit-requests"), header(headers, "x-ratelimit-remaining-requests"),
+                headers.firstValue("x-ratelimit-reset-requests").map(RateLimitGovernor::parseDurationMs).orElse(-1L), now);
+        tokens.sync(header(headers, "x-ratelimit-limit-tokens"), header(headers, "x-ratelimit-remaining-tokens"),
+                headers.firstValue("x-ratelimit-reset-tokens").map(RateLimitGovernor::parseDurationMs).orElse(-1L), now);
+    }
+
+    /** Stops all sends for {@code delayMs} (at most {@link #MAX_WAIT_MS}); used when the server answers 429 with Retry-After. */
+    synchronized void pause(long delayMs) {
+        long until = System.nanoTime() + Math.min(MAX_WAIT_MS, delayMs) * 1_000_000;
+        pausedUntilNanos = Math.max(pausedUntilNanos, until);
+    }
+
+    /**
+     * Delay requested by the server via retry-after-ms or Retry-After (seconds or HTTP date), or -1 when absent.
+     * Clamped to [0, {@link #MAX_WAIT_MS}]: a bogus or huge value must not park a request indefinitely.
+     */
+    static long retryAfterMs(@NotNull HttpHeaders headers) {
+        Optional<String> ms = headers.firstValue("retry-after-ms");
+        if (ms.isPresent()) {
+            try { return clampWait((long) Double.parseDouble(ms.get().trim())); } catch (NumberFormatException ignore) {}
+        }
+        Optional<String> ra = headers.firstValue("retry-after");
+        if (ra.isEmpty()) return -1;
+        String v = ra.get().trim();
+        try {
+            return clampWait((long) (Double.parseDouble(v) * 1000));
+        } catch (NumberFormatException ignore) {}
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return clampWait(at.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (Exception ignore) {}
+        return -1;
+    }
+
+    private static long clampWait(long ms) {
+        return Math.max(0, Math.min(MAX_WAIT_MS, ms));
+    }
+
+    /** Adds up to 10% (max 250 ms) of positive jitter so retries waiting for the same reset do not stampede. */
+    static long withJitter(long delayMs) {
+        long spread = Math.min(250, Math.max(10, delayMs / 10));
+        return delayMs + ThreadLocalRandom.current().nextLong(spread + 1);
+    }
+
+    /** Parses durations like "1s", "6m0s", "20ms" or "1h2m3.5s" into milliseconds; -1 if unparseable. */
+    static long parseDurationMs(String s) {
+        if (s == null || s.isBlank()) return -1;
+        Matcher m = DURATION_PART.matcher(s.trim());
+        double total = 0;
+        boolean any = false;
+        while (m.find()) {
+            any = true;
+            double v = Double.parseDouble(m.group(1));
+            switch (m.group(2)) {
+                case "h" -> total += v * 3_600_000;
+                case "m" -> total += v * 60_000;
+                case "s" -> total += v * 1000;
+                default -> total += v;
+            }
+        }
+        return any ? (long) total : -1;
+    }
+
+    private static long header(HttpHeaders headers, String name) {
+        Optional<String> v = headers.firstValue(name);
+        if (v.isEmpty()) return -1;
+        try { return Long.parseLong(v.get().trim()); } catch (NumberFormatException e) { return -1; }
+    }
+
+    private static final class Bucket {
+        private boolean known;
+        private double available;
+        private double capacity;
+        private double refillPerNano;
+        private long lastNanos;
+
+        long take(double amount, long now) {
+            if (!known) return 0;
+            refill(now);
+            available -= amount;
+            if (available >= 0) return 0;
+            if (refillPerNano <= 0) return MAX_WAIT_MS * 1_000_000;
+            return (long) (-available / refillPerNano);
+        }
+
+        void give(double amount, long now) {
+            if (!known) return;
+            refill(now);
+            available = Math.min(capacity > 0 ? capacity : Double.MAX_VALUE, available + amount);
+        }
+
+        void sync(long limit, long remaining, long resetMs, long now) {
+            if (remaining < 0) return;
+            known = true;
+            if (limit > 0) capacity = limit;
+            available = remaining;
+            lastNanos = now;
+            if (resetMs > 0 && capacity > remaining) {
+                refillPerNano = (capacity - remaining) / (resetMs * 1_000_000.0);
+            } else if (resetMs == 0 && capacity > 0) {
+                available = capacity;
+            }
+        }
+
+        private void refill(long now) {
+            if (refillPerNano > 0) {
+                available = Math.min(capacity > 0 ? capacity : Double.MAX_VALUE, available + (now - lastNanos) * refillPerNano);
+            }
+            lastNanos = now;
+        }
+    }
+}
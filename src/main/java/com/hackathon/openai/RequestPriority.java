@@ -0,0 +1,14 @@
+package com.hackathon.openai;
+
+/**
+ * Scheduling class of a request waiting for a slot of the shared {@link AdaptiveConcurrencyLimiter}.
+ * Declaration order is precedence: interactive requests are granted first, bulk work last.
+ */
+public enum RequestPriority {
+    /** The step the user is looking at right now. */
+    INTERACTIVE,
+    /** Steps the user is likely to open next (lazy-mode prefetch). */
+    PREFETCH,
+    /** Finalize/update runs and speculative pre-generation. */
+    BULK
+}
@@ -0,0 +1,162 @@
+package com.hackathon.openai;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds an already explained snippet that is a near-duplicate of a new one (overloads, copy-pasted handlers), so
+ * its explanation can be sent along as a hint for the new one. Snippets are compared by a 64-bit SimHash over
+ * shingles of three normalized code tokens plus the words of the author note; two snippets are similar when their
+ * hashes differ in at most {@code maxDistance} bits and their skeletons (keywords, operators and punctuation, with
+ * identifiers and literals blanked) are identical, so {@code sum += x} never matches {@code sum -= x}.
+ * Session-scoped and bounded; the oldest entries go first.
+ */
+final class SimilarSnippetIndex {
+    private static final int CAPACITY = 4096;
+    // Below this many code tokens a single renamed identifier already moves the hash too far to be meaningful
+    private static final int MIN_TOKENS = 24;
+
+    private static final Set<String> KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "continue",
+            "default", "do", "double", "else", "enum", "extends", "false", "final", "finally", "float", "for", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "new", "null", "private", "protected",
+            "public", "return", "short", "static", "super", "switch", "synchronized", "this", "throw", "throws",
+            "true", "try", "var", "void", "volatile", "while", "yield");
+
+    /** What the index compares: the SimHash of the snippet and a hash of its skeleton. */
+    record Signature(long simHash, long skeleton) {}
+
+    private record Entry(Signature sig, String model, String cacheKey) {}
+
+    private final int maxDistance;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    /** {@code maxDistance <= 0} disables the index. */
+    SimilarSnippetIndex(int maxDistance) {
+        this.maxDistance = Math.min(64, maxDistance);
+    }
+
+    boolean isEnabled() {
+        return maxDistance > 0;
+    }
+
+    /** Remembers an explained snippet; {@code sig} comes from {@link #signature}. */
+    synchronized void add(Signature sig, String model, String cacheKey) {
+        if (!isEnabled()) return;
+        entries.removeIf(e -> e.cacheKey().equals(cacheKey));
+        if (entries.size() >= CAPACITY) entries.removeFirst();
+        entries.addLast(new Entry(sig, model, cacheKey));
+    }
+
+    /** Cache keys of similar snippets explained with the same model, nearest first. */
+    synchronized List<String> nearest(Signature sig, String model) {
+        if (!isEnabled()) return List.of();
+        long hash = sig.simHash();
+        List<Entry> found = new ArrayList<>();
+        for (Entry e : entries) {
+            if (e.model().equals(model) && e.sig().skeleton() == sig.skeleton()
+                    && Long.bitCount(e.sig().simHash() ^ hash) <= maxDistance) {
+                found.add(e);
+            }
+        }
+        found.sort((a, b) -> Integer.compare(Long.bitCount(a.sig().simHash() ^ hash),
+                Long.bitCount(b.sig().simHash() ^ hash)));
+        List<String> keys = new ArrayList<>(found.size());
+        for (Entry e : found) keys.add(e.cacheKey());
+        return keys;
+    }
+
+    /**
+     * Signature of a snippet, or null if it is too short to compare reliably. Comments and whitespace are ignored,
+     * identifiers and keywords are lower-cased, string and character literals count as one placeholder each and
+     * numbers as another.
+     */
+    static @Nullable Signature signature(String code, String note) {
+        List<String> tokens = tokens(code);
+        if (tokens.size() < MIN_TOKENS) return null;
+        return new Signature(simHash(tokens, note), skeleton(tokens));
+    }
+
+    private static long simHash(List<String> tokens, String note) {
+        int[] weights = new int[64];
+        for (int i = 0; i + 2 < tokens.size(); i++) {
+            add(weights, hash64(tokens.get(i) + ' ' + tokens.get(i + 1) + ' ' + tokens.get(i + 2)));
+        }
+        for (String word : note.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) add(weights, hash64("note:" + word));
+        }
+        long h = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) h |= 1L << bit;
+        }
+        return h;
+    }
+
+    private static long skeleton(List<String> tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (String t : tokens) {
+            boolean name = Character.isJavaIdentifierStart(t.charAt(0)) && !KEYWORDS.contains(t);
+            sb.append(name ? "i" : t).append(' ');
+        }
+        return hash64(sb.toString());
+    }
+
+    private static void add(int[] weights, long featureHash) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((featureHash >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    /** FNV-1a followed by a 64-bit finalizer, so short features still spread over all bits. */
+    private static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static List<String> tokens(String code) {
+        List<String> out = new ArrayList<>();
+        int n = code.length();
+        int i = 0;
+        while (i < n) {
+            char c = code.charAt(i);
+            int j = i + 1;
+            if (Character.isWhitespace(c)) {
+                // skip
+            } else if (c == '/' && j < n && code.charAt(j) == '/') {
+                while (j < n && code.charAt(j) != '\n') j++;
+            } else if (c == '/' && j < n && code.charAt(j) == '*') {
+                int end = code.indexOf("*/", j + 1);
+                j = end < 0 ? n : end + 2;
+            } else if (c == '"' || c == '\'') {
+                while (j < n && code.charAt(j) != c && code.charAt(j) != '\n') {
+                    if (code.charAt(j) == '\\') j++;
+                    j++;
+                }
+                j = Math.min(n, j + 1);
+                out.add("\"\"");
+            } else if (Character.isJavaIdentifierStart(c)) {
+                while (j < n && Character.isJavaIdentifierPart(code.charAt(j))) j++;
+                out.add(code.substring(i, j).toLowerCase());
+            } else if (Character.isDigit(c)) {
+                while (j < n && (Character.isLetterOrDigit(code.charAt(j)) || code.charAt(j) == '.' || code.charAt(j) == '_')) j++;
+                out.add("0");
+            } else {
+                out.add(String.valueOf(c));
+            }
+            i = j;
+        }
+        return out;
+    }
+}
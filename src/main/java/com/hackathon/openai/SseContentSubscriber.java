@@ -0,0 +1,92 @@
+package com.hackathon.openai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Line subscriber for a streamed Chat Completions response (Server-Sent Events).
+ * Appends every {@code choices[0].delta.content} chunk and reports the accumulated content after each one;
+ * {@link #content()} completes with the full message on {@code data: [DONE]}, or at end of stream once a chunk
+ * carried a {@code finish_reason}. A stream that ends without either was cut off, and {@link #content()} then
+ * fails with an {@link EOFException} rather than hand out a partial message.
+ * Lines that are not SSE data (e.g. a JSON error body) are ignored.
+ */
+final class SseContentSubscriber implements Flow.Subscriber<String> {
+    private final Gson gson = new Gson();
+    private final Consumer<String> onContent;
+    private final CompletableFuture<String> content = new CompletableFuture<>();
+    // Only touched by the HttpClient thread delivering lines
+    private final StringBuilder buffer = new StringBuilder();
+    // The content so far, published after every chunk for cancel() on other threads
+    private volatile String received = "";
+    // Set by a chunk with a finish_reason: the message is whole even if [DONE] never arrives
+    private boolean finished;
+    private volatile Flow.Subscription subscription;
+
+    SseContentSubscriber(@NotNull Consumer<String> onContent) {
+        this.onContent = onContent;
+    }
+
+    @NotNull CompletableFuture<String> content() {
+        return content;
+    }
+
+    /** Stops reading the stream; the content future is cancelled, as what has been received is partial. */
+    void cancel() {
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+        content.cancel(false);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (content.isDone() || !line.startsWith("data:")) return;
+        String data = line.substring(5).trim();
+        if (data.equals("[DONE]")) {
+            content.complete(received);
+            return;
+        }
+        try {
+            JsonObject chunk = gson.fromJson(data, JsonObject.class);
+            JsonArray choices = chunk.getAsJsonArray("choices");
+            if (choices == null || choices.isEmpty()) return;
+            JsonObject choice = choices.get(0).getAsJsonObject();
+            if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) finished = true;
+            JsonObject delta = choice.getAsJsonObject("delta");
+            if (delta == null || !delta.has("content") || delta.get("content").isJsonNull()) return;
+            buffer.append(delta.get("content").getAsString());
+            received = buffer.toString();
+            onContent.accept(received);
+        } catch (Throwable ignore) {
+            // Malformed chunk: skip it, the final parse works on whatever was accumulated
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        content.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (finished) {
+            content.complete(received);
+        } else {
+            content.completeExceptionally(new EOFException(
+                    "Stream ended without [DONE] or finish_reason after " + received.length() + " chars"));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.hackathon.service;
+
+import com.google.gson.Gson;
+import com.hackathon.openai.OpenAIService;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checkpoint of a finalize run: every explanation is appended to .codewalker/finalize-journal.jsonl as soon as
+ * it completes (one JSON object per line), so a run that was cancelled or lost to a crash can resume and only
+ * request the keys that are still missing. Entries are scoped to the model and prompt templates that produced
+ * them, so a run after either changed requests everything again. A torn last line is ignored on load. The journal
+ * is deleted once the run is over, unless it was cancelled or ran out of time.
+ */
+public final class FinalizeJournal {
+    private record Entry(String scope, String key, String title, String html) {}
+
+    private final Path file;
+    private final String scope;
+    private final Gson gson = new Gson();
+    private Writer writer;
+    private boolean failed;
+
+    FinalizeJournal(@NotNull Path file, @NotNull String scope) {
+        this.file = file;
+        this.scope = scope;
+    }
+
+    public static @NotNull FinalizeJournal forProject(@NotNull Project project) {
+        String base = project.getBasePath();
+        Path dir = base != null ? Path.of(base, ".codewalker") : Path.of(".codewalker");
+        return new FinalizeJournal(dir.resolve("finalize-journal.jsonl"), OpenAIService.resultScope(project));
+    }
+
+    /** Results checkpointed by earlier runs with the same scope, by key; later lines win. */
+    public synchronized @NotNull Map<String, OpenAIService.ExplanationResult> load() {
+        Map<String, OpenAIService.ExplanationResult> out = new HashMap<>();
+        if (!Files.isRegularFile(file)) return out;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    Entry e = gson.fromJson(line, Entry.class);
+                    if (e != null && scope.equals(e.scope()) && e.key() != null && e.html() != null) {
+                        out.put(e.key(), new OpenAIService.ExplanationResult(e.title(), e.html()));
+                    }
+                } catch (Throwable ignore) {
+                    // Torn or corrupt line (e.g. crash mid-append): skip it, the key is simply requested again
+                }
+            }
+        } catch (IOException e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(FinalizeJournal.class)
+                    .warn("Cannot read finalize journal " + file + ": " + e.getMessage());
+        }
+        return out;
+    }
+
+    /** Appends one completed result and flushes it to the OS, so it survives an IDE crash. */
+    public synchronized void append(@NotNull String key, @NotNull OpenAIService.ExplanationResult result) {
+        if (failed || result.htmlContent() == null) return;
+        try {
+            if (writer == null) {
+                Files.createDirectories(file.getParent());
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            // Start on a fresh line in case the previous run died mid-line
+            writer.write('\n');
+            writer.write(gson.toJson(new Entry(scope, key, result.title(), result.htmlContent())));
+            writer.flush();
+        } catch (IOException e) {
+            failed = true; // checkpointing is best effort; the run itself carries on
+            com.intellij.openapi.diagnostic.Logger.getInstance(FinalizeJournal.class)
+                    .warn("Cannot write finalize journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        if (writer != null) {
+            try { writer.close(); } catch (IOException ignore) {}
+            writer = null;
+        }
+    }
+
+    /** Drops the checkpoint once its results are part of a saved tour. */
+    public synchronized void delete() {
+        close();
+        try { Files.deleteIfExists(file); } catch (IOException ignore) {}
+    }
+}
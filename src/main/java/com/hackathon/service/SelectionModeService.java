@@ -19,7 +19,6 @@ import com.intellij.openapi.actionSystem.CommonDataKeys;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.impl.SimpleDataContext;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.PsiDocCommentOwner;
@@ -47,9 +46,12 @@ public final class SelectionModeService implements Disposable {
     // Store editor-specific highlighters to clear on disable or editor disposal
     private final Map<Editor, List<RangeHighlighter>> editorHighlighters = new ConcurrentHashMap<>();
     private final Map<Editor, FinishHud> finishHuds = new ConcurrentHashMap<>();
+    // Explanations of selected steps are requested in the background so finalize finds them ready
+    private final SpeculativeExplanationQueue speculative;
 
     public SelectionModeService(Project project) {
         this.project = project;
+        this.speculative = new SpeculativeExplanationQueue(project);
 
         // Attach a factory listener to register mouse listener for new editors
         com.intellij.openapi.editor.EditorFactory.getInstance().addEditorFactoryListener(new EditorFactoryListener() {
@@ -84,6 +86,7 @@ public final class SelectionModeService implements Disposable {
         if (this.enabled == enable) return;
         this.enabled = enable;
         if (!enable) {
+            speculative.cancelAll(true);
             clearAllHighlighters();
             // remove HUDs
             for (Editor ed : new ArrayList<>(finishHuds.keySet())) {
@@ -111,19 +114,11 @@ public final class SelectionModeService implements Disposable {
 
             // Build TourStep
             Document doc = editor.getDocument();
-            TextRange range = target.getTextRange();
-            // Use navigation offset for the start so we don't include leading Javadoc/comments.
-            int navStartOffset = (target instanceof PsiClass || target instanceof PsiMethod)
-                    ? target.getTextOffset()
-                    : range.getStartOffset();
-            int startLine0 = doc.getLineNumber(navStartOffset);
-
-            // Range end is exclusive; convert to inclusive to avoid selecting the next blank line.
-            int exclusiveEnd = range.getEndOffset();
-            int inclusiveEnd = Math.max(navStartOffset, exclusiveEnd - 1);
-            int endLine0 = doc.getLineNumber(inclusiveEnd);
-
-            String code = doc.getText(new TextRange(doc.getLineStartOffset(startLine0), doc.getLineEndOffset(endLine0)));
+            StepResolver.Lines lines = StepResolver.linesOf(target, doc);
+            int startLine0 = lines.start() - 1;
+            int endLine0 = lines.end() - 1;
+
+            String code = StepResolver.textOf(doc, lines);
             VirtualFile vFile = psiFile.getVirtualFile();
             if (vFile == null) return;
 
@@ -142,22 +137,24 @@ public final class SelectionModeService implements Disposable {
                             Objects.equals(s.endLine(), endLine0 + 1))
                     .findFirst();
             if (existing.isPresent()) {
-                removeStep(state, existing.get());
+                speculative.cancel(existing.get());
+                state.removeStep(existing.get());
             } else {
                 TourStep step = new TourStep(vFile.getPath(), startLine0 + 1, code, note, null, endLine0 + 1, symbolName, type);
                 state.addStep(step);
+                speculative.schedule(step);
             }
 
             refreshAllEditors();
         }
     };
 
-    private void removeStep(TourStateService state, TourStep step) {
-        // Internal mutation helper: not exposed on service, so rebuild list
-        List<TourStep> copy = new ArrayList<>(state.getSteps());
-        copy.remove(step);
-        state.clear();
-        for (TourStep s : copy) state.addStep(s);
+    /**
+     * Called when finalize starts: speculative requests that are not on the wire yet are dropped (finalize sends
+     * those itself); running ones continue and finalize joins them.
+     */
+    public void stopSpeculation() {
+        speculative.cancelAll(false);
     }
 
     private static PsiFile getPsiFile(Editor editor) {
@@ -236,6 +233,8 @@ public final class SelectionModeService implements Disposable {
         TourStateService state = project.getService(TourStateService.class);
         Document document = editor.getDocument();
 
+        StepExplanationService explanations = project.getService(StepExplanationService.class);
+
         List<RangeHighlighter> list = new ArrayList<>();
         int index = 1;
         for (TourStep s : state.getSteps()) {
@@ -257,7 +256,8 @@ public final class SelectionModeService implements Disposable {
 
             MarkupModel markup = editor.getMarkupModel();
             RangeHighlighter rh = markup.addRangeHighlighter(startOffset, endOffset, HighlighterLayer.SELECTION - 2, attrs, HighlighterTargetArea.EXACT_RANGE);
-            rh.setGutterIconRenderer(new NumberGutterIconRenderer(index));
+            rh.setGutterIconRenderer(new NumberGutterIconRenderer(index, explanations.isStreaming(s),
+                    s.aiExplanation() != null && !s.aiExplanation().isBlank()));
             list.add(rh);
             index++;
         }
@@ -288,44 +288,56 @@ public final class SelectionModeService implements Disposable {
 
     @Override
     public void dispose() {
+        speculative.cancelAll(true);
         clearAllHighlighters();
         for (Editor ed : new ArrayList<>(finishHuds.keySet())) {
             detachFinishHud(ed);
         }
     }
 
-    /** Simple numbered icon for gutter. */
+    /** Simple numbered icon for gutter; grey while the step's explanation is still being generated. */
     static final class NumberGutterIconRenderer extends GutterIconRenderer {
         private final int index;
+        private final boolean pending;
+        private final boolean ready;
         private final Icon icon;
 
-        NumberGutterIconRenderer(int index) {
+        NumberGutterIconRenderer(int index, boolean pending, boolean ready) {
             this.index = index;
-            this.icon = new NumberIcon(index);
+            this.pending = pending;
+            this.ready = ready;
+            this.icon = new NumberIcon(index, pending);
         }
 
         @Override
         public @NotNull Icon getIcon() { return icon; }
 
         @Override
-        public String getTooltipText() { return "Tour Step #" + index; }
+        public String getTooltipText() {
+            if (pending) return "Tour Step #" + index + " (generating explanation...)";
+            return ready ? "Tour Step #" + index + " (explanation ready)" : "Tour Step #" + index;
+        }
 
         @Override
-        public boolean equals(Object obj) { return obj instanceof NumberGutterIconRenderer r && r.index == index; }
+        public boolean equals(Object obj) {
+            return obj instanceof NumberGutterIconRenderer r && r.index == index && r.pending == pending && r.ready == ready;
+        }
 
         @Override
-        public int hashCode() { return Integer.hashCode(index); }
+        public int hashCode() { return Integer.hashCode(index) * 4 + (pending ? 2 : 0) + (ready ? 1 : 0); }
     }
 
-    /** Draws a blue circle badge with the step number. */
+    /** Draws a blue (grey while pending) circle badge with the step number. */
     static final class NumberIcon implements Icon {
         private final int number;
+        private final boolean pending;
         private final int size = 16;
-        NumberIcon(int number) { this.number = number; }
+        NumberIcon(int number, boolean pending) { this.number = number; this.pending = pending; }
         @Override public void paintIcon(Component c, Graphics g, int x, int y) {
             Graphics2D g2 = (Graphics2D) g.create();
             g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g2.setColor(new JBColor(new Color(0, 120, 215), new Color(0, 120, 215))); // Windows blue
+            g2.setColor(pending ? new JBColor(new Color(150, 150, 150), new Color(110, 110, 110))
+                                : new JBColor(new Color(0, 120, 215), new Color(0, 120, 215))); // Windows blue
             g2.fillOval(x, y, size, size);
             g2.setColor(JBColor.WHITE);
             String s = String.valueOf(number);
@@ -0,0 +1,151 @@
+package com.hackathon.service;
+
+import com.hackathon.model.TourStep;
+import com.hackathon.openai.OpenAIService;
+import com.hackathon.openai.RequestPriority;
+import com.hackathon.util.Settings;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Pre-generates explanations while steps are being selected, so finalize mostly finds warm cache entries.
+ * A toggled-on step is requested after a debounce (clicking it off again in time costs nothing), with at most
+ * {@link #MAX_IN_FLIGHT} speculative requests at once so they never crowd out interactive ones. Toggling a
+ * step off cancels its request. Results only go to the OpenAIService caches; tour state is not touched.
+ * Disable with ACW_SPECULATIVE=false.
+ */
+final class SpeculativeExplanationQueue {
+    private static final long DEBOUNCE_MS = 1200;
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private final Project project;
+    private final Supplier<OpenAIService> ai;
+    private final Map<TourStep, Entry> entries = new HashMap<>();
+    private final ArrayDeque<Entry> queued = new ArrayDeque<>();
+    private int inFlight;
+
+    private static final class Entry {
+        final TourStep step;
+        ScheduledFuture<?> timer;
+        CompletableFuture<OpenAIService.ExplanationResult> request;
+        // Taken off the queue to be sent; the request itself is started outside the lock
+        boolean sent;
+        boolean cancelled;
+        // Cancelled together with its request, possibly before that request was assigned
+        boolean abort;
+
+        Entry(TourStep step) {
+            this.step = step;
+        }
+    }
+
+    SpeculativeExplanationQueue(Project project) {
+        this(project, () -> ApplicationManager.getApplication().getService(OpenAIService.class));
+    }
+
+    SpeculativeExplanationQueue(Project project, Supplier<OpenAIService> ai) {
+        this.project = project;
+        this.ai = ai;
+    }
+
+    synchronized void schedule(@NotNull TourStep step) {
+        if (!isEnabled() || entries.containsKey(step)) return;
+        Entry e = new Entry(step);
+        entries.put(step, e);
+        e.timer = AppExecutorUtil.getAppScheduledExecutorService().schedule(() -> enqueue(e), DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** The step was toggled off: drop it, cancelling its request if one is on the wire. */
+    synchronized void cancel(@NotNull TourStep step) {
+        Entry e = entries.remove(step);
+        if (e != null) cancel(e, true);
+    }
+
+    /**
+     * Drops everything not sent yet. Requests already on the wire keep running unless {@code inFlightToo};
+     * finalize joins them instead of sending the same snippet again.
+     */
+    synchronized void cancelAll(boolean inFlightToo) {
+        for (Entry e : new ArrayList<>(entries.values())) {
+            if (e.sent && !inFlightToo) continue;
+            entries.remove(e.step, e);
+            cancel(e, inFlightToo);
+        }
+    }
+
+    private void cancel(Entry e, boolean cancelRequest) {
+        e.cancelled = true;
+        e.abort |= cancelRequest;
+        if (e.timer != null) e.timer.cancel(false);
+        queued.remove(e);
+        // OpenAIService only aborts the exchange once no other caller is waiting for the same snippet
+        if (cancelRequest && e.request != null) e.request.cancel(true);
+    }
+
+    private void enqueue(Entry e) {
+        List<Entry> start;
+        synchronized (this) {
+            if (e.cancelled) return;
+            queued.add(e);
+            start = takeStartable();
+        }
+        start(start);
+    }
+
+    /** Takes the entries that fit in the in-flight budget off the queue. */
+    private List<Entry> takeStartable() {
+        List<Entry> start = new ArrayList<>();
+        while (inFlight < MAX_IN_FLIGHT && !queued.isEmpty()) {
+            Entry e = queued.poll();
+            e.sent = true;
+            inFlight++;
+            start.add(e);
+        }
+        return start;
+    }
+
+    /** Sends the requests without holding the lock: OpenAIService may complete them on this thread. */
+    private void start(List<Entry> start) {
+        if (start.isEmpty()) return;
+        OpenAIService ai = this.ai.get();
+        for (Entry e : start) {
+            String note = e.step.authorNote() == null ? "" : e.step.authorNote();
+            CompletableFuture<OpenAIService.ExplanationResult> request = ai.generateExplanationAsync(project,
+                    e.step.codeSnippet() == null ? "" : e.step.codeSnippet(), note, RequestPriority.BULK);
+            boolean abort;
+            synchronized (this) {
+                e.request = request;
+                abort = e.abort;
+            }
+            // Toggled off while it was being sent
+            if (abort) request.cancel(true);
+            request.whenComplete((r, err) -> done(e));
+        }
+    }
+
+    private void done(Entry e) {
+        List<Entry> start;
+        synchronized (this) {
+            inFlight--;
+            entries.remove(e.step, e);
+            start = takeStartable();
+        }
+        start(start);
+    }
+
+    private static boolean isEnabled() {
+        return Settings.getBoolean("ACW_SPECULATIVE", true);
+    }
+}
@@ -0,0 +1,160 @@
+package com.hackathon.service;
+
+import com.hackathon.model.TourStep;
+import com.hackathon.openai.OpenAIService;
+import com.hackathon.openai.RequestPriority;
+import com.hackathon.util.HtmlSanitizer;
+import com.hackathon.util.Settings;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Project-level service that fills in missing AI explanations while a tour is being viewed.
+ * Explanations are streamed so the tool window and overlay can show text as it arrives; the final
+ * result is written back into {@link TourStateService}.
+ *
+ * Lazy mode: whenever the current step changes, it is explained first and the next few steps
+ * (ACW_PREFETCH_AHEAD, default 3; 0 disables) are prefetched in the background, so tours without
+ * pre-generated text are usable right away and only viewed steps are paid for.
+ */
+@Service(Service.Level.PROJECT)
+public final class StepExplanationService {
+    private final Project project;
+    private final Map<TourStep, Stream> streams = new ConcurrentHashMap<>();
+    private final Map<TourStep, CompletableFuture<OpenAIService.ExplanationResult>> prefetches = new ConcurrentHashMap<>();
+
+    /** One streaming request per step, shared by every view showing that step. */
+    private static final class Stream {
+        final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+        final CompletableFuture<TourStep> done = new CompletableFuture<>();
+        volatile String lastPartial;
+    }
+
+    public StepExplanationService(Project project) {
+        this.project = project;
+    }
+
+    public boolean isStreaming(@NotNull TourStep step) {
+        return streams.containsKey(step);
+    }
+
+    /**
+     * Streams an explanation for {@code step} if it has none. {@code onPartialHtml} is called on the EDT with
+     * the explanation received so far. The returned future completes on the EDT with the step as stored in
+     * {@link TourStateService} afterwards (unchanged if generation failed or the step already had text).
+     */
+    public @NotNull CompletableFuture<TourStep> streamExplanation(@NotNull TourStep step, @NotNull Consumer<String> onPartialHtml) {
+        if (step.aiExplanation() != null && !step.aiExplanation().isBlank()) {
+            return CompletableFuture.completedFuture(step);
+        }
+        Stream created = new Stream();
+        Stream stream = streams.putIfAbsent(step, created);
+        if (stream != null) {
+            stream.listeners.add(onPartialHtml);
+            String last = stream.lastPartial;
+            if (last != null) onPartialHtml.accept(last);
+            return stream.done;
+        }
+        created.listeners.add(onPartialHtml);
+        refreshGutters();
+
+        OpenAIService ai = ApplicationManager.getApplication().getService(OpenAIService.class);
+        String note = step.authorNote() == null ? "" : step.authorNote();
+        CompletableFuture<OpenAIService.ExplanationResult> source;
+        CompletableFuture<OpenAIService.ExplanationResult> prefetch = prefetches.remove(step);
+        if (prefetch != null) {
+            // Take over the running prefetch instead of requesting again; joining it as interactive moves it up the queue
+            source = ai.generateExplanationAsync(project, step.codeSnippet() == null ? "" : step.codeSnippet(), note,
+                    RequestPriority.INTERACTIVE);
+            prefetch.cancel(true); // only detaches the prefetch; the request keeps running for us
+        } else {
+            source = ai.generateExplanationStreaming(project, step.codeSnippet() == null ? "" : step.codeSnippet(), note, html ->
+                    ApplicationManager.getApplication().invokeLater(() -> {
+                        if (created.done.isDone()) return;
+                        created.lastPartial = html;
+                        for (Consumer<String> l : created.listeners) l.accept(html);
+                    }));
+        }
+        source.whenComplete((res, err) -> ApplicationManager.getApplication().invokeLater(() -> {
+            streams.remove(step, created);
+            created.done.complete(err == null ? apply(step, res) : step);
+            refreshGutters();
+        }));
+        return created.done;
+    }
+
+    /**
+     * Lazy mode: makes sure the current step gets its explanation and prefetches the following ones.
+     * Prefetches for steps that fell out of the window (the user jumped elsewhere) are cancelled.
+     */
+    public void prefetchAround(int index) {
+        int ahead = getPrefetchAhead();
+        TourStateService state = project.getService(TourStateService.class);
+        List<TourStep> steps = state.getSteps();
+        if (ahead <= 0 || index < 0 || index >= steps.size()) return;
+        if (project.getService(SelectionModeService.class).isEnabled()) return; // finalize takes care of these
+
+        Set<TourStep> window = new HashSet<>(steps.subList(index, Math.min(steps.size(), index + ahead + 1)));
+        for (Map.Entry<TourStep, CompletableFuture<OpenAIService.ExplanationResult>> en : prefetches.entrySet()) {
+            if (!window.contains(en.getKey()) && prefetches.remove(en.getKey(), en.getValue())) en.getValue().cancel(true);
+        }
+
+        TourStep current = steps.get(index);
+        if (isMissing(current)) streamExplanation(current, partial -> {});
+        for (int i = index + 1; i < Math.min(steps.size(), index + ahead + 1); i++) {
+            TourStep next = steps.get(i);
+            if (isMissing(next) && !streams.containsKey(next) && !prefetches.containsKey(next)) prefetch(next);
+        }
+    }
+
+    private void prefetch(TourStep step) {
+        OpenAIService ai = ApplicationManager.getApplication().getService(OpenAIService.class);
+        String note = step.authorNote() == null ? "" : step.authorNote();
+        CompletableFuture<OpenAIService.ExplanationResult> f =
+                ai.generateExplanationAsync(project, step.codeSnippet() == null ? "" : step.codeSnippet(), note, RequestPriority.PREFETCH);
+        prefetches.put(step, f);
+        f.whenComplete((res, err) -> ApplicationManager.getApplication().invokeLater(() -> {
+            // Only if no viewer took the request over meanwhile
+            if (prefetches.remove(step, f) && err == null) apply(step, res);
+        }));
+    }
+
+    /** Writes a successful result into the tour state; returns the step as stored afterwards. EDT only. */
+    private TourStep apply(TourStep step, OpenAIService.ExplanationResult res) {
+        if (res == null || res.htmlContent() == null || project.isDisposed()) return step;
+        TourStep updated = new TourStep(step.filePath(), step.lineNum(), step.codeSnippet(), step.authorNote(),
+                HtmlSanitizer.stripCodeBlocks(res.htmlContent()), step.endLine(), step.symbolName(), step.type());
+        TourStateService state = project.getService(TourStateService.class);
+        if (!state.replaceStep(step, updated)) return step;
+        // A tour built step by step takes its title from the first explanation
+        if ("Untitled Tour".equals(state.getTitle())) state.setTitle(res.title());
+        return updated;
+    }
+
+    private static boolean isMissing(TourStep step) {
+        return step.aiExplanation() == null || step.aiExplanation().isBlank();
+    }
+
+    /** Steps prefetched beyond the current one in lazy mode (ACW_PREFETCH_AHEAD, default 3; 0 disables prefetch). */
+    private static int getPrefetchAhead() {
+        return Settings.getInt("ACW_PREFETCH_AHEAD", 3, 0, Integer.MAX_VALUE);
+    }
+
+    /** Gutter badges show whether a step's explanation is still pending. */
+    private void refreshGutters() {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (!project.isDisposed()) project.getService(SelectionModeService.class).refreshAllEditors();
+        });
+    }
+}
@@ -0,0 +1,103 @@
+package com.hackathon.service;
+
+import com.hackathon.model.TourStep;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Captures a symbol's code the way selection mode records it, and re-locates existing steps in the current
+ * sources (by symbolName, falling back to the stored file and lines).
+ * Callers must hold a read action; symbol lookup needs indexes, i.e. smart mode.
+ */
+public final class StepResolver {
+    private StepResolver() {}
+
+    /** 1-based inclusive line span of a step. */
+    public record Lines(int start, int end) {}
+
+    /** From the declaration line (leading Javadoc/comments excluded) to the symbol's last line. */
+    public static @NotNull Lines linesOf(@NotNull PsiElement target, @NotNull Document doc) {
+        TextRange range = target.getTextRange();
+        // Use navigation offset for the start so we don't include leading Javadoc/comments.
+        int navStartOffset = (target instanceof PsiClass || target instanceof PsiMethod)
+                ? target.getTextOffset()
+                : range.getStartOffset();
+        // Range end is exclusive; convert to inclusive to avoid selecting the next blank line.
+        int inclusiveEnd = Math.max(navStartOffset, range.getEndOffset() - 1);
+        return new Lines(doc.getLineNumber(navStartOffset) + 1, doc.getLineNumber(inclusiveEnd) + 1);
+    }
+
+    /** Full text of the given lines. */
+    public static @NotNull String textOf(@NotNull Document doc, @NotNull Lines lines) {
+        return doc.getText(new TextRange(doc.getLineStartOffset(lines.start() - 1), doc.getLineEndOffset(lines.end() - 1)));
+    }
+
+    /**
+     * The step re-captured from the current sources: path, lines and code are refreshed, note and explanation
+     * are kept. Returns null if neither the symbol nor the stored file can be found.
+     */
+    public static @Nullable TourStep resolveCurrent(@NotNull Project project, @NotNull TourStep step) {
+        PsiElement symbol = findSymbol(project, step);
+        if (symbol != null) {
+            PsiFile file = symbol.getContainingFile();
+            VirtualFile vf = file != null ? file.getVirtualFile() : null;
+            Document doc = file != null ? PsiDocumentManager.getInstance(project).getDocument(file) : null;
+            if (vf != null && doc != null) {
+                Lines lines = linesOf(symbol, doc);
+                return new TourStep(vf.getPath(), lines.start(), textOf(doc, lines), step.authorNote(), step.aiExplanation(),
+                        lines.end(), step.symbolName(), step.type());
+            }
+        }
+        // Manual steps (or symbols we cannot resolve): read the recorded lines of the recorded file
+        if (step.filePath() == null) return null;
+        VirtualFile vf = LocalFileSystem.getInstance().findFileByPath(step.filePath());
+        Document doc = vf != null ? FileDocumentManager.getInstance().getDocument(vf) : null;
+        if (doc == null || doc.getLineCount() == 0) return null;
+        int start = Math.max(1, Math.min(doc.getLineCount(), step.lineNum()));
+        int end = Math.max(start, Math.min(doc.getLineCount(), step.endLine() != null ? step.endLine() : step.lineNum()));
+        Lines lines = new Lines(start, end);
+        return new TourStep(step.filePath(), start, textOf(doc, lines), step.authorNote(), step.aiExplanation(),
+                step.endLine() != null ? end : null, step.symbolName(), step.type());
+    }
+
+    /** Resolves "pkg.Outer.Inner" or "pkg.Cls#method"; overloads are told apart by the recorded file and line. */
+    private static @Nullable PsiElement findSymbol(Project project, TourStep step) {
+        String name = step.symbolName();
+        if (name == null || name.isBlank()) return null;
+        int hash = name.indexOf('#');
+        String className = hash >= 0 ? name.substring(0, hash) : name;
+        PsiClass cls = JavaPsiFacade.getInstance(project).findClass(className, GlobalSearchScope.projectScope(project));
+        if (cls == null || hash < 0) return cls;
+
+        PsiMethod best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (PsiMethod m : cls.findMethodsByName(name.substring(hash + 1), false)) {
+            PsiFile file = m.getContainingFile();
+            Document doc = file != null ? PsiDocumentManager.getInstance(project).getDocument(file) : null;
+            if (doc == null) continue;
+            long distance = Math.abs(doc.getLineNumber(m.getTextOffset()) + 1 - step.lineNum());
+            VirtualFile vf = file.getVirtualFile();
+            if (vf == null || !Objects.equals(vf.getPath(), step.filePath())) distance += Integer.MAX_VALUE;
+            if (distance < bestDistance) {
+                best = m;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
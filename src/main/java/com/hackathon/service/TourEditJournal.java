@@ -0,0 +1,268 @@
+package com.hackathon.service;
+
+import com.google.gson.Gson;
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-ahead journal of the tour being edited, in .codewalker/tour-edits.jsonl, so an unfinished selection
+ * survives an IDE restart. The first line is a snapshot of the whole tour; every edit after it (step added, removed
+ * or replaced, title changed) is appended as one small JSON line, so an edit costs the same for a tour of ten steps
+ * and of ten thousand. Every {@value #COMPACT_AFTER} edits the file is replaced by a fresh snapshot (temp file
+ * and atomic rename). A torn last line is ignored on load. Clearing or loading a tour drops the journal; saving
+ * one drops it once the file is written.
+ *
+ * Records are serialized on the caller's thread and written by a single background writer in order.
+ */
+public final class TourEditJournal {
+    static final int COMPACT_AFTER = 500;
+    private static final long FLUSH_ON_CLOSE_SECONDS = 5;
+
+    private record StepData(String filePath, int lineNum, String codeSnippet, String authorNote, String aiExplanation,
+                            Integer endLine, String symbolName, String type) {
+        static StepData of(TourStep s) {
+            return new StepData(s.filePath(), s.lineNum(), s.codeSnippet(), s.authorNote(), s.aiExplanation(),
+                    s.endLine(), s.symbolName(), s.type());
+        }
+
+        TourStep toStep() {
+            return new TourStep(filePath, lineNum, codeSnippet, authorNote, aiExplanation, endLine, symbolName, type);
+        }
+    }
+
+    /** One line: op is "snapshot" (title, steps), "add" (step), "remove" (index), "replace" (index, step) or "title" (title). */
+    private record Edit(String op, String title, List<StepData> steps, StepData step, Integer index) {}
+
+    private final Path file;
+    private final Gson gson = new Gson();
+    private final ExecutorService writer = AppExecutorUtil.createBoundedApplicationPoolExecutor("Auto Code Walker Tour Journal", 1);
+    // Edits appended since the last snapshot; -1 while the file holds no base for the current tour. Guarded by this
+    private int sinceSnapshot = -1;
+    // Bumped by every record and reset, so a save that finishes late only drops the journal it was started for
+    private long generation;
+    private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+    // Only touched by the writer thread
+    private Writer out;
+
+    TourEditJournal(Path file) {
+        this.file = file;
+    }
+
+    public static @NotNull TourEditJournal forProject(@NotNull Project project) {
+        String base = project.getBasePath();
+        Path dir = base != null ? Path.of(base, ".codewalker") : Path.of(".codewalker");
+        return new TourEditJournal(dir.resolve("tour-edits.jsonl"));
+    }
+
+    /**
+     * Replays the journal left by an earlier session: the last snapshot plus the edits after it. Null if there is
+     * none or it holds no steps. Later edits are appended to the same file. Blocking I/O.
+     */
+    public synchronized @Nullable Tour load() {
+        if (!Files.isRegularFile(file)) return null;
+        String title = null;
+        List<TourStep> steps = new ArrayList<>();
+        int edits = 0;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Edit e;
+                try {
+                    e = gson.fromJson(line, Edit.class);
+                } catch (Throwable ignore) {
+                    continue; // Torn or corrupt line (e.g. crash mid-append): that edit is lost, the rest still applies
+                }
+                if (e == null || e.op() == null) continue;
+                switch (e.op()) {
+                    case "snapshot" -> {
+                        title = e.title();
+                        steps = new ArrayList<>();
+                        if (e.steps() != null) for (StepData s : e.steps()) steps.add(s.toStep());
+                        edits = 0;
+                    }
+                    case "add" -> {
+                        if (e.step() != null) steps.add(e.step().toStep());
+                        edits++;
+                    }
+                    case "remove" -> {
+                        if (e.index() != null && e.index() >= 0 && e.index() < steps.size()) steps.remove((int) e.index());
+                        edits++;
+                    }
+                    case "replace" -> {
+                        if (e.step() != null && e.index() != null && e.index() >= 0 && e.index() < steps.size()) {
+                            steps.set(e.index(), e.step().toStep());
+                        }
+                        edits++;
+                    }
+                    case "title" -> {
+                        if (e.title() != null) title = e.title();
+                        edits++;
+                    }
+                    default -> {}
+                }
+            }
+        } catch (IOException e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(TourEditJournal.class)
+                    .warn("Cannot read tour journal " + file + ": " + e.getMessage());
+            return null;
+        }
+        sinceSnapshot = edits;
+        return steps.isEmpty() ? null : new Tour(title, steps);
+    }
+
+    /** Records a step appended to the tour; {@code steps} is the tour after the edit. */
+    public void added(@NotNull TourStep step, String title, @NotNull List<TourStep> steps) {
+        record(new Edit("add", null, null, StepData.of(step), null), title, steps);
+    }
+
+    /** Records the removal of the step at {@code index}; {@code steps} is the tour after the edit. */
+    public void removed(int index, String title, @NotNull List<TourStep> steps) {
+        record(new Edit("remove", null, null, null, index), title, steps);
+    }
+
+    /** Records that the step at {@code index} was replaced by {@code step} (e.g. its explanation arrived). */
+    public void replaced(int index, @NotNull TourStep step, String title, @NotNull List<TourStep> steps) {
+        record(new Edit("replace", null, null, StepData.of(step), index), title, steps);
+    }
+
+    public void titleChanged(String title, @NotNull List<TourStep> steps) {
+        record(new Edit("title", title, null, null, null), title, steps);
+    }
+
+    /** The tour was cleared, saved or replaced by one from a file: nothing left to recover. */
+    public synchronized void reset() {
+        generation++;
+        sinceSnapshot = -1;
+        submit(() -> {
+            closeWriter();
+            Files.deleteIfExists(file);
+        });
+    }
+
+    /**
+     * The tour is on its way to a file and leaves the editor: the file stays, for recovery should the save fail,
+     * but the next edit starts a new tour with a fresh snapshot. Pass the result to {@link #resetIfUnchanged}.
+     */
+    public synchronized long detach() {
+        sinceSnapshot = -1;
+        return generation;
+    }
+
+    /** Drops the journal of a tour detached as {@code detached}, unless something was recorded since. */
+    public synchronized void resetIfUnchanged(long detached) {
+        if (generation == detached) reset();
+    }
+
+    /** Waits (briefly) for queued records to reach the file. */
+    public void close() {
+        CompletableFuture<Void> tail;
+        synchronized (this) {
+            tail = last;
+        }
+        try {
+            tail.get(FLUSH_ON_CLOSE_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignore) {}
+        submit(this::closeWriter);
+    }
+
+    private synchronized void record(Edit edit, String title, List<TourStep> steps) {
+        generation++;
+        if (sinceSnapshot >= 0 && sinceSnapshot < COMPACT_AFTER) {
+            sinceSnapshot++;
+            String line = gson.toJson(edit);
+            submit(() -> append(line));
+            return;
+        }
+        // First edit of a tour (the file has no base for it yet) or time to compact: write the whole tour instead
+        sinceSnapshot = 0;
+        List<TourStep> copy = new ArrayList<>(steps);
+        submit(() -> snapshot(title, copy));
+    }
+
+    private void append(String line) throws IOException {
+        if (out == null) {
+            Files.createDirectories(file.getParent());
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        // Start on a fresh line in case the previous session died mid-line
+        out.write('\n');
+        out.write(line);
+        out.flush();
+    }
+
+    private void snapshot(String title, List<TourStep> steps) throws IOException {
+        List<StepData> data = new ArrayList<>(steps.size());
+        for (TourStep s : steps) data.add(StepData.of(s));
+        String line = gson.toJson(new Edit("snapshot", title, data, null, null));
+        closeWriter();
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 Writer w = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+                w.write(line);
+                w.flush();
+                fos.getChannel().force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void closeWriter() {
+        if (out != null) {
+            try { out.close(); } catch (IOException ignore) {}
+            out = null;
+        }
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private synchronized void submit(IoTask task) {
+        last = last.thenRunAsync(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                closeWriter();
+                // The file may now lack edits: make the next edit write a full snapshot
+                synchronized (this) {
+                    sinceSnapshot = -1;
+                }
+                com.intellij.openapi.diagnostic.Logger.getInstance(TourEditJournal.class)
+                        .warn("Cannot write tour journal " + file + ": " + e.getMessage());
+            }
+        }, writer);
+    }
+}
@@ -0,0 +1,107 @@
+package com.hackathon.service;
+
+import com.hackathon.model.Tour;
+import com.hackathon.util.TourCodec;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes tour files off the EDT, one at a time, through {@link TourCodec#save} (temp file, fsync, atomic rename).
+ * Saves of a file that are still queued collapse into the latest one, so a burst of saves costs a single write,
+ * and the VFS is refreshed asynchronously afterwards. Pending saves are waited for (briefly) when the project closes.
+ */
+@Service(Service.Level.PROJECT)
+public final class TourPersistenceService implements Disposable {
+    private static final long FLUSH_ON_CLOSE_SECONDS = 10;
+
+    private final Project project;
+    private final ExecutorService writer = AppExecutorUtil.createBoundedApplicationPoolExecutor("Auto Code Walker Tour Writer", 1);
+    // Saves not started yet, by file; guarded by this
+    private final Map<File, Pending> pending = new HashMap<>();
+    private CompletableFuture<File> last = CompletableFuture.completedFuture(null);
+
+    private static final class Pending {
+        Tour tour;
+        final CompletableFuture<File> done = new CompletableFuture<>();
+
+        Pending(Tour tour) {
+            this.tour = tour;
+        }
+    }
+
+    public TourPersistenceService(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Queues {@code tour} to be written to {@code file}. If a save of the same file is still queued, it is replaced
+     * and both callers get the same future. Completes with the file once it is on disk.
+     */
+    public @NotNull CompletableFuture<File> save(@NotNull File file, @NotNull Tour tour) {
+        File key = file.getAbsoluteFile();
+        Pending p;
+        synchronized (this) {
+            p = pending.get(key);
+            if (p != null) {
+                p.tour = tour;
+                return p.done;
+            }
+            p = new Pending(tour);
+            pending.put(key, p);
+            last = p.done;
+        }
+        try {
+            writer.execute(() -> write(key));
+        } catch (Throwable t) {
+            synchronized (this) {
+                pending.remove(key, p);
+            }
+            p.done.completeExceptionally(t);
+        }
+        return p.done;
+    }
+
+    private void write(File file) {
+        Pending p;
+        synchronized (this) {
+            p = pending.remove(file);
+        }
+        if (p == null) return;
+        try {
+            TourCodec.save(project, file, p.tour);
+        } catch (Throwable t) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(TourPersistenceService.class)
+                    .warn("Failed to save tour to " + file + ": " + t.getMessage());
+            p.done.completeExceptionally(t);
+            return;
+        }
+        LocalFileSystem.getInstance().refreshIoFiles(List.of(file), true, false, null);
+        p.done.complete(file);
+    }
+
+    @Override
+    public void dispose() {
+        CompletableFuture<File> tail;
+        synchronized (this) {
+            tail = last;
+        }
+        // Saves run in order, so the last one queued finishes last
+        try {
+            tail.get(FLUSH_ON_CLOSE_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignore) {}
+    }
+}
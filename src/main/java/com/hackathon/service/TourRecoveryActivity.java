@@ -0,0 +1,38 @@
+package com.hackathon.service;
+
+import com.hackathon.model.Tour;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.ProjectActivity;
+import kotlin.Unit;
+import kotlin.coroutines.Continuation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * On project open, brings back the tour that was being selected when the IDE last closed (see
+ * {@link TourEditJournal}) and re-enters selection mode so it can be finished or cleared. Runs on a background
+ * thread after startup; nothing here suspends.
+ */
+public final class TourRecoveryActivity implements ProjectActivity {
+    @Override
+    public @Nullable Object execute(@NotNull Project project, @NotNull Continuation<? super Unit> continuation) {
+        TourStateService state = project.getService(TourStateService.class);
+        Tour tour = state.readJournal();
+        if (tour == null) return Unit.INSTANCE;
+        ApplicationManager.getApplication().invokeLater(() -> {
+            // Something else (a loaded tour, a click in selection mode) got there first: leave it alone
+            if (project.isDisposed() || !state.getSteps().isEmpty()) return;
+            state.restore(tour);
+            project.getService(SelectionModeService.class).setEnabled(true);
+            com.intellij.notification.Notification notification = new com.intellij.notification.Notification(
+                    "Auto Code Walker",
+                    "Unfinished tour restored",
+                    tour.steps().size() + " selected step(s) were restored. Use Finish Tour to generate the tour or Clear Selection to discard it.",
+                    com.intellij.notification.NotificationType.INFORMATION
+            );
+            com.intellij.notification.Notifications.Bus.notify(notification, project);
+        });
+        return Unit.INSTANCE;
+    }
+}
@@ -2,6 +2,9 @@ package com.hackathon.service;
 
 import com.hackathon.model.Tour;
 import com.hackathon.model.TourStep;
+import com.hackathon.util.BinaryTourFormat;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.project.Project;
 import org.jetbrains.annotations.Nullable;
@@ -9,30 +12,81 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 @Service(Service.Level.PROJECT)
-public final class TourStateService {
+public final class TourStateService implements Disposable {
     private final Project project;
-    private final List<TourStep> steps = new ArrayList<>();
+    // Edits are journaled so an unfinished tour survives a restart
+    private final TourEditJournal journal;
+    // The steps hold edits not saved to a tour file yet; renames and new explanations of a loaded or saved tour are
+    // not worth recovering
+    private boolean unsaved;
+    // An ArrayList, or the mapped steps of a binary tour until the first step is added (decoded on access)
+    private List<TourStep> steps = new ArrayList<>();
     private int currentStepIndex = -1;
     private String title = "Untitled Tour";
 
     public TourStateService(Project project) {
         this.project = project;
+        this.journal = TourEditJournal.forProject(project);
     }
 
     public void clear() {
-        steps.clear();
+        steps = new ArrayList<>();
         currentStepIndex = -1;
+        unsaved = false;
+        journal.reset();
     }
 
+    /** Takes over the tour's steps; those of a mapped binary tour are used as is, without decoding them. */
     public void setTour(Tour tour) {
         clear();
         if (tour != null && tour.steps() != null) {
-            steps.addAll(tour.steps());
+            steps = BinaryTourFormat.isMapped(tour.steps()) ? tour.steps() : new ArrayList<>(tour.steps());
             title = tour.title();
             if (!steps.isEmpty()) currentStepIndex = 0;
         }
+        currentChanged();
+    }
+
+    /**
+     * Reads the unfinished tour an earlier session left in the edit journal, or null if there is none.
+     * Blocking I/O; pass the result to {@link #restore} on the EDT.
+     */
+    public @Nullable Tour readJournal() {
+        return journal.load();
+    }
+
+    /** Takes over a tour read from the edit journal; unlike {@link #setTour}, later edits extend that journal. */
+    public void restore(Tour tour) {
+        steps = new ArrayList<>(tour.steps());
+        if (tour.title() != null && !tour.title().isBlank()) title = tour.title();
+        currentStepIndex = steps.isEmpty() ? -1 : 0;
+        unsaved = true;
+    }
+
+    /**
+     * Empties the state like {@link #clear} for a tour that is being written to a file, but keeps its edit journal
+     * until the write succeeds: pass the result to {@link #markWritten} then.
+     */
+    public long detach() {
+        steps = new ArrayList<>();
+        currentStepIndex = -1;
+        unsaved = false;
+        return journal.detach();
+    }
+
+    /** The tour detached as {@code detached} is on disk: drops its journal unless a new tour was started since. */
+    public void markWritten(long detached) {
+        journal.resetIfUnchanged(detached);
+    }
+
+    /** {@code tour} was written to a file; drops the edit journal unless the tour was edited again meanwhile. */
+    public void markSaved(Tour tour) {
+        if (!unsaved || !Objects.equals(tour.title(), title) || !steps.equals(tour.steps())) return;
+        unsaved = false;
+        journal.reset();
     }
 
     public String getTitle() {
@@ -40,7 +94,9 @@ public final class TourStateService {
     }
 
     public void setTitle(String title) {
-        if (title != null && !title.isBlank()) this.title = title;
+        if (title == null || title.isBlank() || title.equals(this.title)) return;
+        this.title = title;
+        if (unsaved) journal.titleChanged(title, steps);
     }
 
     public List<TourStep> getSteps() {
@@ -48,8 +104,35 @@ public final class TourStateService {
     }
 
     public void addStep(TourStep step) {
+        if (!(steps instanceof ArrayList)) steps = new ArrayList<>(steps);
         steps.add(step);
         if (currentStepIndex < 0) currentStepIndex = 0;
+        unsaved = true;
+        journal.added(step, title, steps);
+    }
+
+    /** Removes a step; returns false if it is not part of the tour. */
+    public boolean removeStep(TourStep step) {
+        int idx = steps.indexOf(step);
+        if (idx < 0) return false;
+        if (!(steps instanceof ArrayList)) steps = new ArrayList<>(steps);
+        steps.remove(idx);
+        if (currentStepIndex > idx || currentStepIndex >= steps.size()) currentStepIndex--;
+        unsaved = true;
+        journal.removed(idx, title, steps);
+        return true;
+    }
+
+    /**
+     * Replace a step in place (e.g. once its AI explanation arrives).
+     * Returns false if the step is no longer part of the tour.
+     */
+    public boolean replaceStep(TourStep oldStep, TourStep newStep) {
+        int idx = steps.indexOf(oldStep);
+        if (idx < 0) return false;
+        steps.set(idx, newStep);
+        if (unsaved) journal.replaced(idx, newStep, title, steps);
+        return true;
     }
 
     public int getCurrentStepIndex() {
@@ -57,7 +140,10 @@ public final class TourStateService {
     }
 
     public void setCurrentStepIndex(int idx) {
-        if (idx >= 0 && idx < steps.size()) currentStepIndex = idx;
+        if (idx >= 0 && idx < steps.size()) {
+            currentStepIndex = idx;
+            currentChanged();
+        }
     }
 
     @Nullable
@@ -72,6 +158,7 @@ public final class TourStateService {
     public TourStep nextStep() {
         if (currentStepIndex + 1 < steps.size()) {
             currentStepIndex++;
+            currentChanged();
             return steps.get(currentStepIndex);
         }
         return null;
@@ -81,6 +168,7 @@ public final class TourStateService {
     public TourStep prevStep() {
         if (currentStepIndex - 1 >= 0) {
             currentStepIndex--;
+            currentChanged();
             return steps.get(currentStepIndex);
         }
         return null;
@@ -92,5 +180,19 @@ public final class TourStateService {
         } else {
             currentStepIndex = -1;
         }
+        currentChanged();
+    }
+
+    @Override
+    public void dispose() {
+        journal.close();
+    }
+
+    /** Lazy mode: explain the step the user is now on and prefetch the ones after it. */
+    private void currentChanged() {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (project.isDisposed()) return;
+            project.getService(StepExplanationService.class).prefetchAround(currentStepIndex);
+        });
     }
 }
@@ -2,6 +2,7 @@ package com.hackathon.ui;
 
 import com.hackathon.model.TourStep;
 import com.hackathon.service.EditorNavigationService;
+import com.hackathon.service.StepExplanationService;
 import com.hackathon.service.TourStateService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.editor.Editor;
@@ -128,8 +129,31 @@ public final class TourOverlayManager {
             this.total = total;
             String label = "Step " + index + " of " + total + (step.symbolName() != null ? ": " + step.symbolName() : "");
             stepLabel.setText(label);
+            boolean missing = step.aiExplanation() == null || step.aiExplanation().isBlank();
+            renderHtml(step.aiExplanation(), missing);
+            // Show Finish on last step
+            boolean isLast = index >= total;
+            nextButton.setVisible(!isLast);
+            finishButton.setVisible(isLast);
+            if (missing) {
+                // Stream the explanation into the overlay while this step is still displayed
+                project.getService(StepExplanationService.class)
+                        .streamExplanation(step, partial -> {
+                            if (this.step == step) renderHtml(partial, true);
+                        })
+                        .thenAccept(updated -> {
+                            if (this.step == step) {
+                                this.step = updated;
+                                renderHtml(updated.aiExplanation(), false);
+                            }
+                        });
+            }
+        }
+
+        /** Render author note + AI summary; {@code aiHtml} may be partial while {@code pending} is set. */
+        private void renderHtml(String aiHtml, boolean pending) {
             // Only show AI summary (sanitized) and/or author note. Never show code snippets.
-            String ai = com.hackathon.util.HtmlSanitizer.stripCodeBlocks(step.aiExplanation());
+            String ai = com.hackathon.util.HtmlSanitizer.stripCodeBlocks(aiHtml);
             // Normalize any existing breaks before Example usage, then ensure double break is present
             if (ai != null) {
                 // Normalize and ensure breaks before "Example usage:"
@@ -152,13 +176,12 @@ public final class TourOverlayManager {
             if (ai != null && !ai.isBlank()) {
                 sb.append(ai);
             }
+            if (pending) {
+                sb.append("<p><i>Generating explanation&hellip;</i></p>");
+            }
             sb.append("</body></html>");
             html.setText(sb.toString());
             html.setCaretPosition(0);
-            // Show Finish on last step
-            boolean isLast = index >= total;
-            nextButton.setVisible(!isLast);
-            finishButton.setVisible(isLast);
         }
 
         // Listeners to keep overlay in sync with editor viewport/size
@@ -2,6 +2,7 @@ package com.hackathon.ui;
 
 import com.hackathon.model.TourStep;
 import com.hackathon.service.EditorNavigationService;
+import com.hackathon.service.StepExplanationService;
 import com.hackathon.service.TourStateService;
 import com.intellij.icons.AllIcons;
 import com.hackathon.util.HtmlSanitizer;
@@ -251,6 +252,26 @@ public class TourToolWindow {
     }
 
     private void updateHtml(TourStep step) {
+        boolean missing = step.aiExplanation() == null || step.aiExplanation().isBlank();
+        render(step, step.aiExplanation(), missing);
+        if (missing) {
+            // No pre-generated text: stream it and render progressively while this step is on screen
+            TourStateService state = project.getService(TourStateService.class);
+            project.getService(StepExplanationService.class)
+                    .streamExplanation(step, partial -> {
+                        if (state.getCurrentStep() == step) render(step, partial, true);
+                    })
+                    .thenAccept(updated -> {
+                        TourStep current = state.getCurrentStep();
+                        if (current != null && (current == updated || current == step)) {
+                            render(current, current.aiExplanation(), false);
+                        }
+                    });
+        }
+    }
+
+    /** Render a step; {@code aiHtml} may be a partial explanation while {@code pending} is set. */
+    private void render(TourStep step, String aiHtml, boolean pending) {
         TourStateService state = project.getService(TourStateService.class);
         titleLabel.setText(state.getTitle().isEmpty() ? "Auto Code Walker" : state.getTitle());
 
@@ -262,7 +283,7 @@ public class TourToolWindow {
                     .append("<tr><td style='background-color: #1f1f1f; color: #ffffff; border-left: 3px solid #3b82f6;'>")
                     .append("<b>").append(escape(step.authorNote())).append("</b></td></tr></table>");
         }
-        String ai = HtmlSanitizer.stripCodeBlocks(step.aiExplanation());
+        String ai = HtmlSanitizer.stripCodeBlocks(aiHtml);
         // Ensure a visual break before any "Example usage" or "Example call" section
         if (ai != null) {
             ai = ai.replaceAll("(?i)Example\\s+usage\\s*:", "<br/><br/>Example usage:");
@@ -271,7 +292,6 @@ public class TourToolWindow {
         if (ai != null && !ai.isBlank()) {
             contentBuilder.append(ai);
         }
-        String content = contentBuilder.toString();
 
         // Get theme-aware colors
         Color fgColor = UIUtil.getLabelForeground();
@@ -285,6 +305,11 @@ public class TourToolWindow {
         String linkHex = colorToHex(linkColor);
         String secondaryHex = colorToHex(secondaryColor);
 
+        if (pending) {
+            contentBuilder.append("<p style='color: ").append(secondaryHex).append(";'><i>Generating explanation&hellip;</i></p>");
+        }
+        String content = contentBuilder.toString();
+
         boolean isDark = !JBColor.isBright();
         String codeBlockBg = isDark ? "#2d2d2d" : "#f6f8fa";
 
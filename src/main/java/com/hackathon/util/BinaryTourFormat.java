@@ -0,0 +1,318 @@
+package com.hackathon.util;
+
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Binary companion of a tour.json, kept in .codewalker/ and rebuilt whenever the JSON changes. JSON stays the
+ * format for import, export and sharing; the binary file only makes opening a large tour cheap: it is memory-mapped
+ * and steps are decoded when first accessed, so opening costs a hash of the JSON and a bounds check of the records
+ * instead of a full parse. Off by default (ACW_TOUR_BINARY).
+ *
+ * Layout (big-endian):
+ * - header (80 bytes): magic "CWT1", version, source JSON length and SHA-256 (a mismatch means the file is stale),
+ *   step count, string count, title string id, reserved, offset of the string index, offset of the step records
+ * - string index: one long per string, the offset of its entry in the string data
+ * - step records, {@value #RECORD_BYTES} bytes each: filePath, lineNum, endLine, code, note, explanation,
+ *   symbolName, type, flags; text fields are string ids (-1 for null), a null endLine is {@link Integer#MIN_VALUE},
+ *   and flags mark code / explanation ids that name an object-store blob rather than the text itself
+ * - string data: int byte length, then UTF-8 bytes
+ * Every distinct string is stored once, so paths, types and symbol names repeated on every step cost four bytes.
+ */
+public final class BinaryTourFormat {
+    private static final int MAGIC = 0x43575431; // "CWT1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 80;
+    private static final int HASH_BYTES = 32;
+    private static final int RECORD_BYTES = 36;
+    // Offsets of the string ids in a step record
+    private static final int[] STRING_FIELDS = {0, 12, 16, 20, 24, 28};
+    private static final int CODE_IS_REF = 1;
+    private static final int EXPLANATION_IS_REF = 2;
+
+    private BinaryTourFormat() {}
+
+    /**
+     * Whether tours inside the project get a binary companion in .codewalker/ (ACW_TOUR_BINARY=true). Off by
+     * default: it is an extra file next to every tour, worth it only for very large tours.
+     */
+    public static boolean isEnabled() {
+        return Settings.getBoolean("ACW_TOUR_BINARY", false);
+    }
+
+    /** .codewalker/tour.cwt for .codewalker/tour.json, .codewalker/tour.root.cwt for a tour.json in the project root. */
+    public static @NotNull File binaryFileFor(@NotNull File json) {
+        File dir = BlobStore.objectsDirFor(json).getParent().toFile();
+        String base = json.getName().endsWith(".json") ? json.getName().substring(0, json.getName().length() - 5) : json.getName();
+        boolean inCodewalker = ".codewalker".equals(json.getAbsoluteFile().getParentFile().getName());
+        return new File(dir, base + (inCodewalker ? ".cwt" : ".root.cwt"));
+    }
+
+    /**
+     * Opens the binary companion of {@code json}, or returns null if there is none, it is stale or it is unreadable
+     * (the caller then parses the JSON). The steps of the returned tour are decoded on access. Blocking I/O: reads
+     * the whole JSON once to hash it.
+     */
+    public static @Nullable Tour open(@NotNull File json) {
+        File bin = binaryFileFor(json);
+        if (!bin.isFile()) return null;
+        try (FileChannel ch = FileChannel.open(bin.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) return null;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) return null;
+            if (buf.getLong(8) != json.length()) return null;
+            byte[] hash = new byte[HASH_BYTES];
+            buf.get(16, hash);
+            if (!Arrays.equals(hash, contentHash(json))) return null;
+            MappedSteps steps = new MappedSteps(buf, BlobStore.objectsDirFor(json),
+                    buf.getInt(48), buf.getInt(52), buf.getLong(64), buf.getLong(72));
+            int titleId = buf.getInt(56);
+            steps.checkId(titleId);
+            return new Tour(steps.string(titleId), steps);
+        } catch (Exception e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(BinaryTourFormat.class)
+                    .warn("Ignoring unreadable binary tour " + bin + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Writes the binary companion of {@code json} (which must already be written), replacing an older one. */
+    public static void write(@NotNull File json, @NotNull Tour tour) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        List<TourStep> steps = tour.steps() == null ? List.of() : tour.steps();
+        int[] records = new int[steps.size() * (RECORD_BYTES / 4)];
+        int titleId = id(ids, strings, tour.title());
+        Path objectsDir = BlobStore.objectsDirFor(json);
+        int r = 0;
+        for (TourStep s : steps) {
+            int flags = 0;
+            records[r++] = id(ids, strings, s.filePath());
+            records[r++] = s.lineNum();
+            records[r++] = s.endLine() == null ? Integer.MIN_VALUE : s.endLine();
+            // References into this tour's object store stay references; the text stays in the store
+            if (s.codeRef() != null && s.codeRef().objectsDir().equals(objectsDir)) {
+                records[r++] = id(ids, strings, s.codeRef().hash());
+                flags |= CODE_IS_REF;
+            } else {
+                records[r++] = id(ids, strings, s.codeSnippet());
+            }
+            records[r++] = id(ids, strings, s.authorNote());
+            if (s.explanationRef() != null && s.explanationRef().objectsDir().equals(objectsDir)) {
+                records[r++] = id(ids, strings, s.explanationRef().hash());
+                flags |= EXPLANATION_IS_REF;
+            } else {
+                records[r++] = id(ids, strings, s.aiExplanation());
+            }
+            records[r++] = id(ids, strings, s.symbolName());
+            records[r++] = id(ids, strings, s.type());
+            records[r++] = flags;
+        }
+
+        long indexOffset = HEADER_BYTES;
+        long stepsOffset = indexOffset + 8L * strings.size();
+        long dataOffset = stepsOffset + (long) RECORD_BYTES * steps.size();
+        byte[] hash = contentHash(json);
+        File bin = binaryFileFor(json);
+        Path dir = bin.getParentFile().toPath();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, bin.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(json.length());
+                out.write(hash);
+                out.writeInt(steps.size());
+                out.writeInt(strings.size());
+                out.writeInt(titleId);
+                out.writeInt(0);
+                out.writeLong(indexOffset);
+                out.writeLong(stepsOffset);
+                long offset = dataOffset;
+                for (byte[] b : strings) {
+                    out.writeLong(offset);
+                    offset += 4 + b.length;
+                }
+                for (int v : records) out.writeInt(v);
+                for (byte[] b : strings) {
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+            }
+            try {
+                Files.move(tmp, bin.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, bin.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** True for the steps of a tour from {@link #open}: fixed size, {@link List#set} only changes memory. */
+    public static boolean isMapped(@Nullable List<TourStep> steps) {
+        return steps instanceof MappedSteps;
+    }
+
+    /** SHA-256 of the file's bytes: mtime changes on every checkout and is not worth trusting. */
+    private static byte[] contentHash(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JRE
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] chunk = new byte[64 * 1024];
+            for (int n; (n = in.read(chunk)) > 0; ) md.update(chunk, 0, n);
+        }
+        return md.digest();
+    }
+
+    private static int id(Map<String, Integer> ids, List<byte[]> strings, @Nullable String s) {
+        if (s == null) return -1;
+        return ids.computeIfAbsent(s, k -> {
+            strings.add(k.getBytes(StandardCharsets.UTF_8));
+            return strings.size() - 1;
+        });
+    }
+
+    /**
+     * Steps backed by the mapped file. A step is decoded on first access and kept; {@link #set} replaces a step
+     * in memory only (the file is rewritten when the tour is saved). Not resizable. Every string and every string
+     * id of the records is bounds-checked up front, so a corrupt file is rejected by {@link #open} rather than
+     * failing on some later access.
+     */
+    static final class MappedSteps extends AbstractList<TourStep> implements RandomAccess {
+        private final ByteBuffer buf;
+        private final BlobStore objects;
+        private final int size;
+        private final int stringCount;
+        private final long indexOffset;
+        private final long stepsOffset;
+        private final AtomicReferenceArray<TourStep> decoded;
+
+        MappedSteps(ByteBuffer buf, Path objectsDir, int size, int stringCount, long indexOffset, long stepsOffset) throws IOException {
+            if (size < 0 || stringCount < 0 || indexOffset < HEADER_BYTES || stepsOffset < HEADER_BYTES
+                    || indexOffset + 8L * stringCount > buf.limit()
+                    || stepsOffset + (long) RECORD_BYTES * size > buf.limit()) {
+                throw new IOException("corrupt header");
+            }
+            this.buf = buf;
+            this.objects = new BlobStore(objectsDir);
+            this.size = size;
+            this.stringCount = stringCount;
+            this.indexOffset = indexOffset;
+            this.stepsOffset = stepsOffset;
+            this.decoded = new AtomicReferenceArray<>(size);
+            for (int id = 0; id < stringCount; id++) {
+                if (stringAt(id) < 0) throw new IOException("corrupt string " + id);
+            }
+            for (int i = 0; i < size; i++) {
+                int at = Math.toIntExact(stepsOffset + (long) RECORD_BYTES * i);
+                for (int field : STRING_FIELDS) checkId(buf.getInt(at + field));
+            }
+        }
+
+        /** A string id is -1 (null) or names an entry of the string index. */
+        void checkId(int id) throws IOException {
+            if (id < -1 || id >= stringCount) throw new IOException("corrupt string id " + id);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public TourStep get(int index) {
+            TourStep s = decoded.get(index);
+            if (s == null) {
+                s = decode(index);
+                if (!decoded.compareAndSet(index, null, s)) s = decoded.get(index);
+            }
+            return s;
+        }
+
+        @Override
+        public TourStep set(int index, TourStep step) {
+            TourStep old = get(index);
+            decoded.set(index, step);
+            return old;
+        }
+
+        /** Looks among the decoded steps first: callers usually search for a step they obtained from this list. */
+        @Override
+        public int indexOf(Object o) {
+            for (int i = 0; i < size; i++) {
+                TourStep s = decoded.get(i);
+                if (s != null && s.equals(o)) return i;
+            }
+            return super.indexOf(o);
+        }
+
+        private TourStep decode(int index) {
+            // Absolute reads only: the buffer's position is shared between threads
+            int at = Math.toIntExact(stepsOffset + (long) RECORD_BYTES * index);
+            int flags = buf.getInt(at + 32);
+            int endLine = buf.getInt(at + 8);
+            String code = string(buf.getInt(at + 12));
+            String explanation = string(buf.getInt(at + 20));
+            boolean codeIsRef = (flags & CODE_IS_REF) != 0;
+            boolean explanationIsRef = (flags & EXPLANATION_IS_REF) != 0;
+            return new TourStep(string(buf.getInt(at)), buf.getInt(at + 4),
+                    codeIsRef ? null : code,
+                    string(buf.getInt(at + 16)),
+                    explanationIsRef ? null : explanation,
+                    endLine == Integer.MIN_VALUE ? null : endLine,
+                    string(buf.getInt(at + 24)), string(buf.getInt(at + 28)),
+                    codeIsRef ? objects.ref(code) : null, explanationIsRef ? objects.ref(explanation) : null);
+        }
+
+        @Nullable String string(int id) {
+            if (id < 0 || id >= stringCount) return null;
+            int at = stringAt(id);
+            if (at < 0) throw new IllegalStateException("corrupt string " + id);
+            byte[] bytes = new byte[buf.getInt(at)];
+            buf.get(at + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Offset of the entry of string {@code id}, or -1 if it or its bytes lie outside the file. */
+        private int stringAt(int id) {
+            long at = buf.getLong(Math.toIntExact(indexOffset + 8L * id));
+            if (at < HEADER_BYTES || at + 4 > buf.limit()) return -1;
+            int len = buf.getInt((int) at);
+            return len < 0 || at + 4 + len > buf.limit() ? -1 : (int) at;
+        }
+    }
+}
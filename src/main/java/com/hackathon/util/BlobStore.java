@@ -0,0 +1,106 @@
+package com.hackathon.util;
+
+import com.hackathon.model.BlobRef;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content-addressed store for tour snippets and explanations under {@code .codewalker/objects/}. Objects are
+ * immutable and named by the SHA-256 of their text, so identical snippets (a class-level step repeating a file,
+ * the same method in two tours) are stored once, and an object is written at most once. Objects are never
+ * deleted here: several tours may share them.
+ */
+public final class BlobStore {
+    /** Text up to this length stays inline in the tour file; a reference would not be much shorter. */
+    public static final int INLINE_MAX_CHARS = 256;
+
+    private final Path dir;
+
+    public BlobStore(@NotNull Path objectsDir) {
+        this.dir = objectsDir;
+    }
+
+    /** Object directory shared by tour files in the project root and in .codewalker/. */
+    public static @NotNull Path objectsDirFor(@NotNull File tourFile) {
+        File parent = tourFile.getAbsoluteFile().getParentFile();
+        File codewalker = ".codewalker".equals(parent.getName()) ? parent : new File(parent, ".codewalker");
+        return codewalker.toPath().resolve("objects");
+    }
+
+    /**
+     * Whether tours are saved with snippets and explanations in the object store (ACW_TOUR_OBJECTS=true).
+     * Off by default: an inline tour.json is self-contained and can be shared as a single file.
+     */
+    public static boolean isEnabled() {
+        return Settings.getBoolean("ACW_TOUR_OBJECTS", false);
+    }
+
+    public @NotNull Path dir() {
+        return dir;
+    }
+
+    /**
+     * Stores {@code text} unless an object with the same content exists already. An existing object of the wrong
+     * size (torn by a crash before its data reached the disk) is replaced; comparing sizes keeps a save from
+     * reading back every object it references.
+     */
+    public @NotNull BlobRef put(@NotNull String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        BlobRef ref = new BlobRef(dir, HexFormat.of().formatHex(sha256().digest(bytes)));
+        Path target = ref.path();
+        if (isIntact(target, bytes.length)) return ref;
+        Files.createDirectories(target.getParent());
+        // Readers must never see a partial object: write aside, sync, then move into place
+        Path tmp = Files.createTempFile(target.getParent(), ref.hash().substring(2, 10), ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+            try {
+                // Another writer may have put the same object meanwhile: the content is the same either way
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileAlreadyExistsException e) {
+                if (!isIntact(target, bytes.length)) throw e;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return ref;
+    }
+
+    /** Reference to an object of this store by id, or null if {@code hash} is not a valid object id. */
+    public @Nullable BlobRef ref(@Nullable String hash) {
+        return BlobRef.isValidHash(hash) ? new BlobRef(dir, hash) : null;
+    }
+
+    private static boolean isIntact(Path object, long size) throws IOException {
+        return Files.isRegularFile(object) && Files.size(object) == size;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JRE
+        }
+    }
+}
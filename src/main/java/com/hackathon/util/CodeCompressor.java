@@ -0,0 +1,157 @@
+package com.hackathon.util;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiComment;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fits a step's code into a token budget before it is sent for explanation.
+ * With a project the snippet is parsed as Java: comments that only repeat the author note are dropped (the note is
+ * sent anyway), and for class-level steps the largest method bodies are elided, keeping signatures and fields, until
+ * the code fits. Whatever is still too long is cut at line boundaries, keeping the head and the tail.
+ */
+public final class CodeCompressor {
+    private static final String ELIDED_BODY = "{ /* ... */ }";
+    private static final int ELIDED_TOKENS = TokenEstimator.count(ELIDED_BODY);
+
+    private CodeCompressor() {}
+
+    private record Edit(int start, int end, String replacement) {}
+
+    /**
+     * {@code maxTokens <= 0} disables the budget (note-repeating comments are still dropped). With a project this
+     * parses PSI under a read action on the calling thread: not for the EDT or HTTP callback threads, which use
+     * {@link #compressAsync}.
+     */
+    public static @NotNull String compress(@Nullable Project project, @NotNull String code, @NotNull String note, int maxTokens) {
+        String text = code;
+        if (project != null && !project.isDisposed()) {
+            try {
+                String viaPsi = ReadAction.compute(() -> compressWithPsi(project, code, note, maxTokens));
+                if (viaPsi != null) text = viaPsi;
+            } catch (ProcessCanceledException pce) {
+                throw pce;
+            } catch (Throwable ignore) {}
+        }
+        return truncate(text, maxTokens);
+    }
+
+    /**
+     * As {@link #compress}, with the PSI pass in a non-blocking read action on a pooled thread (restarted if a
+     * write action interrupts it). Without a project, or if parsing fails, the code is only truncated.
+     */
+    public static @NotNull CompletableFuture<String> compressAsync(@Nullable Project project, @NotNull String code,
+                                                                   @NotNull String note, int maxTokens) {
+        if (project == null || project.isDisposed()) return CompletableFuture.completedFuture(truncate(code, maxTokens));
+        CompletableFuture<String> out = new CompletableFuture<>();
+        ReadAction.nonBlocking(() -> compressWithPsi(project, code, note, maxTokens))
+                .expireWith(project)
+                .submit(AppExecutorUtil.getAppExecutorService())
+                // Null on failure or once the project is closed
+                .onProcessed(viaPsi -> out.complete(truncate(viaPsi != null ? viaPsi : code, maxTokens)));
+        return out;
+    }
+
+    private static @Nullable String compressWithPsi(Project project, String code, String note, int maxTokens) {
+        // Wrapping in a class parses method- and class-level snippets alike
+        PsiClass holder = JavaPsiFacade.getElementFactory(project).createClassFromText(code, null);
+        int shift = holder.getText().indexOf(code);
+        if (shift < 0) return null;
+
+        List<Edit> edits = new ArrayList<>();
+        String normalizedNote = normalize(note);
+        if (!normalizedNote.isEmpty()) {
+            for (PsiComment c : PsiTreeUtil.findChildrenOfType(holder, PsiComment.class)) {
+                String text = normalize(c.getText());
+                // Short comments ("getters") are kept; they say too little to be a copy of the note
+                if (text.length() >= 12 && normalizedNote.contains(text)) {
+                    edits.add(new Edit(c.getTextRange().getStartOffset() - shift, c.getTextRange().getEndOffset() - shift, ""));
+                }
+            }
+        }
+
+        int tokens = TokenEstimator.count(apply(code, edits));
+        // Class-level step: the snippet is a class nested in the holder, not a method of the holder itself
+        if (maxTokens > 0 && tokens > maxTokens && holder.getInnerClasses().length > 0) {
+            List<PsiCodeBlock> bodies = new ArrayList<>();
+            for (PsiMethod m : PsiTreeUtil.findChildrenOfType(holder, PsiMethod.class)) {
+                if (m.getBody() != null && m.getContainingClass() != holder) bodies.add(m.getBody());
+            }
+            bodies.sort(Comparator.comparingInt(PsiCodeBlock::getTextLength).reversed());
+            for (PsiCodeBlock body : bodies) {
+                if (tokens <= maxTokens) break;
+                int saved = TokenEstimator.count(body.getText()) - ELIDED_TOKENS;
+                if (saved <= 0) continue;
+                edits.add(new Edit(body.getTextRange().getStartOffset() - shift, body.getTextRange().getEndOffset() - shift, ELIDED_BODY));
+                tokens -= saved;
+            }
+        }
+        return edits.isEmpty() ? code : apply(code, edits);
+    }
+
+    /** Applies non-overlapping edits; an edit inside an earlier, larger one (e.g. a comment in an elided body) is dropped. */
+    private static String apply(String code, List<Edit> edits) {
+        if (edits.isEmpty()) return code;
+        List<Edit> sorted = new ArrayList<>(edits);
+        sorted.sort(Comparator.comparingInt(Edit::start).thenComparing(Comparator.comparingInt(Edit::end).reversed()));
+        StringBuilder sb = new StringBuilder(code.length());
+        int pos = 0;
+        for (Edit e : sorted) {
+            if (e.start() < pos || e.start() < 0 || e.end() > code.length()) continue;
+            sb.append(code, pos, e.start()).append(e.replacement());
+            pos = e.end();
+        }
+        return sb.append(code, pos, code.length()).toString();
+    }
+
+    /**
+     * Head (70%) and tail (30%) of the budget, cut at line boundaries. The cut is proportional to length, and lines
+     * differ in token density, so it is repeated with less kept until the result, marker included, fits.
+     */
+    private static String truncate(String code, int maxTokens) {
+        if (maxTokens <= 0) return code;
+        int tokens = TokenEstimator.count(code);
+        if (tokens <= maxTokens) return code;
+        double keep = (double) maxTokens / tokens;
+        String cut = cut(code, keep);
+        for (int i = 0; i < 20 && TokenEstimator.count(cut) > maxTokens; i++) {
+            keep *= 0.9;
+            cut = cut(code, keep);
+        }
+        return cut;
+    }
+
+    private static String cut(String code, double keep) {
+        int headEnd = (int) (code.length() * keep * 0.7);
+        int tailStart = code.length() - (int) (code.length() * keep * 0.3);
+        int nl = code.lastIndexOf('\n', headEnd);
+        if (nl > 0) headEnd = nl;
+        nl = code.indexOf('\n', tailStart);
+        if (nl >= 0 && nl < code.length() - 1) tailStart = nl + 1;
+        if (tailStart <= headEnd) return code.substring(0, headEnd);
+        return code.substring(0, headEnd) + "\n// ...\n" + code.substring(tailStart);
+    }
+
+    /** Comment or note text reduced to lower-case words, so markers, stars and line breaks do not matter. */
+    private static String normalize(String s) {
+        return s.replaceAll("^\\s*(//+|/\\*+)|\\*+/\\s*$", "")
+                .replaceAll("(?m)^\\s*\\*+", "")
+                .replaceAll("[^\\p{L}\\p{N}]+", " ")
+                .trim()
+                .toLowerCase();
+    }
+}
@@ -0,0 +1,38 @@
+package com.hackathon.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Plugin tuning knobs (ACW_*, OPENAI_*): the environment variable wins, then the JVM system property of the same
+ * name. Blank counts as unset, values are trimmed, and a value that does not parse falls back to the default.
+ */
+public final class Settings {
+    private Settings() {}
+
+    /** The value of {@code name}, or null if it is unset or blank. */
+    public static @Nullable String get(@NotNull String name) {
+        String v = System.getenv(name);
+        if (v == null || v.isBlank()) v = System.getProperty(name);
+        return v == null || v.isBlank() ? null : v.trim();
+    }
+
+    /** Integer {@code name} clamped to [min, max]; {@code def} if unset or not a number. */
+    public static int getInt(@NotNull String name, int def, int min, int max) {
+        String v = get(name);
+        if (v == null) return def;
+        try {
+            return (int) Math.max(min, Math.min(max, Long.parseLong(v)));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Boolean {@code name} ("true" or "false", any case); {@code def} if unset or anything else. */
+    public static boolean getBoolean(@NotNull String name, boolean def) {
+        String v = get(name);
+        if ("true".equalsIgnoreCase(v)) return true;
+        if ("false".equalsIgnoreCase(v)) return false;
+        return def;
+    }
+}
@@ -0,0 +1,74 @@
+package com.hackathon.util;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Approximate token count of source code as a GPT-style BPE tokenizer splits it, without shipping a vocabulary:
+ * identifiers split at camelCase humps and underscores, short humps are one token and long ones one per ~5 chars,
+ * numbers take one token per 3 digits, a single space before a word is merged into it, indentation and newline
+ * runs are one token each, and common two-character operators are one token.
+ */
+public final class TokenEstimator {
+    private TokenEstimator() {}
+
+    public static int count(@NotNull CharSequence s) {
+        int tokens = 0;
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            int j = i + 1;
+            if (Character.isLetter(c) || c == '_' || c == '$') {
+                while (j < n && (Character.isLetterOrDigit(s.charAt(j)) || s.charAt(j) == '_' || s.charAt(j) == '$')) j++;
+                tokens += wordTokens(s, i, j);
+            } else if (Character.isDigit(c)) {
+                while (j < n && Character.isDigit(s.charAt(j))) j++;
+                tokens += (j - i + 2) / 3;
+            } else if (c == ' ' || c == '\t') {
+                while (j < n && (s.charAt(j) == ' ' || s.charAt(j) == '\t')) j++;
+                // " word" is a single token; longer runs (indentation) cost one of their own
+                boolean beforeWord = j < n && Character.isLetterOrDigit(s.charAt(j));
+                if (!(j - i == 1 && beforeWord)) tokens++;
+            } else if (c == '\n' || c == '\r') {
+                while (j < n && (s.charAt(j) == '\n' || s.charAt(j) == '\r')) j++;
+                tokens++;
+            } else {
+                if (j < n && isOperatorPair(c, s.charAt(j))) j++;
+                tokens++;
+            }
+            i = j;
+        }
+        return tokens;
+    }
+
+    private static int wordTokens(CharSequence s, int from, int to) {
+        int tokens = 0;
+        int start = from;
+        for (int k = from + 1; k <= to; k++) {
+            boolean boundary = k == to
+                    || s.charAt(k) == '_'
+                    || (Character.isUpperCase(s.charAt(k)) && Character.isLowerCase(s.charAt(k - 1)));
+            if (!boundary) continue;
+            int len = k - start;
+            if (len > 0) tokens += len <= 7 ? 1 : (len + 4) / 5;
+            start = k;
+        }
+        return Math.max(1, tokens);
+    }
+
+    private static boolean isOperatorPair(char a, char b) {
+        return switch (a) {
+            case '=', '!', '<', '>' -> b == '=';
+            case '&' -> b == '&';
+            case '|' -> b == '|';
+            case '-' -> b == '>' || b == '-' || b == '=';
+            case '+' -> b == '+' || b == '=';
+            case ':' -> b == ':';
+            case '/' -> b == '/' || b == '*';
+            case '*' -> b == '/';
+            case '(' -> b == ')';
+            case '{' -> b == '}';
+            default -> false;
+        };
+    }
+}
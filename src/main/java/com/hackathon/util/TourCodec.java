@@ -0,0 +1,290 @@
+package com.hackathon.util;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.hackathon.model.BlobRef;
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads and writes tour.json one step at a time with Gson's streaming API, so memory and time grow with the size
+ * of a step rather than with the whole object graph. The format is the one Gson produces for {@link Tour}; unknown
+ * fields are skipped and missing ones are null (0 for lineNum), so older and hand-edited files still load.
+ * File paths, symbol names and types repeat across steps and are shared while reading.
+ *
+ * With a {@link BlobStore}, snippets and explanations longer than {@link BlobStore#INLINE_MAX_CHARS} are written
+ * to the object store and the step holds "codeRef"/"explanationRef" object ids instead. Such references are
+ * always understood on reading, resolved against the object directory next to the file, and only loaded when the
+ * step's text is first needed.
+ */
+public final class TourCodec {
+    private static final int BUFFER = 64 * 1024;
+
+    private TourCodec() {}
+
+    /** Reads a tour; {@code progress} gets the fraction of the file consumed so far. Null if the file holds JSON null. */
+    public static @Nullable Tour read(@NotNull File file, @Nullable DoubleConsumer progress) throws IOException {
+        long length = Math.max(1, file.length());
+        try (CountingInputStream in = new CountingInputStream(new FileInputStream(file));
+             JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER))) {
+            if (reader.peek() == JsonToken.NULL) return null;
+            BlobStore objects = new BlobStore(BlobStore.objectsDirFor(file));
+            Map<String, String> shared = new HashMap<>();
+            String title = null;
+            List<TourStep> steps = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "title" -> title = nextString(reader);
+                    case "steps" -> {
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                            break;
+                        }
+                        steps = new ArrayList<>();
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            steps.add(readStep(reader, shared, objects));
+                            if (progress != null) progress.accept(Math.min(1.0, (double) in.count / length));
+                        }
+                        reader.endArray();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return new Tour(title, steps);
+        }
+    }
+
+    /** Writes a tour with all text inline; {@code progress} gets the fraction of steps written so far. */
+    public static void write(@NotNull File file, @NotNull Tour tour, @Nullable DoubleConsumer progress) throws IOException {
+        write(file, tour, null, progress);
+    }
+
+    /**
+     * As above, moving long snippets and explanations into {@code objects} if given. The file is replaced
+     * atomically: the tour is written to a temp file next to it, forced to disk and renamed over the old file,
+     * so a crash leaves either the old or the new tour, never a truncated one.
+     */
+    public static void write(@NotNull File file, @NotNull Tour tour, @Nullable BlobStore objects,
+                             @Nullable DoubleConsumer progress) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+                writeJson(out, tour, objects, progress);
+                out.getChannel().force(true);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeJson(OutputStream out, Tour tour, @Nullable BlobStore objects,
+                                  @Nullable DoubleConsumer progress) throws IOException {
+        // Not closed here: the caller still has to force the file to disk
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER));
+        writer.setSerializeNulls(false);
+        writer.beginObject();
+        writer.name("title").value(tour.title());
+        List<TourStep> steps = tour.steps();
+        if (steps != null) {
+            writer.name("steps").beginArray();
+            int i = 0;
+            for (TourStep s : steps) {
+                writeStep(writer, s, objects);
+                if (progress != null) progress.accept((double) ++i / steps.size());
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Opens a tour file under a modal progress dialog, off the EDT. For a tour inside the project, an up-to-date
+     * binary companion ({@link BinaryTourFormat}) is mapped instead of parsing the JSON; otherwise the JSON is read
+     * and the companion is (re)built for next time. Cancelling the dialog throws
+     * {@link com.intellij.openapi.progress.ProcessCanceledException}.
+     */
+    public static @Nullable Tour readWithProgress(@Nullable Project project, @NotNull File file) throws IOException {
+        boolean binary = BinaryTourFormat.isEnabled() && isInProject(project, file);
+        return ProgressManager.getInstance().runProcessWithProgressSynchronously(() -> {
+            // Hashing the JSON to check the companion is I/O too
+            Tour mapped = binary ? BinaryTourFormat.open(file) : null;
+            if (mapped != null) return mapped;
+            Tour tour = read(file, fractionOf(ProgressManager.getInstance().getProgressIndicator()));
+            if (binary && tour != null) writeBinary(file, tour);
+            return tour;
+        }, "Loading Tour", true, project);
+    }
+
+    /**
+     * Saves a tour the way the project keeps it: atomically ({@link #write}), in the object store if
+     * {@link BlobStore#isEnabled()}, and with a fresh binary companion for a tour inside the project.
+     * Blocking; call it from a background thread (see TourPersistenceService).
+     */
+    public static void save(@Nullable Project project, @NotNull File file, @NotNull Tour tour) throws IOException {
+        write(file, tour, BlobStore.isEnabled() ? new BlobStore(BlobStore.objectsDirFor(file)) : null, null);
+        if (BinaryTourFormat.isEnabled() && isInProject(project, file)) writeBinary(file, tour);
+    }
+
+    /** The binary file is only a cache of the JSON: failing to write it must not fail the load or save. */
+    private static void writeBinary(File json, Tour tour) {
+        try {
+            BinaryTourFormat.write(json, tour);
+        } catch (Exception e) {
+            com.intellij.openapi.diagnostic.Logger.getInstance(TourCodec.class)
+                    .warn("Could not write binary tour for " + json + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isInProject(@Nullable Project project, File file) {
+        String base = project == null ? null : project.getBasePath();
+        return base != null && file.getAbsoluteFile().toPath().normalize().startsWith(new File(base).getAbsoluteFile().toPath().normalize());
+    }
+
+    private static @Nullable DoubleConsumer fractionOf(@Nullable ProgressIndicator indicator) {
+        if (indicator == null) return null;
+        indicator.setIndeterminate(false);
+        return fraction -> {
+            indicator.checkCanceled();
+            indicator.setFraction(fraction);
+        };
+    }
+
+    private static TourStep readStep(JsonReader reader, Map<String, String> shared, BlobStore objects) throws IOException {
+        String filePath = null, codeSnippet = null, authorNote = null, aiExplanation = null, symbolName = null, type = null;
+        int lineNum = 0;
+        Integer endLine = null;
+        BlobRef codeRef = null, explanationRef = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "filePath" -> filePath = share(shared, nextString(reader));
+                case "lineNum" -> lineNum = reader.peek() == JsonToken.NULL ? skipNull(reader, 0) : reader.nextInt();
+                case "codeSnippet" -> codeSnippet = nextString(reader);
+                case "authorNote" -> authorNote = nextString(reader);
+                case "aiExplanation" -> aiExplanation = nextString(reader);
+                case "endLine" -> endLine = reader.peek() == JsonToken.NULL ? skipNull(reader, null) : Integer.valueOf(reader.nextInt());
+                case "symbolName" -> symbolName = share(shared, nextString(reader));
+                case "type" -> type = share(shared, nextString(reader));
+                case "codeRef" -> codeRef = objects.ref(nextString(reader));
+                case "explanationRef" -> explanationRef = objects.ref(nextString(reader));
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // Inline text wins over a reference to the same field
+        return new TourStep(filePath, lineNum, codeSnippet, authorNote, aiExplanation, endLine, symbolName, type,
+                codeSnippet == null ? codeRef : null, aiExplanation == null ? explanationRef : null);
+    }
+
+    // Same field order and null handling as Gson's reflective output (nulls omitted)
+    private static void writeStep(JsonWriter writer, TourStep s, @Nullable BlobStore objects) throws IOException {
+        writer.beginObject();
+        if (s.filePath() != null) writer.name("filePath").value(s.filePath());
+        writer.name("lineNum").value(s.lineNum());
+        writeText(writer, "codeSnippet", "codeRef", s.codeRef(), s::codeSnippet, objects);
+        if (s.authorNote() != null) writer.name("authorNote").value(s.authorNote());
+        writeText(writer, "aiExplanation", "explanationRef", s.explanationRef(), s::aiExplanation, objects);
+        if (s.endLine() != null) writer.name("endLine").value(s.endLine());
+        if (s.symbolName() != null) writer.name("symbolName").value(s.symbolName());
+        if (s.type() != null) writer.name("type").value(s.type());
+        writer.endObject();
+    }
+
+    /**
+     * Writes a long text as a reference into {@code objects}, anything else inline. A step that already refers to
+     * an object of the same store keeps the reference without loading the text.
+     */
+    private static void writeText(JsonWriter writer, String inlineName, String refName, @Nullable BlobRef ref,
+                                  Supplier<String> text, @Nullable BlobStore objects) throws IOException {
+        if (objects != null && ref != null && ref.objectsDir().equals(objects.dir())) {
+            writer.name(refName).value(ref.hash());
+            return;
+        }
+        String value = text.get();
+        if (value == null) return;
+        if (objects != null && value.length() > BlobStore.INLINE_MAX_CHARS) {
+            writer.name(refName).value(objects.put(value).hash());
+        } else {
+            writer.name(inlineName).value(value);
+        }
+    }
+
+    private static @Nullable String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static <T> T skipNull(JsonReader reader, T value) throws IOException {
+        reader.nextNull();
+        return value;
+    }
+
+    private static @Nullable String share(Map<String, String> shared, @Nullable String s) {
+        return s == null ? null : shared.computeIfAbsent(s, k -> k);
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
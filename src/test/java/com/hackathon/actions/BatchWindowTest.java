@@ -0,0 +1,86 @@
+package com.hackathon.actions;
+
+import com.hackathon.openai.MockOpenAIServer;
+import com.hackathon.openai.OpenAIService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchWindowTest {
+    // As many as the service's memory cache holds, so a second run is answered from it entirely
+    private static final int STEPS = 256;
+
+    private MockOpenAIServer server;
+    private OpenAIService ai;
+
+    @Before
+    public void setUp() {
+        server = MockOpenAIServer.shared();
+        server.reset(MockOpenAIServer.Faults.NONE);
+        ai = new OpenAIService();
+    }
+
+    @After
+    public void tearDown() {
+        ai.dispose();
+    }
+
+    @Test
+    public void sendsEveryBatchOnce() throws Exception {
+        List<List<OpenAIService.BatchItem>> batches = ai.planBatches(items());
+        Map<String, CompletableFuture<OpenAIService.ExplanationResult>> results = run(batches, new AtomicInteger());
+        assertEquals(STEPS, results.size());
+        for (CompletableFuture<OpenAIService.ExplanationResult> f : results.values()) {
+            assertTrue(f.get().htmlContent() != null);
+        }
+        assertEquals(batches.size(), server.stats().requests());
+    }
+
+    @Test
+    public void cachedBatchesDoNotDeepenTheStack() throws Exception {
+        List<List<OpenAIService.BatchItem>> batches = ai.planBatches(items());
+        run(batches, new AtomicInteger());
+        server.reset(MockOpenAIServer.Faults.NONE);
+
+        // Warm cache: every batch completes while it is sent, and its completion asks for the next one
+        int base = Thread.currentThread().getStackTrace().length;
+        AtomicInteger deepest = new AtomicInteger();
+        run(batches, deepest);
+        assertEquals(0, server.stats().requests());
+        assertTrue("stack grew to " + (deepest.get() - base) + " frames over " + batches.size() + " batches",
+                deepest.get() - base < 60);
+    }
+
+    private Map<String, CompletableFuture<OpenAIService.ExplanationResult>> run(
+            List<List<OpenAIService.BatchItem>> batches, AtomicInteger deepest) throws Exception {
+        Map<String, CompletableFuture<OpenAIService.ExplanationResult>> results = new ConcurrentHashMap<>();
+        BatchWindow window = new BatchWindow(ai, null, batches, OpenAIService.NO_DEADLINE, (id, f) -> {
+            deepest.accumulateAndGet(Thread.currentThread().getStackTrace().length, Math::max);
+            results.put(id, f);
+        });
+        window.fill();
+        long until = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (results.size() < STEPS && System.nanoTime() < until) Thread.sleep(10);
+        CompletableFuture.allOf(results.values().toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        return results;
+    }
+
+    private static List<OpenAIService.BatchItem> items() {
+        List<OpenAIService.BatchItem> items = new ArrayList<>(STEPS);
+        for (int i = 0; i < STEPS; i++) {
+            items.add(new OpenAIService.BatchItem("s" + i, "int window" + i + "() { return " + i + "; }", "Note " + i));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,146 @@
+package com.hackathon.actions;
+
+import com.hackathon.model.TourStep;
+import com.hackathon.openai.MockOpenAIServer;
+import com.hackathon.openai.OpenAIService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the generation pipeline of FinalizeTourAction against {@link MockOpenAIServer}: steps are deduped by
+ * fingerprint, packed by planBatches and sent through a BatchWindow. The action's progress UI and journal stay
+ * out of it. Each scenario prints its throughput and per-step latency (from the moment its batch is sent to the
+ * moment its result settles).
+ */
+public class FinalizePipelineLoadTest {
+    private static final int STEPS = 400;
+    // Every tenth step repeats an earlier one and is answered by the same request
+    private static final int DUPLICATE_EVERY = 10;
+
+    private MockOpenAIServer server;
+    private OpenAIService ai;
+
+    @Before
+    public void setUp() {
+        server = MockOpenAIServer.shared();
+    }
+
+    @After
+    public void tearDown() {
+        if (ai != null) ai.dispose();
+    }
+
+    @Test
+    public void steadyLatency() throws Exception {
+        Report r = run("steady", MockOpenAIServer.Faults.NONE.latency(server.logNormal(40, 0.5)));
+        assertEquals(STEPS, r.explained());
+        assertEquals(0, r.failed());
+        // Batching and dedupe: far fewer requests than steps
+        assertTrue(r.server().toString(), r.server().requests() < STEPS / 4);
+    }
+
+    @Test
+    public void throttledAndFlakyServer() throws Exception {
+        Report r = run("faults", MockOpenAIServer.Faults.NONE
+                .latency(server.logNormal(40, 0.5))
+                .rateLimited(0.10, 20)
+                .serverErrors(0.05)
+                .truncated(0.03));
+        assertTrue(r.server().toString(), r.server().rateLimited() > 0 && r.server().serverErrors() > 0);
+        // Retries and per-item fallbacks absorb the faults
+        assertTrue(r.toString(), r.explained() >= STEPS * 99 / 100);
+    }
+
+    @Test
+    public void slowTail() throws Exception {
+        Report r = run("tail", MockOpenAIServer.Faults.NONE
+                .latency(server.withTail(server.logNormal(30, 0.3), 0.05, 1500)));
+        assertEquals(STEPS, r.explained());
+    }
+
+    private record Report(int explained, int failed, double stepsPerSecond, long p50Ms, long p99Ms,
+                          MockOpenAIServer.Stats server) {}
+
+    private Report run(String name, MockOpenAIServer.Faults faults) throws Exception {
+        server.reset(faults);
+        ai = new OpenAIService();
+        List<TourStep> steps = steps();
+
+        Map<String, List<Integer>> indicesByKey = new LinkedHashMap<>();
+        for (int i = 0; i < steps.size(); i++) {
+            indicesByKey.computeIfAbsent(steps.get(i).fingerprint().hex(), k -> new ArrayList<>()).add(i);
+        }
+        int unique = indicesByKey.size();
+        List<OpenAIService.BatchItem> items = new ArrayList<>(unique);
+        for (Map.Entry<String, List<Integer>> en : indicesByKey.entrySet()) {
+            TourStep s = steps.get(en.getValue().get(0));
+            items.add(new OpenAIService.BatchItem(en.getKey(), s.codeSnippet(), s.authorNote(), s.fingerprint()));
+        }
+
+        AtomicInteger explained = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        CompletableFuture<Void> allDone = new CompletableFuture<>();
+
+        long start = System.nanoTime();
+        List<List<OpenAIService.BatchItem>> batches = ai.planBatches(null, items);
+        BatchWindow window = new BatchWindow(ai, null, batches, OpenAIService.NO_DEADLINE, (key, future) -> {
+            long sent = System.nanoTime();
+            List<Integer> positions = indicesByKey.get(key);
+            future.whenComplete((res, err) -> {
+                long elapsed = System.nanoTime() - sent;
+                for (int ignored : positions) latencies.add(elapsed);
+                if (err != null || res == null || res.htmlContent() == null) {
+                    failed.addAndGet(positions.size());
+                } else {
+                    explained.addAndGet(positions.size());
+                }
+                if (completed.incrementAndGet() >= unique) allDone.complete(null);
+            });
+        });
+        window.fill();
+        allDone.get(2, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        Report r = new Report(explained.get(), failed.get(), steps.size() / seconds,
+                percentileMs(sorted, 50), percentileMs(sorted, 99), server.stats());
+        System.out.println(String.format(Locale.ROOT,
+                "[%s] %d steps (%d unique) in %d batches, %.2f s: %.0f steps/s, p50 %d ms, p99 %d ms, %d failed; "
+                        + "server %s; limiter %s",
+                name, steps.size(), unique, batches.size(), seconds, r.stepsPerSecond(), r.p50Ms(), r.p99Ms(),
+                r.failed(), r.server(), ai.getConcurrencyStats()));
+        return r;
+    }
+
+    private static List<TourStep> steps() {
+        List<TourStep> steps = new ArrayList<>(STEPS);
+        for (int i = 0; i < STEPS; i++) {
+            int n = i % DUPLICATE_EVERY == DUPLICATE_EVERY - 1 ? i / 2 : i;
+            String code = "int step" + n + "(int x) {\n    return x * " + n + " + " + (n * 7 % 13) + ";\n}";
+            steps.add(new TourStep("src/Step" + n + ".java", 1 + n, code, "Note " + n, null, 3, "step" + n, "method"));
+        }
+        return steps;
+    }
+
+    private static long percentileMs(long[] sortedNanos, int percentile) {
+        if (sortedNanos.length == 0) return 0;
+        int idx = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sortedNanos[Math.max(0, Math.min(idx, sortedNanos.length - 1))]);
+    }
+}
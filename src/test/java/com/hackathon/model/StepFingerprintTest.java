@@ -0,0 +1,41 @@
+package com.hackathon.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class StepFingerprintTest {
+    @Test
+    public void sameContentSameFingerprint() {
+        TourStep a = step("int x = 1;", "note");
+        TourStep b = step("int x = 1;", "note");
+        assertNotSame(a, b);
+        assertEquals(a.fingerprint(), b.fingerprint());
+        assertEquals(StepFingerprint.of("int x = 1;", "note"), a.fingerprint());
+        assertNotEquals(a.fingerprint(), step("int x = 2;", "note").fingerprint());
+    }
+
+    @Test
+    public void codeAndNoteBoundaryIsUnambiguous() {
+        assertNotEquals(StepFingerprint.of("ab", "c"), StepFingerprint.of("a", "bc"));
+        assertEquals(StepFingerprint.of(null, null), StepFingerprint.of("", ""));
+    }
+
+    @Test
+    public void memoizedPerInstance() {
+        TourStep a = step("x".repeat(10_000), "n");
+        StepFingerprint first = a.fingerprint();
+        assertSame(first, a.fingerprint());
+        // An equal but distinct step gets its own entry
+        TourStep b = step("x".repeat(10_000), "n");
+        assertNotSame(first, b.fingerprint());
+        assertEquals(first, b.fingerprint());
+    }
+
+    private static TourStep step(String code, String note) {
+        return new TourStep("Main.java", 1, code, note, null, null, null, "manual");
+    }
+}
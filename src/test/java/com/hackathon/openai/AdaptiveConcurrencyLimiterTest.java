@@ -0,0 +1,177 @@
+package com.hackathon.openai;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    @Test
+    public void slowStartGrowsWhileTheWindowIsUsed() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 1, 100);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = take(limiter, 4, RequestPriority.BULK);
+        // Every success with the window at least half full adds a whole slot
+        permits.get(0).onSuccess(MS);
+        permits.get(1).onSuccess(MS);
+        assertEquals(6, limiter.stats().limit());
+    }
+
+    @Test
+    public void idleWindowDoesNotGrow() {
+        AdaptiveConcurrencyLimiter limiter = limiter(8, 1, 100);
+        for (int i = 0; i < 20; i++) take(limiter, 1, RequestPriority.BULK).get(0).onSuccess(MS);
+        assertEquals(8, limiter.stats().limit());
+    }
+
+    @Test
+    public void dropsHalveTheLimitOncePerRtt() {
+        AdaptiveConcurrencyLimiter limiter = limiter(16, 1, 100);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = take(limiter, 4, RequestPriority.BULK);
+        permits.get(0).onDropped();
+        assertEquals(8, limiter.stats().limit());
+        // Same burst: no further halving until an RTT (1 s before any sample) has passed
+        permits.get(1).onDropped();
+        assertEquals(8, limiter.stats().limit());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        permits.get(2).onDropped();
+        assertEquals(4, limiter.stats().limit());
+        assertEquals(3, limiter.stats().drops());
+
+        // Additive increase after a back-off: about one slot per window, not one per success
+        permits.get(3).onSuccess(MS);
+        assertEquals(4, limiter.stats().limit());
+    }
+
+    @Test
+    public void limitStaysWithinBounds() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 2, 3);
+        for (int i = 0; i < 5; i++) {
+            clock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+            take(limiter, 1, RequestPriority.BULK).get(0).onDropped();
+        }
+        assertEquals(2, limiter.stats().limit());
+        for (int i = 0; i < 10; i++) take(limiter, 2, RequestPriority.BULK).forEach(p -> p.onSuccess(MS));
+        assertEquals(3, limiter.stats().limit());
+    }
+
+    @Test
+    public void slowSamplesShrinkTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 100);
+        take(limiter, 1, RequestPriority.BULK).get(0).onSuccess(10 * MS);
+        take(limiter, 1, RequestPriority.BULK).get(0).onSuccess(30 * MS);
+        assertEquals(9, limiter.stats().limit());
+        assertEquals(10, limiter.stats().minRttMillis());
+    }
+
+    @Test
+    public void higherPriorityIsGrantedFirst() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        AdaptiveConcurrencyLimiter.Permit running = take(limiter, 1, RequestPriority.BULK).get(0);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> bulk = limiter.acquire(ref(RequestPriority.BULK));
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> prefetch = limiter.acquire(ref(RequestPriority.PREFETCH));
+        assertFalse(bulk.isDone() || prefetch.isDone());
+
+        running.release();
+        assertTrue(prefetch.isDone());
+        assertFalse(bulk.isDone());
+        prefetch.join().release();
+        assertTrue(bulk.isDone());
+    }
+
+    @Test
+    public void waitersAgeIntoPrecedence() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        AdaptiveConcurrencyLimiter.Permit running = take(limiter, 1, RequestPriority.BULK).get(0);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> bulk = limiter.acquire(ref(RequestPriority.BULK));
+        // Two classes of aging (5 s each) later, the old bulk request outranks a fresh prefetch
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> prefetch = limiter.acquire(ref(RequestPriority.PREFETCH));
+
+        running.release();
+        assertTrue(bulk.isDone());
+        assertFalse(prefetch.isDone());
+    }
+
+    @Test
+    public void interactiveRequestsUseTheHeadroom() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        take(limiter, 1, RequestPriority.BULK);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> bulk = limiter.acquire(ref(RequestPriority.BULK));
+        // Not behind the queued bulk request, and one slot above the limit
+        assertTrue(limiter.acquire(ref(RequestPriority.INTERACTIVE)).isDone());
+        assertFalse(bulk.isDone());
+        assertFalse(limiter.acquire(ref(RequestPriority.INTERACTIVE)).isDone());
+        // Optional work never takes a slot past the limit
+        assertNull(limiter.tryAcquire());
+    }
+
+    @Test
+    public void raisedPriorityIsGrantedFromTheHeadroom() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        take(limiter, 1, RequestPriority.BULK);
+        AtomicReference<RequestPriority> priority = ref(RequestPriority.BULK);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiting = limiter.acquire(priority);
+        assertFalse(waiting.isDone());
+        priority.set(RequestPriority.INTERACTIVE);
+        limiter.priorityRaised();
+        assertTrue(waiting.isDone());
+    }
+
+    @Test
+    public void cancelledWaiterGivesUpItsPlace() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1);
+        AdaptiveConcurrencyLimiter.Permit running = take(limiter, 1, RequestPriority.BULK).get(0);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> first = limiter.acquire(ref(RequestPriority.BULK));
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> second = limiter.acquire(ref(RequestPriority.BULK));
+        first.cancel(true);
+        running.release();
+        assertTrue(second.isDone());
+        assertEquals(1, limiter.stats().inFlight());
+        assertEquals(0, limiter.stats().queued());
+    }
+
+    @Test
+    public void permitCompletesOnce() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 1, 4);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        assertNotNull(permit);
+        permit.onDropped();
+        permit.onSuccess(MS);
+        permit.release();
+        assertEquals(0, limiter.stats().inFlight());
+        assertEquals(1, limiter.stats().drops());
+        assertEquals(0, limiter.stats().successes());
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(int initial, int min, int max) {
+        return new AdaptiveConcurrencyLimiter(initial, min, max, clock::get);
+    }
+
+    private static List<AdaptiveConcurrencyLimiter.Permit> take(AdaptiveConcurrencyLimiter limiter, int n, RequestPriority p) {
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            CompletableFuture<AdaptiveConcurrencyLimiter.Permit> f = limiter.acquire(ref(p));
+            assertTrue("slot " + i + " not free", f.isDone());
+            permits.add(f.join());
+        }
+        return permits;
+    }
+
+    private static AtomicReference<RequestPriority> ref(RequestPriority p) {
+        return new AtomicReference<>(p);
+    }
+}
@@ -0,0 +1,102 @@
+package com.hackathon.openai;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        fail(breaker, 2);
+        succeed(breaker);
+        fail(breaker, 2);
+        assertFalse(breaker.isOpen());
+        fail(breaker, 1);
+        assertTrue(breaker.isOpen());
+        assertNull(breaker.tryPass());
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        fail(breaker, 1);
+        Thread.sleep(80);
+        assertFalse(breaker.isOpen());
+
+        CircuitBreaker.Pass probe = breaker.tryPass();
+        assertNotNull(probe);
+        assertNull(breaker.tryPass());
+        probe.onSuccess();
+
+        // Closed again: everything passes
+        assertNotNull(breaker.tryPass());
+        assertNotNull(breaker.tryPass());
+    }
+
+    @Test
+    public void failedProbeDoublesTheCooldown() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 200);
+        fail(breaker, 1);
+        Thread.sleep(250);
+        CircuitBreaker.Pass probe = breaker.tryPass();
+        assertNotNull(probe);
+        probe.onFailure();
+
+        assertTrue(breaker.isOpen());
+        Thread.sleep(250);
+        assertTrue("the second cool-down lasts 400 ms", breaker.isOpen());
+        Thread.sleep(250);
+        assertFalse(breaker.isOpen());
+        assertNotNull(breaker.tryPass());
+    }
+
+    @Test
+    public void abandonedProbeFreesTheSlot() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        fail(breaker, 1);
+        Thread.sleep(50);
+        CircuitBreaker.Pass probe = breaker.tryPass();
+        assertNotNull(probe);
+        probe.abandon();
+        // No verdict yet: still half-open, and the next request becomes the probe
+        CircuitBreaker.Pass next = breaker.tryPass();
+        assertNotNull(next);
+        assertNull(breaker.tryPass());
+    }
+
+    @Test
+    public void aPassCountsOnce() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+        CircuitBreaker.Pass pass = breaker.tryPass();
+        assertNotNull(pass);
+        pass.onFailure();
+        pass.onFailure();
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void zeroThresholdDisablesTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 60_000);
+        fail(breaker, 100);
+        assertFalse(breaker.isOpen());
+        assertNotNull(breaker.tryPass());
+    }
+
+    private static void fail(CircuitBreaker breaker, int n) {
+        for (int i = 0; i < n; i++) {
+            CircuitBreaker.Pass pass = breaker.tryPass();
+            assertNotNull(pass);
+            pass.onFailure();
+        }
+    }
+
+    private static void succeed(CircuitBreaker breaker) {
+        CircuitBreaker.Pass pass = breaker.tryPass();
+        assertNotNull(pass);
+        pass.onSuccess();
+    }
+}
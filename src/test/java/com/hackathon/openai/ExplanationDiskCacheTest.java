@@ -0,0 +1,171 @@
+package com.hackathon.openai;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExplanationDiskCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path dir;
+    private ExplanationDiskCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = tmp.newFolder("cache").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        if (cache != null) cache.close();
+    }
+
+    @Test
+    public void entriesSurviveReopen() {
+        cache = open(1 << 20);
+        cache.put("k1", result("one"));
+        cache.put("k2", result("two"));
+        cache.close();
+
+        cache = open(1 << 20);
+        assertEquals(2, cache.size());
+        assertEquals(result("one"), cache.get("k1"));
+        assertEquals(result("two"), cache.get("k2"));
+        assertNull(cache.get("k3"));
+    }
+
+    @Test
+    public void tornDataTailIsTruncated() throws IOException {
+        cache = open(1 << 20);
+        cache.put("k1", result("one"));
+        cache.put("k2", result("two"));
+        cache.close();
+        Path data = dir.resolve("explanations.dat");
+        long intact = Files.size(data);
+        // A record header promising more payload than was written, as after a crash mid-append
+        Files.write(data, new byte[]{0, 0, 1, 0, 1, 2, 3, 4, 'k'}, StandardOpenOption.APPEND);
+
+        cache = open(1 << 20);
+        assertEquals(intact, Files.size(data));
+        assertEquals(result("one"), cache.get("k1"));
+        assertEquals(result("two"), cache.get("k2"));
+        cache.put("k3", result("three"));
+        cache.close();
+
+        cache = open(1 << 20);
+        assertEquals(3, cache.size());
+        assertEquals(result("three"), cache.get("k3"));
+    }
+
+    @Test
+    public void tornIndexTailIsTruncated() throws IOException {
+        cache = open(1 << 20);
+        cache.put("k1", result("one"));
+        cache.close();
+        Path idx = dir.resolve("explanations.idx");
+        long intact = Files.size(idx);
+        Files.write(idx, new byte[]{0, 2, 'k'}, StandardOpenOption.APPEND);
+
+        cache = open(1 << 20);
+        assertEquals(intact, Files.size(idx));
+        assertEquals(result("one"), cache.get("k1"));
+    }
+
+    @Test
+    public void recordsMissingFromIndexAreRecovered() throws IOException {
+        cache = open(1 << 20);
+        cache.put("k1", result("one"));
+        long indexed = Files.size(dir.resolve("explanations.idx"));
+        cache.put("k2", result("two"));
+        cache.close();
+        // Crash between the data append and the index append
+        try (FileChannel ch = FileChannel.open(dir.resolve("explanations.idx"), StandardOpenOption.WRITE)) {
+            ch.truncate(indexed);
+        }
+
+        cache = open(1 << 20);
+        assertEquals(2, cache.size());
+        assertEquals(result("two"), cache.get("k2"));
+    }
+
+    @Test
+    public void generationMismatchRebuildsIndexFromData() throws IOException {
+        cache = open(1 << 20);
+        cache.put("k1", result("one"));
+        cache.put("k2", result("two"));
+        cache.close();
+        // The data file was swapped by a compaction but the index was not
+        try (FileChannel ch = FileChannel.open(dir.resolve("explanations.idx"), StandardOpenOption.WRITE)) {
+            ByteBuffer gen = ByteBuffer.allocate(8).putLong(0, 42L);
+            ch.write(gen, 8);
+        }
+
+        cache = open(1 << 20);
+        assertEquals(2, cache.size());
+        assertEquals(result("one"), cache.get("k1"));
+        assertEquals(result("two"), cache.get("k2"));
+        cache.close();
+
+        // The rebuilt index is current again: no second scan needed, entries still there
+        cache = open(1 << 20);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void compactionKeepsRecentlyUsedEntriesWithinBudget() throws IOException {
+        long budget = 8 * 1024; // about ten entries; compaction keeps the most recent 3/4 of that
+        cache = open(budget);
+        for (int i = 0; i < 6; i++) cache.put("k" + i, result(html(i)));
+        // Touch the oldest entry so it counts as recently used
+        assertNotNull(cache.get("k0"));
+        for (int i = 6; i < 12; i++) cache.put("k" + i, result(html(i)));
+
+        assertTrue(cache.size() < 12);
+        assertTrue(Files.size(dir.resolve("explanations.dat")) <= budget);
+        assertEquals(result(html(0)), cache.get("k0"));
+        assertNull(cache.get("k1"));
+        assertEquals(result(html(11)), cache.get("k11"));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.anyMatch(p -> p.getFileName().toString().endsWith(".tmp")));
+        }
+
+        int kept = cache.size();
+        cache.close();
+        cache = open(budget);
+        assertEquals(kept, cache.size());
+        assertEquals(result(html(11)), cache.get("k11"));
+        cache.put("k12", result(html(12)));
+        assertEquals(result(html(12)), cache.get("k12"));
+    }
+
+    private ExplanationDiskCache open(long maxBytes) {
+        ExplanationDiskCache c = ExplanationDiskCache.open(dir, maxBytes);
+        assertNotNull(c);
+        return c;
+    }
+
+    private static OpenAIService.ExplanationResult result(String text) {
+        return new OpenAIService.ExplanationResult("Title " + text.length(), "<p>" + text + "</p>");
+    }
+
+    private static String html(int i) {
+        return ("explanation " + i + " ").repeat(50);
+    }
+}
@@ -0,0 +1,63 @@
+package com.hackathon.openai;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HedgingPolicyTest {
+    @Test
+    public void noHedgingWithoutEnoughHistory() {
+        HedgingPolicy policy = new HedgingPolicy(5);
+        for (int i = 0; i < 19; i++) policy.record(ms(100));
+        assertEquals(-1, policy.delayMillis());
+        policy.record(ms(100));
+        assertEquals(100, policy.delayMillis());
+    }
+
+    @Test
+    public void delayIsTheP95OfRecentLatencies() {
+        HedgingPolicy policy = new HedgingPolicy(5);
+        // Recorded out of order: 1..100 ms
+        for (int i = 0; i < 100; i++) policy.record(ms((i * 37) % 100 + 1));
+        assertEquals(95, policy.delayMillis());
+    }
+
+    @Test
+    public void onlyTheRecentWindowCounts() {
+        HedgingPolicy policy = new HedgingPolicy(5);
+        for (int i = 0; i < 256; i++) policy.record(ms(5000));
+        for (int i = 0; i < 256; i++) policy.record(ms(200));
+        assertEquals(200, policy.delayMillis());
+    }
+
+    @Test
+    public void hedgesStayWithinBudget() {
+        HedgingPolicy policy = new HedgingPolicy(5);
+        // A single hedge is allowed even before there are 20 requests
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+        for (int i = 0; i < 100; i++) policy.onRequest();
+        int granted = 1;
+        while (policy.tryHedge()) granted++;
+        assertEquals(5, granted);
+    }
+
+    @Test
+    public void zeroBudgetDisablesHedging() {
+        HedgingPolicy policy = new HedgingPolicy(0);
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+            policy.record(ms(100));
+        }
+        assertEquals(-1, policy.delayMillis());
+        assertFalse(policy.tryHedge());
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,311 @@
+package com.hackathon.openai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * OpenAI-compatible Chat Completions endpoint on localhost, built on the JDK's HTTP server. Single, batched
+ * ("### s&lt;n&gt;" sections, answered as {"items": [...]}) and streamed requests get canned explanations.
+ * Faults are injected per request as configured with {@link #reset(Faults)}:
+ * - latency drawn from a distribution
+ * - 429s carrying a Retry-After
+ * - 5xx answers
+ * - bodies cut off mid-transfer: the connection closes before the promised Content-Length, or a stream ends
+ *   without [DONE]
+ * Faults are drawn from a seeded random source.
+ *
+ * OpenAIService reads OPENAI_BASE_URL and the API key once per JVM, so one server, started by {@link #shared()},
+ * serves every test.
+ */
+public final class MockOpenAIServer {
+    private static final Pattern BATCH_ID = Pattern.compile("(?m)^### (s\\d+)$");
+    /** Marks a snippet the mock "forgets" to answer in a batch. */
+    public static final String SKIP = "mock:skip";
+    private static MockOpenAIServer shared;
+
+    private final Gson gson = new Gson();
+    private final Random random = new Random(42);
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Mock OpenAI");
+        t.setDaemon(true);
+        return t;
+    });
+    private final HttpServer server;
+    private volatile Faults faults = Faults.NONE;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger rateLimited = new AtomicInteger();
+    private final AtomicInteger serverErrors = new AtomicInteger();
+    private final AtomicInteger truncated = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * What goes wrong, by share of requests; the shares add up to at most 1. {@code latencyMs} applies to every
+     * answer except 429s, which come back right away.
+     */
+    public record Faults(LongSupplier latencyMs, double rateLimited, long retryAfterMs, double serverErrors, double truncated) {
+        public static final Faults NONE = new Faults(() -> 0, 0, 0, 0, 0);
+
+        public Faults latency(LongSupplier ms) {
+            return new Faults(ms, rateLimited, retryAfterMs, serverErrors, truncated);
+        }
+
+        public Faults rateLimited(double share, long retryAfterMs) {
+            return new Faults(latencyMs, share, retryAfterMs, serverErrors, truncated);
+        }
+
+        public Faults serverErrors(double share) {
+            return new Faults(latencyMs, rateLimited, retryAfterMs, share, truncated);
+        }
+
+        public Faults truncated(double share) {
+            return new Faults(latencyMs, rateLimited, retryAfterMs, serverErrors, share);
+        }
+    }
+
+    public record Stats(int requests, int rateLimited, int serverErrors, int truncated, int maxInFlight) {}
+
+    private MockOpenAIServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/v1/chat/completions", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /** The server of this JVM, started on first use; OpenAIService instances created afterwards talk to it. */
+    public static synchronized @NotNull MockOpenAIServer shared() {
+        if (shared == null) {
+            MockOpenAIServer s;
+            try {
+                s = new MockOpenAIServer();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot start mock OpenAI server", e);
+            }
+            // The dispatcher thread inherits the daemon flag of the thread that starts it: never block JVM exit
+            Thread starter = new Thread(s.server::start, "Mock OpenAI start");
+            starter.setDaemon(true);
+            starter.start();
+            try {
+                starter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            System.setProperty("OPENAI_BASE_URL", "http://127.0.0.1:" + s.server.getAddress().getPort() + "/v1");
+            System.setProperty("OPENAI_API_KEY", "test-key");
+            // Every run starts cold: no persistent cache, no near-duplicate reuse between synthetic snippets
+            System.setProperty("ACW_DISK_CACHE_MB", "0");
+            System.setProperty("ACW_SIMILAR_BITS", "0");
+            shared = s;
+        }
+        return shared;
+    }
+
+    /** Applies {@code faults} to the requests from now on and zeroes the counters. */
+    public void reset(@NotNull Faults faults) {
+        this.faults = faults;
+        requests.set(0);
+        rateLimited.set(0);
+        serverErrors.set(0);
+        truncated.set(0);
+        maxInFlight.set(0);
+    }
+
+    public @NotNull Stats stats() {
+        return new Stats(requests.get(), rateLimited.get(), serverErrors.get(), truncated.get(), maxInFlight.get());
+    }
+
+    /** Latencies around {@code medianMs}; {@code sigma} 0.5 puts the p99 at about 3.2 times the median. */
+    public @NotNull LongSupplier logNormal(double medianMs, double sigma) {
+        return () -> Math.round(medianMs * Math.exp(sigma * gaussian()));
+    }
+
+    /** {@code base} latency, except for a {@code share} of requests that take {@code slowMs} (a heavy tail). */
+    public @NotNull LongSupplier withTail(LongSupplier base, double share, long slowMs) {
+        return () -> uniform() < share ? slowMs : base.getAsLong();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        int now = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(now, Math::max);
+        try {
+            requests.incrementAndGet();
+            JsonObject request = gson.fromJson(new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), JsonObject.class);
+            Faults f = faults;
+            double u = uniform();
+            if (u < f.rateLimited()) {
+                rateLimited.incrementAndGet();
+                ex.getResponseHeaders().add("retry-after-ms", Long.toString(f.retryAfterMs()));
+                send(ex, 429, error("Rate limit reached"));
+                return;
+            }
+            sleep(f.latencyMs().getAsLong());
+            u -= f.rateLimited();
+            if (u < f.serverErrors()) {
+                serverErrors.incrementAndGet();
+                send(ex, 503, error("The server is overloaded"));
+                return;
+            }
+            u -= f.serverErrors();
+            boolean cut = u < f.truncated();
+            if (cut) truncated.incrementAndGet();
+            String content = answer(userContent(request));
+            if (request.has("stream") && request.get("stream").getAsBoolean()) {
+                stream(ex, content, cut);
+            } else {
+                JsonObject message = new JsonObject();
+                message.addProperty("role", "assistant");
+                message.addProperty("content", content);
+                JsonObject choice = new JsonObject();
+                choice.add("message", message);
+                choice.addProperty("finish_reason", "stop");
+                JsonObject body = new JsonObject();
+                body.addProperty("object", "chat.completion");
+                body.add("choices", array(choice));
+                byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+                ex.getResponseHeaders().add("Content-Type", "application/json");
+                ex.sendResponseHeaders(200, bytes.length);
+                OutputStream out = ex.getResponseBody();
+                out.write(bytes, 0, cut ? bytes.length / 2 : bytes.length);
+                out.flush();
+            }
+        } finally {
+            inFlight.decrementAndGet();
+            // Closing short of the Content-Length (a truncated body) drops the connection
+            ex.close();
+        }
+    }
+
+    private void stream(HttpExchange ex, String content, boolean cut) throws IOException {
+        ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        List<String> pieces = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += 16) pieces.add(content.substring(i, Math.min(content.length(), i + 16)));
+        int count = cut ? pieces.size() / 2 : pieces.size();
+        for (int i = 0; i < count; i++) {
+            JsonObject delta = new JsonObject();
+            delta.addProperty("content", pieces.get(i));
+            JsonObject choice = new JsonObject();
+            choice.add("delta", delta);
+            JsonObject chunk = new JsonObject();
+            chunk.add("choices", array(choice));
+            out.write(("data: " + chunk + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        if (cut) return;
+        JsonObject last = new JsonObject();
+        last.add("delta", new JsonObject());
+        last.addProperty("finish_reason", "stop");
+        JsonObject chunk = new JsonObject();
+        chunk.add("choices", array(last));
+        out.write(("data: " + chunk + "\n\ndata: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A batch gets one item per "### s<n>" section, anything else a single {"title", "explanation"} object. A batch
+     * section containing {@value #SKIP} is left out of the answer, and an item for an id nobody asked for is added.
+     */
+    private String answer(String user) {
+        List<MatchResult> sections = BATCH_ID.matcher(user).results().toList();
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < sections.size(); i++) {
+            MatchResult section = sections.get(i);
+            int end = i + 1 < sections.size() ? sections.get(i + 1).start() : user.length();
+            JsonObject item = new JsonObject();
+            if (user.substring(section.end(), end).contains(SKIP)) {
+                item.addProperty("id", "s" + (sections.size() + 90));
+                item.addProperty("explanation", "Nobody asked.");
+            } else {
+                item.addProperty("id", section.group(1));
+                item.addProperty("title", "Step " + section.group(1));
+                item.addProperty("explanation", "Explains snippet " + section.group(1) + ".");
+            }
+            items.add(item);
+        }
+        if (!items.isEmpty()) {
+            JsonObject batch = new JsonObject();
+            batch.add("items", items);
+            return batch.toString();
+        }
+        JsonObject single = new JsonObject();
+        single.addProperty("title", "Mock step");
+        single.addProperty("explanation", "Explains a snippet of " + user.length() + " characters.");
+        return single.toString();
+    }
+
+    private static String userContent(JsonObject request) {
+        String user = "";
+        JsonArray messages = request.getAsJsonArray("messages");
+        if (messages == null) return user;
+        for (JsonElement el : messages) {
+            JsonObject msg = el.getAsJsonObject();
+            if ("user".equals(msg.get("role").getAsString()) && msg.get("content").isJsonPrimitive()) {
+                user = msg.get("content").getAsString();
+            }
+        }
+        return user;
+    }
+
+    private static void send(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        ex.getResponseBody().write(bytes);
+    }
+
+    private static String error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("message", message);
+        JsonObject body = new JsonObject();
+        body.add("error", error);
+        return body.toString();
+    }
+
+    private static JsonArray array(JsonElement element) {
+        JsonArray a = new JsonArray();
+        a.add(element);
+        return a;
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double uniform() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private double gaussian() {
+        synchronized (random) {
+            return random.nextGaussian();
+        }
+    }
+}
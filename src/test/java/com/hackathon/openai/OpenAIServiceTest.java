@@ -0,0 +1,209 @@
+package com.hackathon.openai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.hackathon.util.TokenEstimator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** The request pipeline of {@link OpenAIService} against {@link MockOpenAIServer}. */
+public class OpenAIServiceTest {
+    private static final String CODE = "int twice(int x) {\n    return x * 2;\n}";
+
+    private MockOpenAIServer server;
+    private OpenAIService ai;
+
+    @Before
+    public void setUp() {
+        server = MockOpenAIServer.shared();
+        ai = new OpenAIService();
+    }
+
+    @After
+    public void tearDown() {
+        ai.dispose();
+        server.reset(MockOpenAIServer.Faults.NONE);
+    }
+
+    @Test
+    public void streamedExplanationIsCached() throws Exception {
+        server.reset(MockOpenAIServer.Faults.NONE);
+        List<String> partials = new CopyOnWriteArrayList<>();
+        OpenAIService.ExplanationResult r =
+                ai.generateExplanationStreaming(null, CODE, "streamed", partials::add).get(30, TimeUnit.SECONDS);
+        assertNotNull(r.htmlContent());
+        assertEquals(1, server.stats().requests());
+
+        assertEquals(r, ai.generateExplanationAsync(null, CODE, "streamed").get(30, TimeUnit.SECONDS));
+        assertEquals(1, server.stats().requests());
+    }
+
+    @Test
+    public void truncatedStreamIsNeitherUsedNorCached() throws Exception {
+        // Every answer is cut off: the stream ends without [DONE], then the buffered fallback loses its body
+        server.reset(MockOpenAIServer.Faults.NONE.truncated(1.0));
+        OpenAIService.ExplanationResult r =
+                ai.generateExplanationStreaming(null, CODE, "truncated", html -> {}).get(60, TimeUnit.SECONDS);
+        assertNull(r.htmlContent());
+        // The stream plus the fallback and its retries
+        assertTrue(server.stats().toString(), server.stats().requests() >= 2);
+
+        server.reset(MockOpenAIServer.Faults.NONE);
+        OpenAIService.ExplanationResult again =
+                ai.generateExplanationAsync(null, CODE, "truncated").get(30, TimeUnit.SECONDS);
+        assertNotNull(again.htmlContent());
+        assertEquals("nothing was cached", 1, server.stats().requests());
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsShareOneExchange() throws Exception {
+        server.reset(MockOpenAIServer.Faults.NONE.latency(() -> 300));
+        List<CompletableFuture<OpenAIService.ExplanationResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) futures.add(ai.generateExplanationAsync(null, CODE, "shared"));
+        OpenAIService.ExplanationResult first = futures.get(0).get(30, TimeUnit.SECONDS);
+        assertNotNull(first.htmlContent());
+        for (CompletableFuture<OpenAIService.ExplanationResult> f : futures) assertEquals(first, f.get(30, TimeUnit.SECONDS));
+        assertEquals(1, server.stats().requests());
+        assertEquals(4, ai.getRequestStats().coalescedJoins());
+    }
+
+    @Test
+    public void cancelledWaiterLeavesTheSharedRequestRunning() throws Exception {
+        server.reset(MockOpenAIServer.Faults.NONE.latency(() -> 300));
+        CompletableFuture<OpenAIService.ExplanationResult> leaving = ai.generateExplanationAsync(null, CODE, "detached");
+        CompletableFuture<OpenAIService.ExplanationResult> staying = ai.generateExplanationAsync(null, CODE, "detached");
+        assertTrue(leaving.cancel(true));
+        assertNotNull(staying.get(30, TimeUnit.SECONDS).htmlContent());
+        assertEquals(1, server.stats().requests());
+    }
+
+    @Test
+    public void requestWithoutWaitersIsAbandoned() throws Exception {
+        server.reset(MockOpenAIServer.Faults.NONE.latency(() -> 300));
+        CompletableFuture<OpenAIService.ExplanationResult> a = ai.generateExplanationAsync(null, CODE, "abandoned");
+        CompletableFuture<OpenAIService.ExplanationResult> b = ai.generateExplanationAsync(null, CODE, "abandoned");
+        a.cancel(true);
+        b.cancel(true);
+        // Nobody joins the abandoned request: the next caller starts a fresh one and gets an answer
+        OpenAIService.ExplanationResult r = ai.generateExplanationAsync(null, CODE, "abandoned").get(30, TimeUnit.SECONDS);
+        assertNotNull(r.htmlContent());
+        assertEquals(1, ai.getRequestStats().coalescedJoins());
+    }
+
+    @Test
+    public void batchItemsAreKeyedById() {
+        Map<String, OpenAIService.ExplanationResult> parsed = OpenAIService.parseBatchBody(completion(
+                "{\"items\":[{\"id\":\"s1\",\"title\":\"One\",\"explanation\":\"First <b>\"},"
+                        + "{\"id\":\"s2\",\"explanation\":\"Second\"}]}"));
+        assertEquals(Set.of("s1", "s2"), parsed.keySet());
+        assertEquals("One", parsed.get("s1").title());
+        assertEquals("<h3>Summary</h3><p>First &lt;b&gt;</p>", parsed.get("s1").htmlContent());
+        assertEquals("Auto Code Walker Tour", parsed.get("s2").title());
+    }
+
+    @Test
+    public void batchAcceptsBareArraysObjectsKeyedByIdAndNumericIds() {
+        assertEquals(Set.of("s1", "s2"), OpenAIService.parseBatchBody(completion(
+                "[{\"id\":1,\"explanation\":\"a\"},{\"id\":\" S2 \",\"explanation\":\"b\"}]")).keySet());
+        assertEquals(Set.of("s1", "s3"), OpenAIService.parseBatchBody(completion(
+                "{\"s1\":{\"explanation\":\"a\"},\"3\":{\"explanation\":\"c\"}}")).keySet());
+    }
+
+    @Test
+    public void malformedBatchItemsAreSkippedOnTheirOwn() {
+        Map<String, OpenAIService.ExplanationResult> parsed = OpenAIService.parseBatchBody(completion(
+                "{\"items\":["
+                        + "{\"explanation\":\"no id\"},"
+                        + "{\"id\":\"s2\"},"
+                        + "{\"id\":\"s3\",\"explanation\":\"  \"},"
+                        + "{\"id\":{\"n\":4},\"explanation\":\"object id\"},"
+                        + "{\"id\":\"s5\",\"explanation\":[\"not\",\"text\"]},"
+                        + "\"s6\","
+                        + "{\"id\":\"s7\",\"explanation\":\"fine\"},"
+                        + "{\"id\":\"s7\",\"explanation\":\"duplicate\"}]}"));
+        assertEquals(Set.of("s7"), parsed.keySet());
+        assertEquals("<h3>Summary</h3><p>fine</p>", parsed.get("s7").htmlContent());
+    }
+
+    @Test
+    public void unparseableBatchYieldsNothing() {
+        assertTrue(OpenAIService.parseBatchBody("not json").isEmpty());
+        assertTrue(OpenAIService.parseBatchBody("{\"choices\":[]}").isEmpty());
+        assertTrue(OpenAIService.parseBatchBody(completion("Here are your explanations!")).isEmpty());
+        assertTrue(OpenAIService.parseBatchBody(completion("{\"items\":[{\"id\":\"s1\",\"expl")).isEmpty());
+    }
+
+    @Test
+    public void missingAndExtraIdsInABatch() throws Exception {
+        // The mock leaves the second snippet out of its answer and adds an id nobody asked for
+        server.reset(MockOpenAIServer.Faults.NONE);
+        Map<String, CompletableFuture<OpenAIService.ExplanationResult>> results = ai.generateExplanationBatch(null, List.of(
+                new OpenAIService.BatchItem("a", CODE, "first"),
+                new OpenAIService.BatchItem("b", CODE, "second " + MockOpenAIServer.SKIP),
+                new OpenAIService.BatchItem("c", CODE, "third")));
+        assertEquals(Set.of("a", "b", "c"), results.keySet());
+        assertEquals("Step s1", results.get("a").get(30, TimeUnit.SECONDS).title());
+        assertEquals("Step s3", results.get("c").get(30, TimeUnit.SECONDS).title());
+        // The skipped item falls back to a request of its own
+        assertEquals("Mock step", results.get("b").get(30, TimeUnit.SECONDS).title());
+        assertEquals(2, server.stats().requests());
+    }
+
+    @Test
+    public void batchesAreSplitAtTheTokenBudget() {
+        List<OpenAIService.BatchItem> items = new ArrayList<>();
+        for (int i = 0; i < 6; i++) items.add(new OpenAIService.BatchItem("i" + i, "int v" + i + " = " + i + ";", ""));
+        int each = TokenEstimator.count("int v0 = 0;") + 20;
+        System.setProperty("ACW_BATCH_TOKENS", Integer.toString(each * 2));
+        try {
+            assertEquals(List.of(items.subList(0, 2), items.subList(2, 4), items.subList(4, 6)), ai.planBatches(items));
+
+            // A snippet over half the budget goes alone, without breaking the order of the others
+            List<OpenAIService.BatchItem> mixed = new ArrayList<>(items.subList(0, 2));
+            OpenAIService.BatchItem big = new OpenAIService.BatchItem("big", "int " + "x, ".repeat(40) + "y;", "");
+            mixed.add(1, big);
+            assertEquals(List.of(List.of(big), items.subList(0, 2)), ai.planBatches(mixed));
+
+            System.setProperty("ACW_BATCH_TOKENS", "0");
+            assertEquals(6, ai.planBatches(items).size());
+        } finally {
+            System.clearProperty("ACW_BATCH_TOKENS");
+        }
+    }
+
+    @Test
+    public void batchesHoldAtMostEightItems() {
+        List<OpenAIService.BatchItem> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) items.add(new OpenAIService.BatchItem("i" + i, "x" + i + "++;", ""));
+        List<List<OpenAIService.BatchItem>> batches = ai.planBatches(items);
+        assertEquals(List.of(8, 8, 4), batches.stream().map(List::size).toList());
+        assertEquals(items, batches.stream().flatMap(List::stream).toList());
+    }
+
+    /** A Chat Completions response whose message content is {@code content}. */
+    private static String completion(String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("content", content);
+        JsonObject choice = new JsonObject();
+        choice.add("message", message);
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject body = new JsonObject();
+        body.add("choices", choices);
+        return body.toString();
+    }
+}
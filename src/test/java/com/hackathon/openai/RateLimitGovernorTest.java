@@ -0,0 +1,104 @@
+package com.hackathon.openai;
+
+import org.junit.Test;
+
+import java.net.http.HttpHeaders;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitGovernorTest {
+    @Test
+    public void parsesDurations() {
+        assertEquals(90_000, RateLimitGovernor.parseDurationMs("1m30s"));
+        assertEquals(250, RateLimitGovernor.parseDurationMs("250ms"));
+        assertEquals(1000, RateLimitGovernor.parseDurationMs("1s"));
+        assertEquals(360_000, RateLimitGovernor.parseDurationMs("6m0s"));
+        assertEquals(3_723_500, RateLimitGovernor.parseDurationMs("1h2m3.5s"));
+        assertEquals(-1, RateLimitGovernor.parseDurationMs(""));
+        assertEquals(-1, RateLimitGovernor.parseDurationMs(null));
+        assertEquals(-1, RateLimitGovernor.parseDurationMs("soon"));
+    }
+
+    @Test
+    public void retryAfterInMillisecondsWins() {
+        assertEquals(250, RateLimitGovernor.retryAfterMs(headers("retry-after-ms", "250", "retry-after", "7")));
+    }
+
+    @Test
+    public void retryAfterInSeconds() {
+        assertEquals(7000, RateLimitGovernor.retryAfterMs(headers("retry-after", "7")));
+        assertEquals(1500, RateLimitGovernor.retryAfterMs(headers("retry-after", "1.5")));
+    }
+
+    @Test
+    public void retryAfterAsHttpDate() {
+        String at = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+        long ms = RateLimitGovernor.retryAfterMs(headers("retry-after", at));
+        // The date has whole-second precision
+        assertTrue(ms > 28_000 && ms <= 30_000);
+
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(5));
+        assertEquals(0, RateLimitGovernor.retryAfterMs(headers("retry-after", past)));
+    }
+
+    @Test
+    public void retryAfterIsClamped() {
+        assertEquals(RateLimitGovernor.MAX_WAIT_MS, RateLimitGovernor.retryAfterMs(headers("retry-after", "86400")));
+        assertEquals(RateLimitGovernor.MAX_WAIT_MS, RateLimitGovernor.retryAfterMs(headers("retry-after-ms", "1e12")));
+        assertEquals(0, RateLimitGovernor.retryAfterMs(headers("retry-after", "-5")));
+    }
+
+    @Test
+    public void missingOrUnparseableRetryAfter() {
+        assertEquals(-1, RateLimitGovernor.retryAfterMs(headers()));
+        assertEquals(-1, RateLimitGovernor.retryAfterMs(headers("retry-after", "later")));
+    }
+
+    @Test
+    public void unboundedUntilHeadersArrive() {
+        RateLimitGovernor g = new RateLimitGovernor();
+        for (int i = 0; i < 100; i++) assertEquals(0, g.reserve(10_000));
+    }
+
+    @Test
+    public void exhaustedBudgetMakesCallersWait() {
+        RateLimitGovernor g = new RateLimitGovernor();
+        g.update(headers("x-ratelimit-limit-requests", "10", "x-ratelimit-remaining-requests", "1",
+                "x-ratelimit-reset-requests", "9s"));
+        assertEquals(0, g.reserve(0));
+        // One request refills per second
+        long wait = g.reserve(0);
+        assertTrue("wait " + wait, wait > 900 && wait <= 1000);
+    }
+
+    @Test
+    public void refundReturnsTheReservation() {
+        RateLimitGovernor g = new RateLimitGovernor();
+        g.update(headers("x-ratelimit-limit-requests", "10", "x-ratelimit-remaining-requests", "1",
+                "x-ratelimit-reset-requests", "9s"));
+        assertEquals(0, g.reserve(0));
+        g.refund(0);
+        assertEquals(0, g.reserve(0));
+    }
+
+    @Test
+    public void pauseIsClamped() {
+        RateLimitGovernor g = new RateLimitGovernor();
+        g.pause(Long.MAX_VALUE / 2_000_000);
+        long wait = g.reserve(0);
+        assertTrue("wait " + wait, wait > 0 && wait <= RateLimitGovernor.MAX_WAIT_MS);
+    }
+
+    private static HttpHeaders headers(String... nameValues) {
+        Map<String, List<String>> map = new HashMap<>();
+        for (int i = 0; i < nameValues.length; i += 2) map.put(nameValues[i], List.of(nameValues[i + 1]));
+        return HttpHeaders.of(map, (n, v) -> true);
+    }
+}
@@ -0,0 +1,107 @@
+package com.hackathon.openai;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimilarSnippetIndexTest {
+    private static final String MODEL = "gpt-test";
+
+    private static final String SUM = """
+            int total(int[] values) {
+                int sum = 0;
+                for (int x : values) {
+                    sum += x;
+                }
+                return sum;
+            }""";
+
+    @Test
+    public void renamedCopyMatches() {
+        String renamed = """
+                int overall(int[] items) {
+                    // copy of total()
+                    int acc = 0;
+                    for (int v : items) {
+                        acc += v;
+                    }
+                    return acc;
+                }""";
+        SimilarSnippetIndex index = new SimilarSnippetIndex(64);
+        index.add(sig(SUM), MODEL, "sum");
+        assertEquals(List.of("sum"), index.nearest(sig(renamed), MODEL));
+    }
+
+    @Test
+    public void differentOperatorNeverMatches() {
+        String minus = SUM.replace("sum += x", "sum -= x");
+        SimilarSnippetIndex.Signature a = sig(SUM);
+        SimilarSnippetIndex.Signature b = sig(minus);
+        assertTrue("near miss", Long.bitCount(a.simHash() ^ b.simHash()) <= 6);
+        // Even with every hash bit allowed to differ, the skeletons keep them apart
+        SimilarSnippetIndex index = new SimilarSnippetIndex(64);
+        index.add(a, MODEL, "sum");
+        assertTrue(index.nearest(b, MODEL).isEmpty());
+    }
+
+    @Test
+    public void distanceIsBounded() {
+        String other = """
+                int total(int[] values) {
+                    int sum = 0;
+                    for (int x : values) {
+                        sum += x;
+                    }
+                    return sum;
+                }""";
+        SimilarSnippetIndex index = new SimilarSnippetIndex(1);
+        index.add(sig(SUM, "adds up all values"), MODEL, "sum");
+        assertEquals(List.of("sum"), index.nearest(sig(other, "adds up all values"), MODEL));
+        assertTrue(index.nearest(sig(other, "totals every amount in the ledger for the monthly report"), MODEL).isEmpty());
+    }
+
+    @Test
+    public void otherModelsAreIgnored() {
+        SimilarSnippetIndex index = new SimilarSnippetIndex(6);
+        index.add(sig(SUM), MODEL, "sum");
+        assertTrue(index.nearest(sig(SUM), "other-model").isEmpty());
+    }
+
+    @Test
+    public void nearestComesFirst() {
+        SimilarSnippetIndex index = new SimilarSnippetIndex(64);
+        SimilarSnippetIndex.Signature base = sig(SUM);
+        index.add(new SimilarSnippetIndex.Signature(base.simHash() ^ 0b111, base.skeleton()), MODEL, "far");
+        index.add(new SimilarSnippetIndex.Signature(base.simHash() ^ 0b1, base.skeleton()), MODEL, "near");
+        assertEquals(List.of("near", "far"), index.nearest(base, MODEL));
+    }
+
+    @Test
+    public void shortSnippetsAreNotIndexed() {
+        assertNull(SimilarSnippetIndex.signature("return a + b;", ""));
+    }
+
+    @Test
+    public void disabledIndexFindsNothing() {
+        SimilarSnippetIndex index = new SimilarSnippetIndex(0);
+        assertFalse(index.isEnabled());
+        index.add(sig(SUM), MODEL, "sum");
+        assertTrue(index.nearest(sig(SUM), MODEL).isEmpty());
+    }
+
+    private static SimilarSnippetIndex.Signature sig(String code) {
+        return sig(code, "");
+    }
+
+    private static SimilarSnippetIndex.Signature sig(String code, String note) {
+        SimilarSnippetIndex.Signature s = SimilarSnippetIndex.signature(code, note);
+        assertNotNull(s);
+        return s;
+    }
+}
@@ -0,0 +1,96 @@
+package com.hackathon.openai;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class SseContentSubscriberTest {
+    @Test
+    public void accumulatesDeltasUntilDone() {
+        List<String> seen = new ArrayList<>();
+        SseContentSubscriber s = new SseContentSubscriber(seen::add);
+        s.onSubscribe(new NoopSubscription());
+        s.onNext(chunk("Hel"));
+        s.onNext("");
+        s.onNext(": keep-alive");
+        s.onNext(chunk("lo"));
+        s.onNext("data: {\"choices\":[{\"delta\":{}}]}");
+        s.onNext("data: not json");
+        s.onNext("data: [DONE]");
+        s.onNext(chunk(" ignored"));
+
+        assertEquals(List.of("Hel", "Hello"), seen);
+        assertEquals("Hello", s.content().join());
+    }
+
+    @Test
+    public void finishReasonEndsTheMessageWithoutDone() {
+        SseContentSubscriber s = new SseContentSubscriber(c -> {});
+        s.onSubscribe(new NoopSubscription());
+        s.onNext(chunk("whole"));
+        s.onNext("data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}");
+        s.onComplete();
+        assertEquals("whole", s.content().join());
+    }
+
+    @Test
+    public void streamWithoutTerminatorFails() {
+        List<String> seen = new ArrayList<>();
+        SseContentSubscriber s = new SseContentSubscriber(seen::add);
+        s.onSubscribe(new NoopSubscription());
+        s.onNext(chunk("half an ans"));
+        s.onComplete();
+
+        assertEquals(List.of("half an ans"), seen);
+        assertTrue(s.content().isCompletedExceptionally());
+        CompletionException e = assertThrows(CompletionException.class, () -> s.content().join());
+        assertTrue(e.getCause() instanceof EOFException);
+    }
+
+    @Test
+    public void cancelDiscardsContentSoFar() {
+        SseContentSubscriber s = new SseContentSubscriber(c -> {});
+        NoopSubscription subscription = new NoopSubscription();
+        s.onSubscribe(subscription);
+        s.onNext(chunk("partial"));
+        s.cancel();
+
+        assertTrue(subscription.cancelled);
+        assertTrue(s.content().isCancelled());
+    }
+
+    @Test
+    public void errorBodyIsNotAMessage() {
+        SseContentSubscriber s = new SseContentSubscriber(c -> {});
+        s.onSubscribe(new NoopSubscription());
+        s.onNext("{\"error\":{\"message\":\"Rate limit reached\"}}");
+        assertFalse(s.content().isDone());
+        s.onComplete();
+        assertTrue(s.content().isCompletedExceptionally());
+    }
+
+    private static String chunk(String text) {
+        return "data: {\"choices\":[{\"delta\":{\"content\":\"" + text + "\"}}]}";
+    }
+
+    private static final class NoopSubscription implements Flow.Subscription {
+        volatile boolean cancelled;
+
+        @Override
+        public void request(long n) {}
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.hackathon.service;
+
+import com.hackathon.openai.OpenAIService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FinalizeJournalTest {
+    private static final OpenAIService.ExplanationResult FIRST = new OpenAIService.ExplanationResult("First", "<p>1</p>");
+    private static final OpenAIService.ExplanationResult SECOND = new OpenAIService.ExplanationResult("Second", "<p>2</p>");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void resultsSurviveARestart() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("finalize-journal.jsonl");
+        FinalizeJournal journal = new FinalizeJournal(file, "gpt-test/1");
+        journal.append("a", FIRST);
+        journal.append("b", SECOND);
+        journal.append("a", SECOND);
+        journal.close();
+
+        Map<String, OpenAIService.ExplanationResult> loaded = new FinalizeJournal(file, "gpt-test/1").load();
+        assertEquals(Map.of("a", SECOND, "b", SECOND), loaded);
+    }
+
+    @Test
+    public void otherModelsAndPromptsAreIgnored() {
+        Path file = tmp.getRoot().toPath().resolve("finalize-journal.jsonl");
+        FinalizeJournal journal = new FinalizeJournal(file, "gpt-test/1");
+        journal.append("a", FIRST);
+        journal.close();
+
+        assertTrue(new FinalizeJournal(file, "other-model/1").load().isEmpty());
+        assertTrue(new FinalizeJournal(file, "gpt-test/2").load().isEmpty());
+        assertEquals(Set.of("a"), new FinalizeJournal(file, "gpt-test/1").load().keySet());
+    }
+
+    @Test
+    public void tornLineIsSkipped() throws Exception {
+        Path file = tmp.getRoot().toPath().resolve("finalize-journal.jsonl");
+        FinalizeJournal journal = new FinalizeJournal(file, "gpt-test/1");
+        journal.append("a", FIRST);
+        journal.close();
+        Files.writeString(file, "\n{\"scope\":\"gpt-test/1\",\"key\":\"b\",\"ti", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        journal = new FinalizeJournal(file, "gpt-test/1");
+        assertEquals(Set.of("a"), journal.load().keySet());
+        // The next append starts on a line of its own
+        journal.append("b", SECOND);
+        journal.close();
+        assertEquals(Set.of("a", "b"), new FinalizeJournal(file, "gpt-test/1").load().keySet());
+    }
+
+    @Test
+    public void deleteRemovesTheFile() {
+        Path file = tmp.getRoot().toPath().resolve("finalize-journal.jsonl");
+        FinalizeJournal journal = new FinalizeJournal(file, "gpt-test/1");
+        journal.append("a", FIRST);
+        journal.delete();
+        assertFalse(Files.exists(file));
+        assertTrue(journal.load().isEmpty());
+    }
+}
@@ -0,0 +1,74 @@
+package com.hackathon.service;
+
+import com.hackathon.model.TourStep;
+import com.hackathon.openai.MockOpenAIServer;
+import com.hackathon.openai.OpenAIService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpeculativeExplanationQueueTest {
+    private MockOpenAIServer server;
+    private OpenAIService ai;
+    private SpeculativeExplanationQueue queue;
+
+    @Before
+    public void setUp() {
+        server = MockOpenAIServer.shared();
+        server.reset(MockOpenAIServer.Faults.NONE.latency(() -> 300));
+        ai = new OpenAIService();
+        queue = new SpeculativeExplanationQueue(null, () -> ai);
+    }
+
+    @After
+    public void tearDown() {
+        queue.cancelAll(true);
+        ai.dispose();
+        server.reset(MockOpenAIServer.Faults.NONE);
+    }
+
+    @Test
+    public void stepToggledOffInTimeCostsNothing() throws Exception {
+        TourStep s = step(1);
+        queue.schedule(s);
+        queue.cancel(s);
+        Thread.sleep(2000);
+        assertEquals(0, server.stats().requests());
+    }
+
+    @Test
+    public void atMostTwoRequestsAtOnce() throws Exception {
+        for (int i = 0; i < 6; i++) queue.schedule(step(i));
+        awaitRequests(n -> n == 6);
+        assertTrue(server.stats().toString(), server.stats().maxInFlight() <= 2);
+    }
+
+    @Test
+    public void cancelAllKeepsRequestsOnTheWire() throws Exception {
+        server.reset(MockOpenAIServer.Faults.NONE.latency(() -> 1000));
+        for (int i = 0; i < 4; i++) queue.schedule(step(i));
+        awaitRequests(n -> n == 2);
+        queue.cancelAll(false);
+        // The two in flight finish; the two still queued are never sent
+        Thread.sleep(2500);
+        assertEquals(2, server.stats().requests());
+        assertEquals(2, ai.getRequestStats().requests());
+    }
+
+    private void awaitRequests(IntPredicate done) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!done.test(server.stats().requests()) && System.nanoTime() < until) Thread.sleep(20);
+        assertTrue(server.stats().toString(), done.test(server.stats().requests()));
+    }
+
+    private static TourStep step(int i) {
+        return new TourStep("src/A.java", i, "int speculative" + i + "() { return " + i + "; }", "Note " + i, null,
+                i, "A#speculative" + i, "java");
+    }
+}
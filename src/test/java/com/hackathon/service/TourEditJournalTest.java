@@ -0,0 +1,166 @@
+package com.hackathon.service;
+
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TourEditJournalTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = tmp.newFolder(".codewalker").toPath().resolve("tour-edits.jsonl");
+    }
+
+    @Test
+    public void replaysEditsAfterSnapshot() {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        add(journal, steps, step(1));
+        add(journal, steps, step(2));
+        add(journal, steps, step(3));
+        steps.remove(1);
+        journal.removed(1, "Untitled Tour", steps);
+        TourStep explained = explained(step(1));
+        steps.set(0, explained);
+        journal.replaced(0, explained, "Untitled Tour", steps);
+        journal.titleChanged("Walkthrough", steps);
+        journal.close();
+
+        Tour tour = new TourEditJournal(file).load();
+        assertNotNull(tour);
+        assertEquals("Walkthrough", tour.title());
+        assertEquals(List.of(explained, step(3)), tour.steps());
+    }
+
+    @Test
+    public void tornLastLineIsIgnored() throws IOException {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        add(journal, steps, step(1));
+        add(journal, steps, step(2));
+        journal.close();
+        // Crash in the middle of appending the next edit
+        Files.writeString(file, "\n{\"op\":\"add\",\"step\":{\"filePath\":\"Torn.java\",\"lin", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        TourEditJournal reopened = new TourEditJournal(file);
+        Tour tour = reopened.load();
+        assertNotNull(tour);
+        assertEquals(List.of(step(1), step(2)), tour.steps());
+
+        // Edits after the restore start on a fresh line and extend the same journal
+        List<TourStep> restored = new ArrayList<>(tour.steps());
+        add(reopened, restored, step(3));
+        reopened.close();
+        assertEquals(List.of(step(1), step(2), step(3)), new TourEditJournal(file).load().steps());
+    }
+
+    @Test
+    public void compactsIntoOneSnapshot() throws IOException {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        // The first edit writes the base snapshot, then COMPACT_AFTER appended edits, then the next one compacts
+        for (int i = 0; i < TourEditJournal.COMPACT_AFTER + 1; i++) add(journal, steps, step(i));
+        journal.close();
+        assertEquals(TourEditJournal.COMPACT_AFTER + 1, lines());
+
+        journal = new TourEditJournal(file);
+        assertEquals(steps, journal.load().steps());
+        add(journal, steps, step(TourEditJournal.COMPACT_AFTER + 1));
+        journal.close();
+        assertEquals(1, lines());
+        assertEquals(steps, new TourEditJournal(file).load().steps());
+    }
+
+    @Test
+    public void resetDropsTheJournal() {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        add(journal, steps, step(1));
+        journal.reset();
+        journal.close();
+        assertFalse(Files.exists(file));
+        assertNull(new TourEditJournal(file).load());
+
+        // The next tour starts with a snapshot of its own
+        List<TourStep> next = new ArrayList<>();
+        add(journal, next, step(2));
+        journal.close();
+        assertEquals(List.of(step(2)), new TourEditJournal(file).load().steps());
+    }
+
+    @Test
+    public void detachedJournalOutlivesAFailedSave() {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        add(journal, steps, step(1));
+        journal.detach();
+        // The save never reports success: the tour can still be recovered
+        journal.close();
+        assertEquals(List.of(step(1)), new TourEditJournal(file).load().steps());
+    }
+
+    @Test
+    public void detachedJournalGoesOnceSaved() {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        add(journal, steps, step(1));
+        long detached = journal.detach();
+        journal.resetIfUnchanged(detached);
+        journal.close();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void lateSaveKeepsTheNextTour() {
+        TourEditJournal journal = new TourEditJournal(file);
+        List<TourStep> steps = new ArrayList<>();
+        add(journal, steps, step(1));
+        long detached = journal.detach();
+        // A new tour is started before the save finishes; it replaces the old one in the journal
+        List<TourStep> next = new ArrayList<>();
+        add(journal, next, step(2));
+        journal.resetIfUnchanged(detached);
+        journal.close();
+        assertEquals(List.of(step(2)), new TourEditJournal(file).load().steps());
+    }
+
+    private static void add(TourEditJournal journal, List<TourStep> steps, TourStep step) {
+        steps.add(step);
+        journal.added(step, "Untitled Tour", steps);
+    }
+
+    private long lines() throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8).stream().filter(l -> !l.isBlank()).count();
+    }
+
+    private static TourStep step(int i) {
+        return new TourStep("src/Main" + i + ".java", i + 1, "int x" + i + " = " + i + ";", "note " + i, null,
+                i + 2, "x" + i, "manual");
+    }
+
+    private static TourStep explained(TourStep s) {
+        return new TourStep(s.filePath(), s.lineNum(), s.codeSnippet(), s.authorNote(), "<p>explained</p>",
+                s.endLine(), s.symbolName(), s.type());
+    }
+}
@@ -0,0 +1,63 @@
+package com.hackathon.service;
+
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import com.hackathon.util.TourCodec;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TourPersistenceServiceTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final TourPersistenceService service = new TourPersistenceService(null);
+
+    @After
+    public void tearDown() {
+        service.dispose();
+    }
+
+    @Test
+    public void failedSaveLeavesThePreviousTour() throws Exception {
+        File file = new File(tmp.getRoot(), "tour.json");
+        TourCodec.write(file, new Tour("Saved", List.of(step(1), step(2))), null);
+        byte[] before = Files.readAllBytes(file.toPath());
+
+        // Fails halfway: the steps before the null one are already in the temp file
+        List<TourStep> steps = new ArrayList<>();
+        for (int i = 0; i < 200; i++) steps.add(step(i));
+        steps.add(null);
+        CompletableFuture<File> saved = service.save(file, new Tour("Broken", steps));
+        try {
+            saved.get(30, TimeUnit.SECONDS);
+            fail("save should have failed");
+        } catch (ExecutionException expected) {
+            // the writer reports the failure through the future
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+        assertEquals("Saved", TourCodec.read(file, null).title());
+        // No temp file left behind
+        assertArrayEquals(new String[]{"tour.json"}, tmp.getRoot().list());
+    }
+
+    private static TourStep step(int i) {
+        return new TourStep("src/A.java", i, "int v" + i + " = " + i + ";", "Note " + i, "<p>Step " + i + "</p>",
+                i, "A#v" + i, "java");
+    }
+}
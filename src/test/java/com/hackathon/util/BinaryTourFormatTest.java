@@ -0,0 +1,174 @@
+package com.hackathon.util;
+
+import com.hackathon.model.BlobRef;
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryTourFormatTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File json;
+
+    @Before
+    public void setUp() throws IOException {
+        json = new File(tmp.newFolder("project"), "tour.json");
+    }
+
+    @Test
+    public void companionLivesInCodewalker() {
+        assertEquals(new File(json.getParentFile(), ".codewalker/tour.root.cwt"), BinaryTourFormat.binaryFileFor(json));
+        File inner = new File(json.getParentFile(), ".codewalker/tour.json");
+        assertEquals(new File(json.getParentFile(), ".codewalker/tour.cwt"), BinaryTourFormat.binaryFileFor(inner));
+    }
+
+    @Test
+    public void upToDateCompanionOpensWithTheSameSteps() throws IOException {
+        Tour tour = TourCodecTest.sampleTour();
+        save(tour);
+
+        Tour mapped = BinaryTourFormat.open(json);
+        assertNotNull(mapped);
+        assertTrue(BinaryTourFormat.isMapped(mapped.steps()));
+        assertEquals(tour.title(), mapped.title());
+        assertEquals(tour.steps(), mapped.steps());
+        assertEquals(1, mapped.steps().indexOf(tour.steps().get(1)));
+    }
+
+    @Test
+    public void setOnlyChangesMemory() throws IOException {
+        Tour tour = TourCodecTest.sampleTour();
+        save(tour);
+        List<TourStep> steps = BinaryTourFormat.open(json).steps();
+        TourStep replaced = new TourStep("X.java", 9, "x", null, "<p>new</p>", null, null, "manual");
+        assertEquals(tour.steps().get(0), steps.set(0, replaced));
+        assertEquals(replaced, steps.get(0));
+        assertEquals(0, steps.indexOf(replaced));
+        assertEquals(tour.steps().get(0), BinaryTourFormat.open(json).steps().get(0));
+        try {
+            steps.add(replaced);
+            throw new AssertionError("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+            // Fixed size
+        }
+    }
+
+    @Test
+    public void changedJsonMakesTheCompanionStale() throws IOException {
+        save(TourCodecTest.sampleTour());
+        // Edited outside the IDE: different length
+        Files.writeString(json.toPath(), " ", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertNull(BinaryTourFormat.open(json));
+    }
+
+    @Test
+    public void sameLengthEditMakesTheCompanionStale() throws IOException {
+        save(TourCodecTest.sampleTour());
+        // Same length and mtime, different content, e.g. a checkout of another revision
+        long mtime = json.lastModified();
+        long length = json.length();
+        String text = Files.readString(json.toPath(), StandardCharsets.UTF_8);
+        Files.writeString(json.toPath(), text.replace("Entry point", "Entry spot!"), StandardCharsets.UTF_8);
+        assertTrue(json.setLastModified(mtime));
+        assertEquals(length, json.length());
+        assertNull(BinaryTourFormat.open(json));
+    }
+
+    @Test
+    public void touchedJsonKeepsTheCompanion() throws IOException {
+        save(TourCodecTest.sampleTour());
+        assertTrue(json.setLastModified(json.lastModified() + 10_000));
+        assertNotNull(BinaryTourFormat.open(json));
+    }
+
+    @Test
+    public void missingOrCorruptCompanionIsIgnored() throws IOException {
+        TourCodec.write(json, TourCodecTest.sampleTour(), null);
+        assertNull(BinaryTourFormat.open(json));
+
+        BinaryTourFormat.write(json, TourCodecTest.sampleTour());
+        File bin = BinaryTourFormat.binaryFileFor(json);
+        try (RandomAccessFile f = new RandomAccessFile(bin, "rw")) {
+            f.writeInt(0x12345678); // magic
+        }
+        assertNull(BinaryTourFormat.open(json));
+
+        BinaryTourFormat.write(json, TourCodecTest.sampleTour());
+        try (RandomAccessFile f = new RandomAccessFile(bin, "rw")) {
+            f.seek(48);
+            f.writeInt(1_000_000); // step count past the end of the file
+        }
+        assertNull(BinaryTourFormat.open(json));
+
+        BinaryTourFormat.write(json, TourCodecTest.sampleTour());
+        try (RandomAccessFile f = new RandomAccessFile(bin, "rw")) {
+            f.seek(64);
+            f.seek(f.readLong());
+            f.writeLong(f.length() - 2); // first string starts two bytes before the end
+        }
+        assertNull(BinaryTourFormat.open(json));
+
+        BinaryTourFormat.write(json, TourCodecTest.sampleTour());
+        try (RandomAccessFile f = new RandomAccessFile(bin, "rw")) {
+            f.seek(64);
+            f.seek(f.readLong());
+            f.seek(f.readLong());
+            f.writeInt(-7); // negative length of the first string
+        }
+        assertNull(BinaryTourFormat.open(json));
+
+        BinaryTourFormat.write(json, TourCodecTest.sampleTour());
+        try (RandomAccessFile f = new RandomAccessFile(bin, "rw")) {
+            f.seek(72);
+            f.seek(f.readLong() + 12);
+            f.writeInt(1_000_000); // code string id of the first step
+        }
+        assertNull(BinaryTourFormat.open(json));
+
+        try (RandomAccessFile f = new RandomAccessFile(bin, "rw")) {
+            f.setLength(20);
+        }
+        assertNull(BinaryTourFormat.open(json));
+    }
+
+    @Test
+    public void objectReferencesStayReferences() throws IOException {
+        BlobStore objects = new BlobStore(BlobStore.objectsDirFor(json));
+        String code = "c".repeat(BlobStore.INLINE_MAX_CHARS + 1);
+        TourCodec.write(json, new Tour("T", List.of(new TourStep("A.java", 1, code, null, null, null, null, null))), objects, null);
+        Tour read = TourCodec.read(json, null);
+        BinaryTourFormat.write(json, read);
+
+        TourStep s = BinaryTourFormat.open(json).steps().get(0);
+        BlobRef ref = s.codeRef();
+        assertNotNull(ref);
+        assertEquals(objects.put(code), ref);
+        assertEquals(code, s.codeSnippet());
+        assertFalse(new String(Files.readAllBytes(BinaryTourFormat.binaryFileFor(json).toPath()), StandardCharsets.UTF_8)
+                .contains(code));
+    }
+
+    /** Writes the JSON, then its companion, as TourCodec.save does for a tour inside the project. */
+    private void save(Tour tour) throws IOException {
+        TourCodec.write(json, tour, null);
+        BinaryTourFormat.write(json, tour);
+    }
+}
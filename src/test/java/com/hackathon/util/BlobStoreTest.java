@@ -0,0 +1,194 @@
+package com.hackathon.util;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.hackathon.model.BlobRef;
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlobStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File project;
+    private BlobStore objects;
+
+    @Before
+    public void setUp() throws IOException {
+        project = tmp.newFolder("project");
+        objects = new BlobStore(BlobStore.objectsDirFor(new File(project, "tour.json")));
+    }
+
+    @Test
+    public void objectsAreContentAddressed() throws IOException {
+        BlobRef a = objects.put("some text");
+        BlobRef b = objects.put("some text");
+        assertEquals(a, b);
+        assertEquals(64, a.hash().length());
+        // <objects>/<2 hex>/<62 hex>, stored once
+        assertEquals(a.hash().substring(0, 2), a.path().getParent().getFileName().toString());
+        assertEquals(a.hash().substring(2), a.path().getFileName().toString());
+        assertEquals(1, objectCount());
+        assertEquals("some text", a.load());
+        assertFalse(a.equals(objects.put("other text")));
+    }
+
+    @Test
+    public void tornObjectIsRewritten() throws IOException {
+        BlobRef ref = objects.put("the whole object");
+        // A crash left the object empty: the next put of the same text repairs it
+        Files.write(ref.path(), new byte[0]);
+        assertEquals(ref, objects.put("the whole object"));
+        assertEquals("the whole object", ref.load());
+        assertEquals(1, objectCount());
+    }
+
+    @Test
+    public void concurrentPutsOfTheSameTextAllSucceed() throws Exception {
+        String text = "shared ".repeat(1000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<BlobRef>> puts = new ArrayList<>();
+            for (int i = 0; i < 32; i++) puts.add(pool.submit(() -> objects.put(text)));
+            for (Future<BlobRef> f : puts) assertEquals(text, f.get().load());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, objectCount());
+        // No temp files left behind
+        try (Stream<Path> files = Files.walk(objects.dir())) {
+            assertEquals(0, files.filter(p -> p.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    public void rootAndCodewalkerToursShareTheStore() {
+        Path expected = new File(project, ".codewalker/objects").toPath();
+        assertEquals(expected, BlobStore.objectsDirFor(new File(project, "tour.json")));
+        assertEquals(expected, BlobStore.objectsDirFor(new File(project, ".codewalker/tour.json")));
+    }
+
+    @Test
+    public void invalidIdsAreRejected() {
+        assertNull(objects.ref("../../etc/passwd"));
+        assertNull(objects.ref("ABC"));
+        assertNull(objects.ref(null));
+        assertNull(objects.ref("A".repeat(64)));
+        assertNotNull(objects.ref("a".repeat(64)));
+        try {
+            new BlobRef(objects.dir(), "../" + "a".repeat(61));
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Object ids come from files and become part of a path
+        }
+    }
+
+    @Test
+    public void longTextIsStoredOnceAndLoadedOnDemand() throws IOException {
+        String code = "x".repeat(BlobStore.INLINE_MAX_CHARS + 1);
+        String explanation = "<p>" + "y".repeat(BlobStore.INLINE_MAX_CHARS) + "</p>";
+        Tour tour = new Tour("Objects", List.of(
+                new TourStep("A.java", 1, code, "n", explanation, null, null, "method"),
+                new TourStep("B.java", 2, code, null, "<p>short</p>", null, null, "method"),
+                new TourStep("C.java", 3, "short", null, null, null, null, "manual")));
+        File file = new File(project, "tour.json");
+        TourCodec.write(file, tour, objects, null);
+
+        // The shared snippet and the long explanation become two objects; short text stays inline
+        assertEquals(2, objectCount());
+        JsonObject first = step(file, 0);
+        assertFalse(first.has("codeSnippet"));
+        assertEquals(objects.put(code).hash(), first.get("codeRef").getAsString());
+        assertTrue(first.has("explanationRef"));
+        assertEquals("<p>short</p>", step(file, 1).get("aiExplanation").getAsString());
+        assertEquals("short", step(file, 2).get("codeSnippet").getAsString());
+
+        Tour read = TourCodec.read(file, null);
+        assertNotNull(read);
+        TourStep s = read.steps().get(0);
+        assertNotNull(s.codeRef());
+        assertEquals(code, s.codeSnippet());
+        assertEquals(explanation, s.aiExplanation());
+        assertEquals(tour.steps().get(1).codeSnippet(), read.steps().get(1).codeSnippet());
+    }
+
+    @Test
+    public void rewritingKeepsReferencesWithoutLoadingThem() throws IOException {
+        String code = "z".repeat(BlobStore.INLINE_MAX_CHARS * 2);
+        File file = new File(project, "tour.json");
+        TourCodec.write(file, new Tour("T", List.of(new TourStep("A.java", 1, code, null, null, null, null, null))), objects, null);
+        Tour read = TourCodec.read(file, null);
+        BlobRef ref = read.steps().get(0).codeRef();
+        assertNotNull(ref);
+
+        // With the object gone, the text cannot be loaded; the rewritten file must still name it
+        Files.delete(ref.path());
+        TourCodec.write(file, read, objects, null);
+        assertEquals(ref.hash(), step(file, 0).get("codeRef").getAsString());
+    }
+
+    @Test
+    public void missingObjectReadsAsNoText() throws IOException {
+        File file = new File(project, "tour.json");
+        Files.writeString(file.toPath(), "{\"title\":\"T\",\"steps\":[{\"filePath\":\"A.java\",\"lineNum\":1,"
+                + "\"codeRef\":\"" + "b".repeat(64) + "\",\"explanationRef\":\"not-a-hash\"}]}", StandardCharsets.UTF_8);
+        TourStep s = TourCodec.read(file, null).steps().get(0);
+        assertNotNull(s.codeRef());
+        assertNull(s.codeSnippet());
+        assertNull(s.explanationRef());
+        assertNull(s.aiExplanation());
+    }
+
+    @Test
+    public void inlineTextWinsOverAReference() throws IOException {
+        File file = new File(project, "tour.json");
+        Files.writeString(file.toPath(), "{\"steps\":[{\"codeSnippet\":\"inline\",\"codeRef\":\""
+                + objects.put("stored").hash() + "\"}]}", StandardCharsets.UTF_8);
+        TourStep s = TourCodec.read(file, null).steps().get(0);
+        assertNull(s.codeRef());
+        assertEquals("inline", s.codeSnippet());
+    }
+
+    @Test
+    public void withoutAStoreEverythingIsInline() throws IOException {
+        String code = "w".repeat(BlobStore.INLINE_MAX_CHARS * 4);
+        File file = new File(project, "tour.json");
+        TourCodec.write(file, new Tour("T", List.of(new TourStep("A.java", 1, code, null, null, null, null, null))), null);
+        assertEquals(code, step(file, 0).get("codeSnippet").getAsString());
+        assertFalse(Files.exists(objects.dir()));
+    }
+
+    private static JsonObject step(File file, int index) throws IOException {
+        return JsonParser.parseString(Files.readString(file.toPath(), StandardCharsets.UTF_8)).getAsJsonObject()
+                .getAsJsonArray("steps").get(index).getAsJsonObject();
+    }
+
+    private long objectCount() throws IOException {
+        if (!Files.exists(objects.dir())) return 0;
+        try (Stream<Path> files = Files.walk(objects.dir())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
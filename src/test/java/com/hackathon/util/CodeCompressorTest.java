@@ -0,0 +1,71 @@
+package com.hackathon.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Without a project there is no PSI pass: these cover the budget and the line cut. */
+public class CodeCompressorTest {
+    @Test
+    public void codeWithinTheBudgetIsUnchanged() {
+        String code = "int twice(int x) {\n    return x * 2;\n}";
+        assertEquals(code, CodeCompressor.compress(null, code, "", TokenEstimator.count(code)));
+        assertEquals(code, CodeCompressor.compress(null, code, "", 0));
+        assertEquals(code, CodeCompressor.compress(null, code, "", -1));
+    }
+
+    @Test
+    public void longCodeKeepsHeadAndTailWithinTheBudget() {
+        String code = lines(200);
+        int budget = TokenEstimator.count(code) / 4;
+        String compressed = CodeCompressor.compress(null, code, "", budget);
+
+        assertTrue(compressed.startsWith("int line0 = 0;\n"));
+        assertTrue(compressed.endsWith("int line199 = 199;"));
+        assertTrue(compressed.contains("\n// ...\n"));
+        assertTrue(TokenEstimator.count(compressed) <= budget);
+        // The head is about 70% of what is kept, the tail 30%
+        String[] parts = compressed.split("\n// \\.\\.\\.\n");
+        assertEquals(2, parts.length);
+        assertTrue(parts[0].length() > parts[1].length() * 3 / 2);
+    }
+
+    @Test
+    public void cutsFallOnLineBoundaries() {
+        String code = lines(100);
+        String compressed = CodeCompressor.compress(null, code, "", TokenEstimator.count(code) / 3);
+        List<String> original = List.of(code.split("\n"));
+        for (String line : compressed.split("\n")) {
+            assertTrue(line, line.equals("// ...") || original.contains(line));
+        }
+    }
+
+    @Test
+    public void tinyBudgetKeepsOnlyTheHead() {
+        String code = lines(50);
+        String compressed = CodeCompressor.compress(null, code, "", 3);
+        assertFalse(compressed.contains("line49"));
+        assertTrue(compressed.length() < code.length());
+    }
+
+    @Test
+    public void asyncWithoutProjectCompletesAtOnceWithTheSameText() {
+        String code = lines(100);
+        int budget = TokenEstimator.count(code) / 2;
+        CompletableFuture<String> f = CodeCompressor.compressAsync(null, code, "", budget);
+        assertTrue(f.isDone());
+        assertEquals(CodeCompressor.compress(null, code, "", budget), f.join());
+    }
+
+    private static String lines(int n) {
+        List<String> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) lines.add("int line" + i + " = " + i + ";");
+        return String.join("\n", lines);
+    }
+}
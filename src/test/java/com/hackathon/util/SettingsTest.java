@@ -0,0 +1,61 @@
+package com.hackathon.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SettingsTest {
+    private static final String NAME = "ACW_SETTINGS_TEST";
+
+    @After
+    public void tearDown() {
+        System.clearProperty(NAME);
+    }
+
+    @Test
+    public void blankCountsAsUnset() {
+        assertNull(Settings.get(NAME));
+        System.setProperty(NAME, "   ");
+        assertNull(Settings.get(NAME));
+        assertEquals(7, Settings.getInt(NAME, 7, 0, 10));
+        assertTrue(Settings.getBoolean(NAME, true));
+    }
+
+    @Test
+    public void valuesAreTrimmed() {
+        System.setProperty(NAME, "  42 ");
+        assertEquals("42", Settings.get(NAME));
+        assertEquals(42, Settings.getInt(NAME, 7, 0, 100));
+    }
+
+    @Test
+    public void integersAreClamped() {
+        System.setProperty(NAME, "-5");
+        assertEquals(0, Settings.getInt(NAME, 7, 0, 10));
+        System.setProperty(NAME, "500");
+        assertEquals(10, Settings.getInt(NAME, 7, 0, 10));
+        System.setProperty(NAME, "99999999999");
+        assertEquals(10, Settings.getInt(NAME, 7, 0, 10));
+    }
+
+    @Test
+    public void invalidValuesFallBackToTheDefault() {
+        System.setProperty(NAME, "lots");
+        assertEquals(7, Settings.getInt(NAME, 7, 0, 10));
+        System.setProperty(NAME, "yes");
+        assertTrue(Settings.getBoolean(NAME, true));
+        assertFalse(Settings.getBoolean(NAME, false));
+    }
+
+    @Test
+    public void booleansIgnoreCase() {
+        System.setProperty(NAME, "FALSE");
+        assertFalse(Settings.getBoolean(NAME, true));
+        System.setProperty(NAME, "True");
+        assertTrue(Settings.getBoolean(NAME, false));
+    }
+}
@@ -0,0 +1,59 @@
+package com.hackathon.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenEstimatorTest {
+    @Test
+    public void emptyTextHasNoTokens() {
+        assertEquals(0, TokenEstimator.count(""));
+    }
+
+    @Test
+    public void identifiersSplitAtHumpsAndUnderscores() {
+        assertEquals(1, TokenEstimator.count("user"));
+        assertEquals(3, TokenEstimator.count("getUserName"));
+        assertEquals(2, TokenEstimator.count("MAX_SIZE"));
+        // Long humps cost one token per ~5 characters
+        assertEquals(4, TokenEstimator.count("internationalization"));
+    }
+
+    @Test
+    public void numbersTakeOneTokenPerThreeDigits() {
+        assertEquals(1, TokenEstimator.count("7"));
+        assertEquals(2, TokenEstimator.count("123456"));
+        assertEquals(3, TokenEstimator.count("1234567"));
+    }
+
+    @Test
+    public void aSpaceBeforeAWordIsPartOfIt() {
+        assertEquals(2, TokenEstimator.count("return x"));
+        // Indentation is a token of its own, and so is a run of newlines
+        assertEquals(2, TokenEstimator.count("        x"));
+        assertEquals(3, TokenEstimator.count("a\n\n\nb"));
+    }
+
+    @Test
+    public void commonOperatorPairsAreOneToken() {
+        assertEquals(3, TokenEstimator.count("a==b"));
+        assertEquals(3, TokenEstimator.count("i++;"));
+        assertEquals(1, TokenEstimator.count("{}"));
+        // Only a space before a word is merged: "a", " ", "=", " b"
+        assertEquals(4, TokenEstimator.count("a = b"));
+    }
+
+    @Test
+    public void realCodeLandsInAPlausibleRange() {
+        String code = """
+                public int sum(int[] values) {
+                    int total = 0;
+                    for (int v : values) total += v;
+                    return total;
+                }""";
+        int tokens = TokenEstimator.count(code);
+        // A GPT tokenizer gives 40 for this snippet
+        assertTrue(String.valueOf(tokens), tokens >= 30 && tokens <= 50);
+    }
+}
@@ -0,0 +1,148 @@
+package com.hackathon.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import com.hackathon.model.Tour;
+import com.hackathon.model.TourStep;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TourCodecTest {
+    // The tour.json layout: what Gson writes for a tour whose steps have no object-store references
+    private record JsonStep(String filePath, int lineNum, String codeSnippet, String authorNote, String aiExplanation,
+                            Integer endLine, String symbolName, String type) {
+        static JsonStep of(TourStep s) {
+            return new JsonStep(s.filePath(), s.lineNum(), s.codeSnippet(), s.authorNote(), s.aiExplanation(),
+                    s.endLine(), s.symbolName(), s.type());
+        }
+    }
+
+    private record JsonTour(String title, List<JsonStep> steps) {
+        static JsonTour of(Tour t) {
+            return new JsonTour(t.title(), t.steps().stream().map(JsonStep::of).toList());
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writerMatchesGsonReflectiveOutput() throws IOException {
+        Tour tour = sampleTour();
+        File file = tmp.newFile("tour.json");
+        TourCodec.write(file, tour, null);
+
+        String written = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        // Same text as Gson's reflective output; Gson merely escapes HTML characters by default
+        JsonTour reflective = JsonTour.of(tour);
+        assertEquals(new GsonBuilder().disableHtmlEscaping().create().toJson(reflective), written);
+        assertEquals(JsonParser.parseString(new Gson().toJson(reflective)), JsonParser.parseString(written));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Tour tour = sampleTour();
+        File file = tmp.newFile("tour.json");
+        List<Double> progress = new ArrayList<>();
+        TourCodec.write(file, tour, progress::add);
+        assertEquals(1.0, progress.get(progress.size() - 1), 0);
+
+        progress.clear();
+        assertEquals(tour, TourCodec.read(file, progress::add));
+        assertEquals(tour.steps().size(), progress.size());
+        assertEquals(1.0, progress.get(progress.size() - 1), 0);
+    }
+
+    @Test
+    public void readsFilesWrittenByGson() throws IOException {
+        Tour tour = sampleTour();
+        File file = write("tour.json", new GsonBuilder().setPrettyPrinting().create().toJson(JsonTour.of(tour)));
+        assertEquals(tour, TourCodec.read(file, null));
+    }
+
+    @Test
+    public void readsOldAndHandEditedFiles() throws IOException {
+        File file = write("tour.json", """
+                {
+                  "version": 0,
+                  "steps": [
+                    {"filePath": "src/A.java", "lineNum": 3, "codeSnippet": "class A {}", "comment": "unknown field"},
+                    {"lineNum": null, "endLine": null, "authorNote": "no file", "extra": {"nested": [1, 2, {"x": null}]}},
+                    {"type": "manual", "filePath": "src/A.java", "symbolName": null, "aiExplanation": "<p>hi</p>"}
+                  ],
+                  "title": "Hand made"
+                }
+                """);
+        Tour tour = TourCodec.read(file, null);
+        assertNotNull(tour);
+        assertEquals("Hand made", tour.title());
+        assertEquals(List.of(
+                new TourStep("src/A.java", 3, "class A {}", null, null, null, null, null),
+                new TourStep(null, 0, null, "no file", null, null, null, null),
+                new TourStep("src/A.java", 0, null, null, "<p>hi</p>", null, null, "manual")
+        ), tour.steps());
+        // Repeated paths are shared
+        assertSame(tour.steps().get(0).filePath(), tour.steps().get(2).filePath());
+    }
+
+    @Test
+    public void missingOrNullStepsAndNullFile() throws IOException {
+        Tour noSteps = TourCodec.read(write("a.json", "{\"title\": \"T\"}"), null);
+        assertNotNull(noSteps);
+        assertNull(noSteps.steps());
+        Tour nullSteps = TourCodec.read(write("b.json", "{\"title\": null, \"steps\": null}"), null);
+        assertNotNull(nullSteps);
+        assertNull(nullSteps.title());
+        assertNull(nullSteps.steps());
+        assertNull(TourCodec.read(write("c.json", "null"), null));
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldFile() throws IOException {
+        File file = tmp.newFile("tour.json");
+        TourCodec.write(file, sampleTour(), null);
+        byte[] before = Files.readAllBytes(file.toPath());
+        try {
+            TourCodec.write(file, sampleTour(), f -> {
+                throw new IllegalStateException("cancelled");
+            });
+        } catch (IllegalStateException expected) {
+            // The step callback aborted the write
+        }
+        assertTrue(java.util.Arrays.equals(before, Files.readAllBytes(file.toPath())));
+        try (var files = Files.list(tmp.getRoot().toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private File write(String name, String json) throws IOException {
+        File file = tmp.newFile(name);
+        Files.writeString(file.toPath(), json, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    static Tour sampleTour() {
+        List<TourStep> steps = new ArrayList<>();
+        steps.add(new TourStep("src/Main.java", 10, "public static void main(String[] args) {}", "Entry point",
+                "<p>Starts the \"app\" &amp; exits</p>", 12, "Main.main", "method"));
+        steps.add(new TourStep("src/Main.java", 20, "int x = 1;", null, null, null, null, "manual"));
+        steps.add(new TourStep("src/Ünïcode.java", 1, "String s = \"tab\\t\\u2028 é 漢字 😀\";", "Notes\nacross lines",
+                null, 1, "Ünïcode", "class"));
+        return new Tour("A <tour> with 'quotes'", steps);
+    }
+}